@@ -1,18 +1,20 @@
 package io.sorted.app;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import io.sorted.app.command.AppVersionCommand;
 import io.sorted.app.conf.Configurable;
 import io.sorted.app.error.AppErrorHandler;
+import io.sorted.app.http.Formats;
 import io.sorted.app.module.AppModule;
+import io.sorted.app.service.MemoryRepo;
+import io.sorted.app.service.Ranked;
+import io.sorted.app.service.RepoImpl;
 import io.sorted.app.service.Service;
 import io.sorted.info.InfoModule;
 import io.sorted.product.*;
 import io.vertx.core.*;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.json.JsonObject;
-import io.vertx.core.json.jackson.DatabindCodec;
 import io.vertx.ext.mongo.MongoClient;
 import io.vertx.ext.web.Route;
 import io.vertx.ext.web.Router;
@@ -29,9 +31,13 @@ import org.slf4j.LoggerFactory;
  * conf/sorted.conf (uses hocon format <a href="https://github.com/lightbend/config">https://github.com/lightbend/config</a>)
  * conf/sorted-secrets.conf (also hocon and is ignored by VCS)
  * If any config changes are detected, the server will restart to load the config changes
+ * Started with -cluster and a cluster manager on the classpath (the cluster build profile adds Hazelcast),
+ * every node registers the repo services and calls are balanced across the nodes whose Mongo connection is healthy
  */
 public class MainVerticle extends AbstractVerticle implements Configurable {
   public static final String PORT_PROP = "port";
+  public static final String MONGO_PROP = "mongo";
+  public static final String COLLECTIONS_PROP = "collections";
   public static final int DEFAULT_PORT = 8888;
 
   private static String version;
@@ -76,11 +82,8 @@ public class MainVerticle extends AbstractVerticle implements Configurable {
     log = LoggerFactory.getLogger(MainVerticle.class.getSimpleName());
     this.appErrorHandler = new AppErrorHandler(log);
 
-    // register time module to handle LocalDateTime encoding
-    ObjectMapper mapper = DatabindCodec.mapper();
-    mapper.registerModule(new JavaTimeModule());
-    ObjectMapper prettyMapper = DatabindCodec.prettyMapper();
-    prettyMapper.registerModule(new JavaTimeModule());
+    // register time module to handle LocalDateTime encoding, in JSON and the binary formats
+    Formats.registerModule(new JavaTimeModule());
   }
 
   /**
@@ -171,27 +174,58 @@ public class MainVerticle extends AbstractVerticle implements Configurable {
    * Register any needed services on the event bus
    */
   protected void registerServices() {
-    registerService(ProductRepo.class
-      , new ProductRepoImpl(MongoClient.createShared(vertx, config.getJsonObject("mongo")), IProduct.collection()));
+    JsonObject products = collectionConfig(IProduct.collection());
+    if (MemoryRepo.isMemory(products)) {
+      registerService(ProductRepo.class, new ProductMemoryRepo(vertx, IProduct.collection(), products), products);
+    } else {
+      registerService(ProductRepo.class, new ProductRepoImpl(vertx
+        , MongoClient.createShared(vertx, config.getJsonObject(MONGO_PROP))
+        , IProduct.collection()
+        , products), products);
+    }
+  }
+
+  /**
+   * Get the config of a collection, configured by the collections object for example collections.products { }
+   * A collection with backend = memory is kept in memory instead of Mongo, which modes such as test may configure
+   * @param collectionName The collection name
+   * @return The collection config
+   */
+  protected JsonObject collectionConfig(String collectionName) {
+    return config().getJsonObject(COLLECTIONS_PROP, new JsonObject()).getJsonObject(collectionName, new JsonObject());
   }
 
   /**
    * Registers a service on the event bus.
+   * Repos start creating their missing indexes and building their rank index
    * @param tClass  the service class (interface)
    * @param impl the service implementation object
+   * @param config the service config, such as the collection config of a repo
    * @param <T> the type of the service interface
    */
-  final <T, I extends T> void registerService(Class<T> tClass, I impl) {
-    Service.register(vertx, tClass, impl);
+  final <T, I extends T> void registerService(Class<T> tClass, I impl, JsonObject config) {
+    Service.register(vertx, tClass, impl, config);
+    // indexes are created in the background so startup doesn't wait on the datasource
+    if (impl instanceof RepoImpl repo) {
+      repo.ensureIndexes()
+        .onFailure(t -> log.warn("error creating indexes on {}: {}", repo.collectionName(), t.getMessage()));
+    }
+    if (impl instanceof Ranked ranked) {
+      ranked.buildRanks()
+        .onFailure(t -> log.warn("error building the rank index of {}: {}", tClass.getSimpleName(), t.getMessage()));
+    }
   }
 
   /**
    * Deploy any additional verticles and mount them as sub routes
+   * Each module is configured with the config object named after the module, for example product { }
    */
   protected void deployModules() {
     for (AppModule app : getModules()) {
       Route route = router.route(String.format("/%s/*", app.getName()));
-      vertx.deployVerticle(app).onSuccess(
+      DeploymentOptions options = new DeploymentOptions()
+        .setConfig(config().getJsonObject(app.getName(), new JsonObject()));
+      vertx.deployVerticle(app, options).onSuccess(
         id -> route.subRouter(app.getRouter())
       ).onFailure(t -> log.error("error deploying module {}: {}", app.getName(), t.getMessage()));
     }
@@ -0,0 +1,106 @@
+package io.sorted.app.http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.EncodeException;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.json.jackson.DatabindCodec;
+import io.vertx.core.json.jackson.VertxModule;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary encodings of JSON documents, negotiated by media type
+ * CBOR, Smile and MessagePack encode the same documents as JSON, with the same Jackson modules,
+ * so JSON objects and arrays, instants and buffers are mapped the same way in every format.
+ * JSON stays the default, these are only used when a client asks for them.
+ */
+public final class Formats {
+  public static final String APPLICATION_CBOR = "application/cbor";
+  public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+  public static final String APPLICATION_MSGPACK = "application/msgpack";
+  public static final String APPLICATION_X_MSGPACK = "application/x-msgpack";
+
+  private static final Map<String, ObjectMapper> mappers = new LinkedHashMap<>();
+
+  static {
+    ObjectMapper msgpack = mapper(new MessagePackFactory());
+    mappers.put(APPLICATION_CBOR, mapper(new CBORFactory()));
+    mappers.put(APPLICATION_SMILE, mapper(new SmileFactory()));
+    mappers.put(APPLICATION_MSGPACK, msgpack);
+    mappers.put(APPLICATION_X_MSGPACK, msgpack);
+  }
+
+  private Formats() { }
+
+  static ObjectMapper mapper(JsonFactory factory) {
+    return new ObjectMapper(factory).registerModule(new VertxModule());
+  }
+
+  /**
+   * Register a Jackson module with the JSON mappers and the mapper of every binary format
+   * @param module The module, such as JavaTimeModule
+   */
+  public static synchronized void registerModule(Module module) {
+    DatabindCodec.mapper().registerModule(module);
+    DatabindCodec.prettyMapper().registerModule(module);
+    mappers.values().forEach(mapper -> mapper.registerModule(module));
+  }
+
+  /**
+   * Determine if a media type is one of the binary formats
+   * @param mediaType The media type without parameters, may be null
+   * @return True if the media type is a binary format
+   */
+  public static boolean isBinary(String mediaType) {
+    return mediaType != null && mappers.containsKey(mediaType);
+  }
+
+  /**
+   * Encode a value
+   * @param mediaType The media type, JSON if it isn't a binary format
+   * @param value A JSON object or array, a list, or an object Jackson can map
+   * @return The encoded value
+   * @throws EncodeException if the value can't be encoded
+   */
+  public static Buffer encode(String mediaType, Object value) {
+    ObjectMapper mapper = mediaType == null ? null : mappers.get(mediaType);
+    if (mapper == null) return Json.encodeToBuffer(value);
+    try {
+      return Buffer.buffer(mapper.writeValueAsBytes(value));
+    } catch (IOException e) {
+      throw new EncodeException(String.format("failed to encode %s: %s", mediaType, e.getMessage()));
+    }
+  }
+
+  /**
+   * Decode a document or an array of documents
+   * @param mediaType A binary media type
+   * @param body The encoded value
+   * @return A JSON object or a JSON array, null for an empty body
+   * @throws DecodeException if the body isn't a valid object or array of the format
+   */
+  @SuppressWarnings("unchecked")
+  public static Object decode(String mediaType, Buffer body) {
+    if (body == null || body.length() == 0) return null;
+    try {
+      Object value = mappers.get(mediaType).readValue(body.getBytes(), Object.class);
+      if (value instanceof Map) return new JsonObject((Map<String, Object>) value);
+      if (value instanceof List) return new JsonArray((List<Object>) value);
+      throw new DecodeException(String.format("expected an object or an array of %s", mediaType));
+    } catch (IOException e) {
+      throw new DecodeException(String.format("failed to decode %s: %s", mediaType, e.getMessage()));
+    }
+  }
+}
@@ -1,9 +1,20 @@
 package io.sorted.app.http;
 
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.web.MIMEHeader;
 import io.vertx.ext.web.RoutingContext;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Locale;
 
 /**
@@ -12,7 +23,12 @@ import java.util.Locale;
  */
 public class Http {
   public static final String APPLICATION_JSON = "application/json";
+  public static final String APPLICATION_NDJSON = "application/x-ndjson";
   public static final String LANG_PARAM = "lang";
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+  public static final String PREFER_HEADER = "Prefer";
+  public static final String PREFERENCE_APPLIED_HEADER = "Preference-Applied";
+  public static final String RETURN_MINIMAL = "return=minimal";
 
   /**
    * Get the locale from the routing context
@@ -35,4 +51,204 @@ public class Http {
   public static HttpServerResponse jsonContent(RoutingContext ctx) {
     return ctx.response().putHeader(HttpHeaders.CONTENT_TYPE, APPLICATION_JSON);
   }
+
+  /**
+   * Determine if the request accepts the specified content type
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @param contentType The content type
+   * @return True if the Accept header contains the content type, false otherwise
+   */
+  public static boolean accepts(RoutingContext ctx, String contentType) {
+    String accept = ctx.request().getHeader(HttpHeaders.ACCEPT);
+    return accept != null && accept.contains(contentType);
+  }
+
+  /**
+   * Negotiate the response media type from the Accept header
+   * The most preferred binary format the client accepts wins, unless JSON or a wildcard is preferred over it
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @return The binary media type, or application/json by default
+   */
+  public static String responseType(RoutingContext ctx) {
+    for (MIMEHeader accept : ctx.parsedHeaders().accept()) {
+      if (accept.weight() <= 0) continue;
+      String type = accept.value();
+      if (Formats.isBinary(type)) return type;
+      if (type.equals(APPLICATION_JSON) || type.startsWith("*/") || type.equals("application/*")) break;
+    }
+    return APPLICATION_JSON;
+  }
+
+  /**
+   * The variant of the negotiated response type, to keep entity tags of the same resource distinct per format
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @return A suffix such as -application/cbor, empty for JSON
+   */
+  public static String formatVariant(RoutingContext ctx) {
+    String type = responseType(ctx);
+    return type.equals(APPLICATION_JSON) ? "" : "-" + type;
+  }
+
+  /**
+   * Encode a response body in the negotiated format, setting the Content-Type and Vary headers
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @param value A JSON object or array, a list, or an object Jackson can map
+   * @return The encoded body
+   */
+  public static Buffer encode(RoutingContext ctx, Object value) {
+    String type = responseType(ctx);
+    ctx.response().putHeader(HttpHeaders.CONTENT_TYPE, type).putHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+    return Formats.encode(type, value);
+  }
+
+  /**
+   * Respond with a value encoded in the negotiated format, JSON unless the client accepts a binary format
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @param value A JSON object or array, a list, or an object Jackson can map
+   */
+  public static void send(RoutingContext ctx, Object value) {
+    Buffer body = encode(ctx, value);
+    ctx.response().end(body);
+  }
+
+  /**
+   * The media type of the request body without parameters
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @return The media type, null if there is no Content-Type header
+   */
+  public static String requestType(RoutingContext ctx) {
+    String contentType = ctx.request().getHeader(HttpHeaders.CONTENT_TYPE);
+    if (contentType == null) return null;
+    int semicolon = contentType.indexOf(';');
+    return (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Decode the request body as a JSON object, in JSON or the binary format of its Content-Type
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @return The object, null if the body is empty
+   * @throws DecodeException if the body isn't an object
+   */
+  public static JsonObject bodyAsJsonObject(RoutingContext ctx) {
+    String type = requestType(ctx);
+    if (!Formats.isBinary(type)) return ctx.body().asJsonObject();
+    Object body = Formats.decode(type, ctx.body().buffer());
+    if (body == null || body instanceof JsonObject) return (JsonObject) body;
+    throw new DecodeException(String.format("expected an object of %s", type));
+  }
+
+  /**
+   * Decode the request body as a JSON array, in JSON or the binary format of its Content-Type
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @return The array, null if the body is empty
+   * @throws DecodeException if the body isn't an array
+   */
+  public static JsonArray bodyAsJsonArray(RoutingContext ctx) {
+    String type = requestType(ctx);
+    if (!Formats.isBinary(type)) return ctx.body().asJsonArray();
+    Object body = Formats.decode(type, ctx.body().buffer());
+    if (body == null || body instanceof JsonArray) return (JsonArray) body;
+    throw new DecodeException(String.format("expected an array of %s", type));
+  }
+
+  /**
+   * Determine if the request prefers a minimal response, see RFC 7240
+   * Marks the preference as applied on the response
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @return True if the Prefer header contains return=minimal, false otherwise
+   */
+  public static boolean prefersMinimal(RoutingContext ctx) {
+    String prefer = ctx.request().getHeader(PREFER_HEADER);
+    if (prefer == null || !prefer.contains(RETURN_MINIMAL)) return false;
+    ctx.response().putHeader(PREFERENCE_APPLIED_HEADER, RETURN_MINIMAL);
+    return true;
+  }
+
+  /**
+   * Build a strong entity tag
+   * @param value The opaque tag value
+   * @return The quoted entity tag
+   */
+  public static String etag(String value) {
+    return '"' + value + '"';
+  }
+
+  /**
+   * Build a strong entity tag from a hash of the response body
+   * @param body The response body
+   * @return The quoted entity tag
+   */
+  public static String etag(Buffer body) {
+    try {
+      byte[] hash = MessageDigest.getInstance("SHA-256").digest(body.getBytes());
+      return etag(Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, 16)));
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Set the ETag header and respond 304 Not Modified if the If-None-Match header matches it
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @param etag The entity tag of the current representation
+   * @return True if the response was ended with 304, false if the representation still needs to be sent
+   */
+  public static boolean notModified(RoutingContext ctx, String etag) {
+    HttpServerResponse response = ctx.response().putHeader(HttpHeaders.ETAG, etag);
+    String ifNoneMatch = ctx.request().getHeader(HttpHeaders.IF_NONE_MATCH);
+    if (ifNoneMatch == null) return false;
+    boolean matches = Arrays.stream(ifNoneMatch.split(","))
+      .map(String::trim)
+      .anyMatch(tag -> tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag));
+    if (matches) response.setStatusCode(HttpStatus.NOT_MODIFIED.value()).end();
+    return matches;
+  }
+
+  /**
+   * Write a stream of documents to a chunked response
+   * The response is newline delimited JSON if the client accepts it, otherwise a JSON array
+   * Streams are always JSON, the binary formats only encode whole responses
+   * The stream is paused while the response write queue is full, so memory stays bounded by the queue size,
+   * and is cancelled when the client closes the connection
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @param stream The documents to write
+   */
+  public static void streamJson(RoutingContext ctx, ReadStream<JsonObject> stream) {
+    streamJson(ctx, stream, accepts(ctx, APPLICATION_NDJSON));
+  }
+
+  /**
+   * Write a stream of documents to a chunked response, see {@link #streamJson(RoutingContext, ReadStream)}
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @param stream The documents to write
+   * @param ndjson True for newline delimited JSON, false for a JSON array
+   */
+  public static void streamJson(RoutingContext ctx, ReadStream<JsonObject> stream, boolean ndjson) {
+    HttpServerResponse response = ctx.response()
+      .setChunked(true)
+      .putHeader(HttpHeaders.CONTENT_TYPE, ndjson ? APPLICATION_NDJSON : APPLICATION_JSON);
+    // stop reading from the source if the client goes away, clearing the handler cancels a cursor so the server closes it
+    response.closeHandler(v -> stream.exceptionHandler(null).endHandler(null).handler(null));
+    long[] count = { 0 };
+
+    stream.exceptionHandler(t -> {
+      // once the head is written the status can't change, so the only option left is to abort
+      if (response.headWritten()) response.reset();
+      else ctx.fail(t);
+    }).endHandler(v -> {
+      if (ndjson) response.end();
+      else response.end(count[0] == 0 ? "[]" : "]");
+    }).handler(document -> {
+      Buffer chunk = Buffer.buffer();
+      if (ndjson) chunk.appendBuffer(document.toBuffer()).appendString("\n");
+      else chunk.appendString(count[0] == 0 ? "[" : ",").appendBuffer(document.toBuffer());
+      count[0]++;
+      response.write(chunk);
+      if (response.writeQueueFull()) {
+        stream.pause();
+        response.drainHandler(drained -> stream.resume());
+      }
+    });
+  }
 }
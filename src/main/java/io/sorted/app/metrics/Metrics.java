@@ -0,0 +1,65 @@
+package io.sorted.app.metrics;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of in-process counters and summaries, shared by everything running in a Vert.x instance
+ */
+public class Metrics implements Shareable {
+  static final String METRICS = Metrics.class.getName();
+
+  /**
+   * Get the metrics registry of the Vert.x instance
+   * @param vertx The Vert.x instance
+   * @return The metrics registry
+   */
+  public static Metrics of(Vertx vertx) {
+    LocalMap<String, Metrics> map = vertx.sharedData().getLocalMap(METRICS);
+    Metrics metrics = map.get(METRICS);
+    if (metrics == null) {
+      Metrics existing = map.putIfAbsent(METRICS, metrics = new Metrics());
+      if (existing != null) metrics = existing;
+    }
+    return metrics;
+  }
+
+  private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+  private final Map<String, Summary> summaries = new ConcurrentHashMap<>();
+
+  /**
+   * Get or create a counter
+   * @param name The metric name
+   * @return The counter
+   */
+  public LongAdder counter(String name) {
+    return counters.computeIfAbsent(name, it -> new LongAdder());
+  }
+
+  /**
+   * Get or create a summary of recorded values
+   * @param name The metric name
+   * @return The summary
+   */
+  public Summary summary(String name) {
+    return summaries.computeIfAbsent(name, it -> new Summary());
+  }
+
+  /**
+   * Snapshot of all the metrics sorted by name
+   * @return The metrics as a JSON object
+   */
+  public JsonObject toJson() {
+    Map<String, Object> snapshot = new ConcurrentSkipListMap<>();
+    counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+    summaries.forEach((name, summary) -> snapshot.put(name, summary.toJson()));
+    return new JsonObject(snapshot);
+  }
+}
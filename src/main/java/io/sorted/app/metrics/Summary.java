@@ -0,0 +1,39 @@
+package io.sorted.app.metrics;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count, total and maximum of recorded values such as sizes or durations
+ */
+public class Summary {
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * Record a value
+   * @param value The value
+   */
+  public void record(long value) {
+    count.increment();
+    total.add(value);
+    max.accumulate(value);
+  }
+
+  /**
+   * Snapshot of the summary
+   * @return The count, total, mean and maximum of the values as a JSON object
+   */
+  public JsonObject toJson() {
+    long n = count.sum();
+    long sum = total.sum();
+    return new JsonObject()
+      .put("count", n)
+      .put("total", sum)
+      .put("mean", n == 0 ? 0 : (double) sum / n)
+      .put("max", max.get());
+  }
+}
@@ -13,6 +13,9 @@ import io.vertx.ext.web.RoutingContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Locale;
+import java.util.stream.Collectors;
+
 /**
  * App modules are deployed as verticles by the main verticle and mounted as a sub-router to the main router
  */
@@ -91,14 +94,42 @@ public abstract class AppModule extends AbstractVerticle implements IMode {
   protected <T> Handler<RoutingContext> validationHandler(Validator<T> validator, Class<T> aClass) {
     return ctx -> {
       JsonObject result = ctx.get(getName());
-      validator.applicative().validate(result == null ? ctx.body().asPojo(aClass) : result.mapTo(aClass)
-        , Http.getLocale(ctx)).orElseThrow(ConstraintViolationsException::new);
+      JsonObject body = result == null ? Http.bodyAsJsonObject(ctx) : result;
+      validate(validator, body == null ? null : body.mapTo(aClass), Http.getLocale(ctx));
       ctx.next();
     };
   }
 
   /**
-   * Make sure result is not null and if so return as JSON, otherwise fail 404
+   * Validate an object using the specified validator
+   * @param validator The validator used to validate the object
+   * @param object The object to validate
+   * @param locale The locale of the error messages
+   * @param <T> The type of object being validated
+   * @throws ConstraintViolationsException if the object is invalid
+   */
+  protected <T> void validate(Validator<T> validator, T object, Locale locale) {
+    validator.applicative().validate(object, locale).orElseThrow(ConstraintViolationsException::new);
+  }
+
+  /**
+   * Validate only the fields present in a partial object, such as the body of a merge update
+   * @param validator The validator used to validate the object
+   * @param patch The partial object
+   * @param aClass The type of object to validate
+   * @param locale The locale of the error messages
+   * @param <T> The type of object being validated
+   * @throws ConstraintViolationsException if any of the patch fields are invalid
+   */
+  protected <T> void validatePatch(Validator<T> validator, JsonObject patch, Class<T> aClass, Locale locale) {
+    var violations = validator.validate(patch.mapTo(aClass), locale).stream()
+      .filter(violation -> patch.containsKey(violation.name()))
+      .collect(Collectors.toList());
+    if (!violations.isEmpty()) throw new ConstraintViolationsException(violations);
+  }
+
+  /**
+   * Make sure result is not null and if so return it in the negotiated format, otherwise fail 404
    * @param ctx Represents the context for the handling of a request in Vert.x-Web
    * @return The context handler
    * @param <T> The type of result
@@ -106,7 +137,7 @@ public abstract class AppModule extends AbstractVerticle implements IMode {
   protected <T> Handler<T> notNullHandler(RoutingContext ctx) {
     return it -> {
       if (it == null) ctx.fail(HttpStatus.NOT_FOUND.value());
-      else ctx.json(it);
+      else Http.send(ctx, it);
     };
   }
 }
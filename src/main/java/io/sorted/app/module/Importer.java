@@ -0,0 +1,176 @@
+package io.sorted.app.module;
+
+import io.sorted.app.http.Http;
+import io.sorted.app.http.HttpStatus;
+import io.sorted.app.service.Repo;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.JsonEventType;
+import io.vertx.core.parsetools.JsonParser;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Imports a request body of newline delimited JSON documents with bulk writes
+ * The body is parsed as it arrives and written in unordered batches, several batches may be in flight at once.
+ * Writes of the same _id keep the order of their lines, so the last line of an _id wins:
+ * a batch never holds an _id twice and a batch holding an _id of an in flight batch waits for that batch.
+ * When the maximum number of batches is in flight the request is paused, so memory stays bounded
+ * by the batch size and in flight batches no matter how large the body is.
+ * Documents which fail to convert are counted and skipped, the first few errors are reported with their line.
+ * A failed write stops the import and fails the request.
+ */
+public class Importer {
+  static final int MAX_ERRORS = 10;
+
+  private final RoutingContext ctx;
+  private final Repo repo;
+  private final int batchSize;
+  private final int maxInFlight;
+  private final Function<JsonObject, BulkOperation> operation;
+  private final JsonObject totals = new JsonObject()
+    .put("inserted", 0L).put("matched", 0L).put("modified", 0L).put("upserted", 0L).put("invalid", 0L);
+  private final JsonArray errors = new JsonArray();
+  private JsonParser parser;
+  private List<BulkOperation> batch = new ArrayList<>();
+  private final Set<Object> batchIds = new HashSet<>();
+  // the last batch writing each _id which is in flight
+  private final Map<Object, Future<?>> writing = new HashMap<>();
+  private long line;
+  private int inFlight;
+  private boolean ended;
+  private boolean failed;
+
+  /**
+   * Create an importer of a request
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   * @param repo The repo to write to
+   * @param batchSize The number of documents per bulk write
+   * @param maxInFlight The maximum number of bulk writes in flight
+   * @param operation Converts a document to its write, throws if the document is invalid
+   */
+  public Importer(RoutingContext ctx
+    , Repo repo
+    , int batchSize
+    , int maxInFlight
+    , Function<JsonObject, BulkOperation> operation) {
+    this.ctx = ctx;
+    this.repo = repo;
+    this.batchSize = Math.max(1, batchSize);
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.operation = operation;
+  }
+
+  /**
+   * Start reading the request body, responds with the totals once every document is written
+   */
+  public void start() {
+    parser = JsonParser.newParser(ctx.request()).objectValueMode();
+    parser.exceptionHandler(t -> fail(HttpStatus.BAD_REQUEST.value(), t))
+      .endHandler(v -> {
+        ended = true;
+        flush();
+        complete();
+      })
+      .handler(event -> {
+        if (failed) return;
+        line++;
+        if (event.type() != JsonEventType.VALUE || !(event.value() instanceof JsonObject)) {
+          invalid(new IllegalArgumentException("expected a JSON object"));
+          return;
+        }
+        BulkOperation write;
+        try {
+          write = operation.apply(event.objectValue());
+        } catch (RuntimeException e) {
+          invalid(e);
+          return;
+        }
+        // an unordered batch may apply its writes in any order
+        Object id = id(write);
+        if (id != null && !batchIds.add(id)) {
+          flush();
+          if (failed) return;
+          batchIds.add(id);
+        }
+        batch.add(write);
+        if (batch.size() >= batchSize) flush();
+      });
+    // the router pauses requests until a handler reads the body
+    ctx.request().resume();
+  }
+
+  void invalid(RuntimeException e) {
+    totals.put("invalid", totals.getLong("invalid") + 1);
+    if (errors.size() < MAX_ERRORS) errors.add(new JsonObject().put("line", line).put("error", e.getMessage()));
+  }
+
+  /**
+   * @param write A bulk write
+   * @return The _id the write targets or null when it doesn't name one
+   */
+  static Object id(BulkOperation write) {
+    JsonObject target = write.getFilter() != null ? write.getFilter() : write.getDocument();
+    return target == null ? null : target.getValue("_id");
+  }
+
+  void flush() {
+    if (batch.isEmpty() || failed) return;
+    List<BulkOperation> flushed = batch;
+    batch = new ArrayList<>(batchSize);
+    batchIds.clear();
+    inFlight++;
+    // the parser stops reading the body until a write completes
+    if (inFlight >= maxInFlight) parser.pause();
+    List<Object> ids = flushed.stream().map(Importer::id).filter(Objects::nonNull).toList();
+    // waits for the earlier batches of its ids whether they succeed or not, a failure fails the import anyway
+    Future<MongoClientBulkWriteResult> written = CompositeFuture.join(ids.stream().map(writing::get)
+        .filter(Objects::nonNull).distinct().collect(Collectors.toList()))
+      .<Void>mapEmpty().otherwiseEmpty()
+      .compose(v -> failed
+        ? Future.failedFuture("import failed")
+        : repo.bulk(flushed, new BulkWriteOptions(false)));
+    ids.forEach(id -> writing.put(id, written));
+    written
+      .onComplete(it -> ids.forEach(id -> writing.remove(id, written)))
+      .onSuccess(this::written)
+      .onFailure(t -> fail(HttpStatus.INTERNAL_SERVER_ERROR.value(), t))
+      .onComplete(it -> {
+        inFlight--;
+        if (!ended && !failed) parser.resume();
+        complete();
+      });
+  }
+
+  void written(MongoClientBulkWriteResult result) {
+    totals.put("inserted", totals.getLong("inserted") + result.getInsertedCount())
+      .put("matched", totals.getLong("matched") + result.getMatchedCount())
+      .put("modified", totals.getLong("modified") + result.getModifiedCount())
+      .put("upserted", totals.getLong("upserted") + (result.getUpserts() == null ? 0 : result.getUpserts().size()));
+  }
+
+  void fail(int status, Throwable t) {
+    if (failed) return;
+    failed = true;
+    if (!ctx.response().headWritten()) ctx.fail(status, t);
+  }
+
+  void complete() {
+    if (!ended || inFlight > 0 || failed) return;
+    Http.send(ctx, totals.put("errors", errors));
+  }
+}
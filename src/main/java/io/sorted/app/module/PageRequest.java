@@ -0,0 +1,199 @@
+package io.sorted.app.module;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.web.RoutingContext;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Paging, sorting and projection parameters of a list request
+ * Pages use a keyset cursor on the sort field and _id so each page costs the same no matter how deep it is
+ * @param limit The maximum number of documents, 0 for no limit
+ * @param sort The field to sort on
+ * @param descending True to sort in descending order
+ * @param after The decoded cursor of the last document of the previous page, null for the first page
+ * @param fields The fields to return, null for all fields
+ */
+public record PageRequest(int limit
+  , String sort
+  , boolean descending
+  , JsonObject after
+  , List<String> fields) {
+  public static final String LIMIT_PARAM = "limit";
+  public static final String AFTER_PARAM = "after";
+  public static final String SORT_PARAM = "sort";
+  public static final String FIELDS_PARAM = "fields";
+  public static final String ID_FIELD = "_id";
+  public static final int MAX_LIMIT = 1000;
+
+  static final String CURSOR_SORT = "s";
+  static final String CURSOR_VALUE = "v";
+  static final String CURSOR_ID = "id";
+
+  /**
+   * Parse the page request from the query parameters
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @param sortable The fields which may be sorted on
+   * @return The page request
+   * @throws IllegalArgumentException if any parameter is invalid
+   */
+  public static PageRequest of(RoutingContext ctx, Set<String> sortable) {
+    int limit = 0;
+    String limitParam = param(ctx, LIMIT_PARAM);
+    if (limitParam != null) {
+      try {
+        limit = Integer.parseInt(limitParam);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException(String.format("%s must be a number", LIMIT_PARAM));
+      }
+      if (limit < 1 || limit > MAX_LIMIT)
+        throw new IllegalArgumentException(String.format("%s must be between 1 and %d", LIMIT_PARAM, MAX_LIMIT));
+    }
+
+    String sort = param(ctx, SORT_PARAM);
+    boolean descending = sort != null && sort.startsWith("-");
+    sort = sort == null ? ID_FIELD : descending ? sort.substring(1) : sort;
+    if (!sort.equals(ID_FIELD) && !sortable.contains(sort))
+      throw new IllegalArgumentException(String.format("cannot sort on %s", sort));
+
+    String afterParam = param(ctx, AFTER_PARAM);
+    JsonObject after = afterParam == null ? null : cursor(afterParam, sort);
+
+    String fieldsParam = param(ctx, FIELDS_PARAM);
+    return new PageRequest(limit, sort, descending, after, fieldsParam == null ? null : fields(fieldsParam));
+  }
+
+  /**
+   * Decode the cursor of a page and check it was built for the sort
+   * The values are put in the page query, so only scalars are accepted, an object could be a query operator
+   * @param cursor The cursor parameter
+   * @param sort The sort field
+   * @return The decoded cursor
+   * @throws IllegalArgumentException if the cursor is invalid
+   */
+  static JsonObject cursor(String cursor, String sort) {
+    JsonObject after = decode(cursor);
+    if (!sort.equals(after.getValue(CURSOR_SORT)))
+      throw new IllegalArgumentException(String.format("%s cursor does not match sort %s", AFTER_PARAM, sort));
+    if (!scalar(after.getValue(CURSOR_VALUE)) || !scalar(after.getValue(CURSOR_ID)))
+      throw new IllegalArgumentException(String.format("invalid %s cursor", AFTER_PARAM));
+    return after;
+  }
+
+  static boolean scalar(Object value) {
+    return !(value instanceof JsonObject || value instanceof JsonArray);
+  }
+
+  /**
+   * Parse the comma separated fields to return, skipping blank names
+   * @param fields The fields parameter
+   * @return The field names, null if there are none
+   */
+  static List<String> fields(String fields) {
+    List<String> names = Arrays.stream(fields.split(","))
+      .map(String::trim)
+      .filter(name -> !name.isEmpty())
+      .collect(Collectors.toList());
+    return names.isEmpty() ? null : names;
+  }
+
+  /**
+   * Get the first value of a query parameter
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @param name The parameter name
+   * @return The trimmed value, null if the parameter is missing or blank
+   */
+  public static String param(RoutingContext ctx, String name) {
+    List<String> values = ctx.queryParam(name);
+    return values.isEmpty() || values.get(0).isBlank() ? null : values.get(0).trim();
+  }
+
+  static JsonObject decode(String cursor) {
+    try {
+      return new JsonObject(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException(String.format("invalid %s cursor", AFTER_PARAM));
+    }
+  }
+
+  /**
+   * Determine if the request is limited to a page
+   * @return True if a limit was requested
+   */
+  public boolean paged() {
+    return limit > 0;
+  }
+
+  /**
+   * Restrict the query to documents after the cursor
+   * @param query The query used to match documents
+   * @return The query for the page
+   */
+  public JsonObject query(JsonObject query) {
+    if (after == null) return query;
+    JsonObject keyset = keyset();
+    return query.isEmpty() ? keyset : new JsonObject().put("$and", new JsonArray().add(query).add(keyset));
+  }
+
+  // documents sorting after the cursor, _id breaks ties between equal sort values
+  JsonObject keyset() {
+    String op = descending ? "$lt" : "$gt";
+    Object id = after.getValue(CURSOR_ID);
+    if (sort.equals(ID_FIELD)) return new JsonObject().put(ID_FIELD, new JsonObject().put(op, id));
+
+    Object value = after.getValue(CURSOR_VALUE);
+    JsonObject tie = new JsonObject().put(sort, value).put(ID_FIELD, new JsonObject().put(op, id));
+    // nulls sort before any other value
+    JsonArray or = new JsonArray();
+    if (value == null) {
+      or.add(tie);
+      if (!descending) or.add(new JsonObject().put(sort, new JsonObject().put("$ne", null)));
+    } else {
+      or.add(new JsonObject().put(sort, new JsonObject().put(op, value))).add(tie);
+      if (descending) or.add(new JsonObject().putNull(sort));
+    }
+    return or.size() == 1 ? or.getJsonObject(0) : new JsonObject().put("$or", or);
+  }
+
+  /**
+   * Build the find options for the page
+   * @return The find options
+   */
+  public FindOptions options() {
+    int direction = descending ? -1 : 1;
+    JsonObject sortDocument = new JsonObject().put(sort, direction);
+    if (!sort.equals(ID_FIELD)) sortDocument.put(ID_FIELD, direction);
+    FindOptions options = new FindOptions().setSort(sortDocument);
+    if (paged()) options.setLimit(limit);
+    if (fields != null) {
+      JsonObject projection = new JsonObject();
+      fields.forEach(field -> projection.put(field, 1));
+      // the cursor is built from the sort field so it has to be returned
+      projection.put(sort, 1);
+      options.setFields(projection);
+    }
+    return options;
+  }
+
+  /**
+   * Build the opaque cursor of the next page
+   * @param page The documents of the current page
+   * @return The cursor, null if this is the last page
+   */
+  public String next(List<JsonObject> page) {
+    if (!paged() || page.size() < limit) return null;
+    JsonObject last = page.get(page.size() - 1);
+    JsonObject cursor = new JsonObject()
+      .put(CURSOR_SORT, sort)
+      .put(CURSOR_VALUE, last.getValue(sort))
+      .put(CURSOR_ID, last.getValue(ID_FIELD));
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.toBuffer().getBytes());
+  }
+}
@@ -0,0 +1,158 @@
+package io.sorted.app.module;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.lang.reflect.RecordComponent;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Translates query parameters into a Mongo filter, such as name=apple&amp;rank[gte]=2
+ * A parameter named after a field matches it exactly, field[op] applies an operator:
+ * eq, ne, gt, gte, lt, lte, in and nin with comma separated values, and exists with true or false.
+ * The fields are the components of the collection record, and the operators allowed depend on the field type,
+ * strings and numbers compare, booleans only match.
+ * Each query shape, the set of filter parameters of a request, is compiled once into the conversions
+ * of its values and cached, so a request only substitutes the values.
+ * Parameters which aren't fields, such as paging parameters, are left for other uses.
+ */
+public class QueryFilter {
+  public static final int MAX_SHAPES = 256;
+  static final Set<String> MATCH = Set.of("eq", "ne", "in", "nin", "exists");
+  static final Set<String> COMPARE = Set.of("eq", "ne", "gt", "gte", "lt", "lte", "in", "nin", "exists");
+
+  record Field(String name, Function<String, Object> parse, Set<String> operators) { }
+
+  // where the value of one parameter goes in the filter
+  record Slot(String param, String field, String operator, Function<String, Object> parse) {
+    void put(JsonObject query, String value) {
+      JsonObject conditions = query.getJsonObject(field);
+      if (conditions == null) query.put(field, conditions = new JsonObject());
+      Object converted;
+      if (operator.equals("$in") || operator.equals("$nin")) {
+        JsonArray values = new JsonArray();
+        for (String item : value.split(",")) values.add(parse.apply(item.trim()));
+        converted = values;
+      } else if (operator.equals("$exists")) {
+        converted = bool(value);
+      } else {
+        converted = parse.apply(value);
+      }
+      conditions.put(operator, converted);
+    }
+  }
+
+  private final Map<String, Field> fields;
+  private final Map<String, List<Slot>> shapes = new ConcurrentHashMap<>();
+
+  QueryFilter(Map<String, Field> fields) {
+    this.fields = fields;
+  }
+
+  /**
+   * Build the filter of a collection class
+   * @param type The collection class, only the components of a record are filterable
+   * @return The query filter
+   */
+  public static QueryFilter of(Class<?> type) {
+    Map<String, Field> fields = new HashMap<>();
+    RecordComponent[] components = type.isRecord() ? type.getRecordComponents() : new RecordComponent[0];
+    Arrays.stream(components).forEach(component -> {
+      Field field = field(component.getName(), component.getType());
+      if (field != null) fields.put(field.name(), field);
+    });
+    return new QueryFilter(fields);
+  }
+
+  static Field field(String name, Class<?> type) {
+    if (type == String.class) return new Field(name, value -> value, COMPARE);
+    if (type == Integer.class || type == int.class)
+      return new Field(name, value -> number(name, value, Integer::valueOf), COMPARE);
+    if (type == Long.class || type == long.class)
+      return new Field(name, value -> number(name, value, Long::valueOf), COMPARE);
+    if (type == Double.class || type == double.class)
+      return new Field(name, value -> number(name, value, Double::valueOf), COMPARE);
+    if (type == Boolean.class || type == boolean.class) return new Field(name, QueryFilter::bool, MATCH);
+    return null;
+  }
+
+  static Object number(String name, String value, Function<String, Object> parse) {
+    try {
+      return parse.apply(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(String.format("%s must be a number", name));
+    }
+  }
+
+  static Boolean bool(String value) {
+    if (value.equals("true")) return true;
+    if (value.equals("false")) return false;
+    throw new IllegalArgumentException(String.format("%s must be true or false", value));
+  }
+
+  /**
+   * The filterable field names
+   * @return The field names
+   */
+  public Set<String> fields() {
+    return fields.keySet();
+  }
+
+  /**
+   * Translate the filter parameters into a query
+   * @param params The query parameters
+   * @return The query, empty if there are no filter parameters
+   * @throws IllegalArgumentException if a filter parameter has an unknown field, operator or an invalid value
+   */
+  public JsonObject query(MultiMap params) {
+    TreeSet<String> shape = new TreeSet<>();
+    for (String name : params.names()) {
+      if (fields.containsKey(name) || name.indexOf('[') > 0) shape.add(name);
+    }
+    JsonObject query = new JsonObject();
+    if (shape.isEmpty()) return query;
+    String key = String.join("&", shape);
+    List<Slot> slots = shapes.get(key);
+    if (slots == null) {
+      slots = compile(shape);
+      // a client may send any combination, past the limit shapes are compiled per request
+      if (shapes.size() < MAX_SHAPES) shapes.putIfAbsent(key, slots);
+    }
+    for (Slot slot : slots) slot.put(query, params.get(slot.param()));
+    return query;
+  }
+
+  List<Slot> compile(Set<String> shape) {
+    List<Slot> slots = new ArrayList<>(shape.size());
+    for (String param : shape) {
+      int bracket = param.indexOf('[');
+      if (bracket > 0 && !param.endsWith("]"))
+        throw new IllegalArgumentException(String.format("invalid filter %s", param));
+      String name = bracket < 0 ? param : param.substring(0, bracket);
+      String operator = bracket < 0 ? "eq" : param.substring(bracket + 1, param.length() - 1);
+      Field field = fields.get(name);
+      if (field == null) throw new IllegalArgumentException(String.format("cannot filter on %s", name));
+      if (!field.operators().contains(operator))
+        throw new IllegalArgumentException(String.format("cannot filter %s with %s", name, operator));
+      slots.add(new Slot(param, name, "$" + operator, field.parse()));
+    }
+    return slots;
+  }
+
+  /**
+   * The number of compiled query shapes
+   * @return The number of cached shapes
+   */
+  int shapes() {
+    return shapes.size();
+  }
+}
@@ -1,18 +1,45 @@
 package io.sorted.app.module;
 
+import am.ik.yavi.core.ConstraintViolationsException;
 import am.ik.yavi.core.Validator;
+import io.sorted.app.error.ValidationErrors;
 import io.sorted.app.conf.IMode;
+import io.sorted.app.http.Http;
 import io.sorted.app.http.HttpStatus;
+import io.sorted.app.service.BulkWriteFailure;
 import io.sorted.app.service.Repo;
+import io.sorted.app.service.RepoImpl;
 import io.sorted.app.service.Service;
+import io.sorted.app.service.StreamingRepo;
 import io.sorted.app.validation.i18nValidatorBuilder;
 import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkOperationType;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 /**
  * Repository module to support basic collection operations such as CRUD
  * @param <R> The type of repository
@@ -21,16 +48,44 @@ import io.vertx.ext.web.handler.BodyHandler;
 public abstract class RepoModule<R extends Repo, T> extends AppModule {
   static final String idParam = "id";
   static final String idPath = "/:id";
+  static final String bulkPath = "/_bulk";
+  static final String countPath = "/_count";
+  static final String exportPath = "/_export";
+  static final String importPath = "/_import";
+  static final String manyPath = "/_many";
+  static final String IDS_PARAM = "ids";
+  static final String MANY_PROP = "many";
+  static final String MAX_IDS_PROP = "max_ids";
+  static final int DEFAULT_MANY_MAX_IDS = 1000;
+  static final String IMPORT_PROP = "import";
+  static final String MAX_IN_FLIGHT_PROP = "max_in_flight";
+  static final int DEFAULT_IMPORT_MAX_IN_FLIGHT = 4;
+  static final String EXACT_PARAM = "exact";
+  static final String pipelineParam = "pipeline";
+  static final String aggregatePath = "/_aggregate/:" + pipelineParam;
+  static final String BULK_PROP = "bulk";
+  static final String BATCH_SIZE_PROP = "batch_size";
+  static final int DEFAULT_BULK_BATCH_SIZE = 500;
+  // a replace without a version gives up after the stored version changed this many times
+  static final int MAX_REPLACE_ATTEMPTS = 3;
+  static final String ORDERED_PARAM = "ordered";
+  static final String OP_FIELD = "op";
+  static final String DOCUMENT_FIELD = "document";
+  static final String VERSION_FIELD_PROP = "version_field";
   static String idPathParam(RoutingContext ctx) {
     return ctx.pathParam(idParam);
   }
   protected R repo;
+  // the repo implementation when registered in this Vert.x instance, used for streaming
+  protected StreamingRepo localRepo;
   protected final Class<R> repoClass;
   protected final Class<T> collectionClass;
   protected Validator<T> saveValidator;
   protected Validator<T> updateValidator;
   protected Validator<T> replaceValidator;
   protected Validator<T> deleteValidator;
+  protected Map<String, JsonArray> pipelines;
+  protected QueryFilter queryFilter;
 
   public RepoModule(IMode mode, Class<R> repoClass, Class<T> collectionClass) {
     super(mode);
@@ -70,6 +125,43 @@ public abstract class RepoModule<R extends Repo, T> extends AppModule {
     return i18nValidatorBuilder.<T>of().build();
   }
 
+  /**
+   * Fields other than _id which the index may be sorted and paged on
+   * These should be indexed together with _id to keep pages cheap
+   * @return The sortable field names
+   */
+  protected Set<String> sortFields() {
+    return Set.of();
+  }
+
+  /**
+   * The filter of list requests, by default on the components of the collection record
+   * @return The query filter
+   */
+  protected QueryFilter queryFilter() {
+    return QueryFilter.of(collectionClass);
+  }
+
+  /**
+   * The aggregation pipelines clients may run by name, see {@link #aggregate}
+   * Only these pipelines run, so a client can't start an arbitrary scan on the server.
+   * @return The pipelines by name
+   */
+  protected Map<String, JsonArray> pipelines() {
+    return Map.of();
+  }
+
+  /**
+   * The document field used for optimistic concurrency of updates and replaces
+   * Every update and replace increments it. A merge update or a replace which sends it only applies when it still matches,
+   * one which doesn't send it applies to the stored version.
+   * Configured by the module config version_field
+   * @return The version field name, null if updates aren't versioned
+   */
+  protected String versionField() {
+    return config().getString(VERSION_FIELD_PROP);
+  }
+
   /**
    * @return True if module has 'get/list' enabled
    */
@@ -110,10 +202,16 @@ public abstract class RepoModule<R extends Repo, T> extends AppModule {
   public void init(Vertx vertx, Context context) {
     super.init(vertx, context);
     repo = Service.get(vertx, repoClass);
+    localRepo = Service.local(vertx, repoClass)
+      .filter(StreamingRepo.class::isInstance)
+      .map(StreamingRepo.class::cast)
+      .orElse(null);
     saveValidator = saveValidator();
     updateValidator = updateValidator();
     replaceValidator = replaceValidator();
     deleteValidator = deleteValidator();
+    pipelines = pipelines();
+    queryFilter = queryFilter();
     routes();
   }
 
@@ -145,7 +243,27 @@ public abstract class RepoModule<R extends Repo, T> extends AppModule {
     // retrieval
     if (getEnabled()) {
       router.get("/").handler(this::index);
+      router.get(countPath).handler(this::count);
+      router.get(exportPath).handler(this::export);
+      router.get(manyPath).handler(this::getMany);
+      // for lists of ids too long for a query string
+      router.post(manyPath)
+        .handler(BodyHandler.create())
+        .handler(this::getMany);
       router.get(idPath).handler(this::get);
+      if (!pipelines.isEmpty()) router.get(aggregatePath).handler(this::aggregate);
+    }
+
+    // mixed inserts, updates, replaces and deletes
+    if (createEnabled() || updateEnabled() || deleteEnabled()) {
+      router.post(bulkPath)
+        .handler(BodyHandler.create())
+        .handler(this::bulk);
+    }
+
+    // newline delimited documents streamed from the request, without buffering the body
+    if (createEnabled() && updateEnabled()) {
+      router.post(importPath).handler(this::importDocuments);
     }
 
     // updates
@@ -158,8 +276,6 @@ public abstract class RepoModule<R extends Repo, T> extends AppModule {
       // post will merge fields
       router.post(idPath)
         .handler(BodyHandler.create())
-        .handler(this::merge)
-        .handler(validationHandler(updateValidator, collectionClass))
         .handler(this::update);
     }
 
@@ -173,71 +289,419 @@ public abstract class RepoModule<R extends Repo, T> extends AppModule {
 
   /**
    * list documents
+   * Supports the limit, after, sort and fields query parameters, see {@link PageRequest},
+   * and filter parameters such as rank[gte]=2, see {@link QueryFilter}
+   * A limited request responds with a single page and the cursor of the next page in the X-Next-Cursor header.
+   * Otherwise the documents are streamed from a cursor when the repo is local, or fetched over the event bus.
+   * The ETag is the change tag of the collection, so an unchanged collection answers 304 without a query.
+   * There is no ETag when the repo has no change tag, see {@link Repo#changeTag()}.
    * @param ctx Represents the context for the handling of a request in Vert.x-Web.
    */
   protected void index(RoutingContext ctx) {
-    repo.list()
-      .onSuccess(ctx::json)
+    PageRequest page;
+    JsonObject query;
+    try {
+      page = PageRequest.of(ctx, sortFields());
+      query = queryFilter.query(ctx.queryParams());
+    } catch (IllegalArgumentException e) {
+      ctx.fail(HttpStatus.BAD_REQUEST.value(), e);
+      return;
+    }
+    // the tag is read before the documents, so a concurrent write can only make it older than the response
+    (localRepo == null ? repo : localRepo).changeTag()
+      .onSuccess(tag -> {
+        // json and ndjson are different representations of the same list
+        ctx.response().putHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        String variant = (Http.accepts(ctx, Http.APPLICATION_NDJSON) ? "-nd" : "") + Http.formatVariant(ctx);
+        if (tag == null || !Http.notModified(ctx, Http.etag(tag + variant))) list(ctx, page, query);
+      }).onFailure(ctx::fail);
+  }
+
+  /**
+   * list the documents of a page request
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   * @param page The paging, sorting and projection parameters
+   * @param filter The query of the filter parameters
+   */
+  protected void list(RoutingContext ctx, PageRequest page, JsonObject filter) {
+    JsonObject query = page.query(filter);
+
+    if (page.paged()) {
+      repo.findWithOptions(query, page.options())
+        .onSuccess(it -> {
+          String next = page.next(it);
+          if (next != null) ctx.response().putHeader(Http.NEXT_CURSOR_HEADER, next);
+          Http.send(ctx, it);
+        }).onFailure(ctx::fail);
+    } else if (localRepo != null) {
+      Http.streamJson(ctx, localRepo.stream(query, page.options()));
+    } else {
+      repo.findWithOptions(query, page.options())
+        .onSuccess(it -> Http.send(ctx, it))
+        .onFailure(ctx::fail);
+    }
+  }
+
+  /**
+   * Count documents, with the same filter parameters as the index
+   * Without filters the count is estimated from the collection metadata, unless exact=true.
+   * Responds with an object of the count.
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   */
+  protected void count(RoutingContext ctx) {
+    JsonObject query;
+    try {
+      query = queryFilter.query(ctx.queryParams());
+    } catch (IllegalArgumentException e) {
+      ctx.fail(HttpStatus.BAD_REQUEST.value(), e);
+      return;
+    }
+    Future<Long> count = query.isEmpty() && !"true".equals(PageRequest.param(ctx, EXACT_PARAM))
+      ? repo.estimatedCount()
+      : repo.count(query);
+    count.onSuccess(it -> Http.send(ctx, new JsonObject().put("count", it)))
       .onFailure(ctx::fail);
   }
 
+  /**
+   * Export documents as newline delimited JSON, streamed from a cursor with the same filter parameters as the index
+   * Responds 503 if the repo isn't local.
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   */
+  protected void export(RoutingContext ctx) {
+    if (localRepo == null) {
+      ctx.fail(HttpStatus.SERVICE_UNAVAILABLE.value());
+      return;
+    }
+    JsonObject query;
+    try {
+      query = queryFilter.query(ctx.queryParams());
+    } catch (IllegalArgumentException e) {
+      ctx.fail(HttpStatus.BAD_REQUEST.value(), e);
+      return;
+    }
+    Http.streamJson(ctx, localRepo.stream(query, new FindOptions()), true);
+  }
+
+  /**
+   * Import newline delimited JSON documents, see {@link Importer}
+   * A document with an _id replaces the document with that _id or is inserted, one without is inserted.
+   * Documents are validated like saved documents.
+   * Configured by the import object of the module config: batch_size (default 500) documents per bulk write
+   * and max_in_flight (default 4) bulk writes at once.
+   * Responds with the totals of the writes, the number of invalid documents and the first errors.
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   */
+  protected void importDocuments(RoutingContext ctx) {
+    JsonObject config = config().getJsonObject(IMPORT_PROP, new JsonObject());
+    Locale locale = Http.getLocale(ctx);
+    new Importer(ctx, repo
+      , config.getInteger(BATCH_SIZE_PROP, DEFAULT_BULK_BATCH_SIZE)
+      , config.getInteger(MAX_IN_FLIGHT_PROP, DEFAULT_IMPORT_MAX_IN_FLIGHT)
+      , document -> importOperation(document, locale)).start();
+  }
+
+  /**
+   * Validate an imported document and convert it to a bulk operation
+   * @param document The document
+   * @param locale The locale of the validation messages
+   * @return An upserting replace if the document has an _id, otherwise an insert
+   * @throws ConstraintViolationsException if the document is invalid
+   */
+  protected BulkOperation importOperation(JsonObject document, Locale locale) {
+    Object id = document.getValue(PageRequest.ID_FIELD);
+    if (id == null) document.put(PageRequest.ID_FIELD, RepoImpl.newId());
+    validate(saveValidator, document.mapTo(collectionClass), locale);
+    return id == null
+      ? BulkOperation.createInsert(document)
+      : BulkOperation.createReplace(RepoImpl.idDocument(String.valueOf(id)), document, true);
+  }
+
+  /**
+   * Stream the results of a registered aggregation pipeline, see {@link #pipelines}
+   * Responds 404 for an unknown pipeline and 503 if the repo isn't local, since the results are streamed from a cursor.
+   * Like the index the ETag is the change tag of the collection, so an unchanged collection answers 304.
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   */
+  protected void aggregate(RoutingContext ctx) {
+    String name = ctx.pathParam(pipelineParam);
+    JsonArray pipeline = pipelines.get(name);
+    if (pipeline == null) {
+      ctx.fail(HttpStatus.NOT_FOUND.value());
+      return;
+    }
+    if (localRepo == null) {
+      ctx.fail(HttpStatus.SERVICE_UNAVAILABLE.value());
+      return;
+    }
+    localRepo.changeTag()
+      .onSuccess(tag -> {
+        ctx.response().putHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        String variant = Http.accepts(ctx, Http.APPLICATION_NDJSON) ? "-nd" : "";
+        if (tag != null && Http.notModified(ctx, Http.etag(tag + "-" + name + variant))) return;
+        ReadStream<JsonObject> results;
+        try {
+          results = localRepo.aggregate(pipeline.copy());
+        } catch (RuntimeException e) {
+          ctx.fail(e);
+          return;
+        }
+        Http.streamJson(ctx, results);
+      }).onFailure(ctx::fail);
+  }
+
   /**
    * save document
+   * Responds with only the _id of the saved document when the client sends Prefer: return=minimal
+   * A save rejected by a unique index responds 409
    * @param ctx Represents the context for the handling of a request in Vert.x-Web.
    */
   protected void save(RoutingContext ctx) {
-    repo.save(ctx.body().asJsonObject())
-      .onSuccess(ctx::json)
-      .onFailure(ctx::fail);
+    boolean minimal = Http.prefersMinimal(ctx);
+    repo.save(Http.bodyAsJsonObject(ctx))
+      .onSuccess(saved -> Http.send(ctx, minimal
+        ? new JsonObject().put(PageRequest.ID_FIELD, saved.getValue(PageRequest.ID_FIELD))
+        : saved))
+      .onFailure(e -> {
+        if (e instanceof ReplyException && ((ReplyException) e).failureCode() == BulkWriteFailure.DUPLICATE_KEY) {
+          ctx.fail(HttpStatus.CONFLICT.value(), e);
+        } else {
+          ctx.fail(e);
+        }
+      });
   }
 
   /**
    * get document
+   * The ETag is a hash of the document, a matching If-None-Match answers 304 without a body
    * @param ctx Represents the context for the handling of a request in Vert.x-Web.
    */
   protected void get(RoutingContext ctx) {
     repo.get(idPathParam(ctx))
-      .onSuccess(notNullHandler(ctx))
+      .onSuccess(it -> {
+        if (it == null) {
+          ctx.fail(HttpStatus.NOT_FOUND.value());
+          return;
+        }
+        Buffer body = Http.encode(ctx, it);
+        if (!Http.notModified(ctx, Http.etag(body))) ctx.response().end(body);
+      }).onFailure(ctx::fail);
+  }
+
+  /**
+   * The most ids a multi get may request
+   * Configured by the module config many.max_ids
+   * @return The maximum number of ids
+   */
+  protected int manyMaxIds() {
+    return config().getJsonObject(MANY_PROP, new JsonObject()).getInteger(MAX_IDS_PROP, DEFAULT_MANY_MAX_IDS);
+  }
+
+  /**
+   * get several documents in one round trip
+   * The ids are the comma separated ids query parameter, or for a POST a JSON array of ids in the body.
+   * Responds with the documents in the order of the ids, null for an id without a document.
+   * Responds 400 without ids or with more than the configured maximum, see {@link #manyMaxIds}
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   */
+  protected void getMany(RoutingContext ctx) {
+    List<String> ids;
+    try {
+      ids = manyIds(ctx);
+    } catch (DecodeException | ClassCastException | IllegalArgumentException e) {
+      ctx.fail(HttpStatus.BAD_REQUEST.value(), e);
+      return;
+    }
+    repo.getMany(ids)
+      .onSuccess(it -> Http.send(ctx, it))
       .onFailure(ctx::fail);
   }
 
   /**
-   * Merge the request body with the current document
-   * This should happen before validation so that the final object is validated before persisting
+   * Read the ids of a multi get
    * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   * @return The ids
+   * @throws IllegalArgumentException if there are no ids or too many
    */
-  protected void merge(RoutingContext ctx) {
-    String id = idPathParam(ctx);
-    repo.get(id)
-      .onSuccess(it -> {
-        if (it == null)
-          ctx.fail(HttpStatus.NOT_FOUND.value());
-        else {
-          ctx.put(getName(), it.mergeIn(ctx.body().asJsonObject(), true)).next();
-        }
-      }).onFailure(ctx::fail);
+  protected List<String> manyIds(RoutingContext ctx) {
+    List<String> ids = new ArrayList<>();
+    if (ctx.request().method() == HttpMethod.POST) {
+      JsonArray body = Http.bodyAsJsonArray(ctx);
+      if (body != null) body.forEach(id -> ids.add(id == null ? null : String.valueOf(id)));
+    } else {
+      String param = PageRequest.param(ctx, IDS_PARAM);
+      if (param != null) {
+        for (String id : param.split(",")) if (!id.isBlank()) ids.add(id.trim());
+      }
+    }
+    if (ids.isEmpty() || ids.contains(null))
+      throw new IllegalArgumentException(String.format("expected a list of %s", IDS_PARAM));
+    int max = manyMaxIds();
+    if (ids.size() > max)
+      throw new IllegalArgumentException(String.format("at most %d %s may be requested", max, IDS_PARAM));
+    return ids;
   }
 
   /**
-   * Update a document
+   * Merge the request body into a document
+   * Only the fields present in the body are validated, then they are set atomically in a single round trip,
+   * so concurrent updates of different fields don't overwrite each other.
+   * When updates are versioned a body with the version field only applies to that version, otherwise it fails 409.
    * @param ctx Represents the context for the handling of a request in Vert.x-Web.
    */
   protected void update(RoutingContext ctx) {
-    repo.updateById(idPathParam(ctx), new JsonObject().put("$set", ctx.body().asJsonObject()))
-      .onSuccess(notNullHandler(ctx))
+    String id = idPathParam(ctx);
+    JsonObject patch = Http.bodyAsJsonObject(ctx);
+    JsonObject query = mergeQuery(id, patch);
+    validatePatch(updateValidator, patch, collectionClass, Http.getLocale(ctx));
+    JsonObject update = mergeUpdate(patch);
+    if (update.isEmpty()) {
+      repo.get(id)
+        .onSuccess(notNullHandler(ctx))
+        .onFailure(ctx::fail);
+      return;
+    }
+    repo.updateAndGet(query, update)
+      .onSuccess(matchedHandler(ctx, id))
       .onFailure(ctx::fail);
   }
 
+  /**
+   * Send the result of a write which matched a document, otherwise fail 404 or 409 for a version mismatch
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web
+   * @param id The document id
+   * @return The result handler
+   */
+  protected Handler<JsonObject> matchedHandler(RoutingContext ctx, String id) {
+    return it -> {
+      if (it != null || versionField() == null) {
+        notNullHandler(ctx).handle(it);
+        return;
+      }
+      unmatchedStatus(id).onSuccess(ctx::fail).onFailure(ctx::fail);
+    };
+  }
+
+  /**
+   * The status of a versioned write which matched nothing
+   * Only a missing document is worth the extra read.
+   * @param id The document id
+   * @return A future containing 404 if the document is missing, 409 if its version changed
+   */
+  protected Future<Integer> unmatchedStatus(String id) {
+    return repo.get(id).map(current -> current == null
+      ? HttpStatus.NOT_FOUND.value()
+      : HttpStatus.CONFLICT.value());
+  }
+
+  /**
+   * Build the query matching the document of a merge update
+   * Moves the expected version, if any, from the patch to the query
+   * @param id The document id
+   * @param patch The fields to merge
+   * @return The query
+   */
+  protected JsonObject mergeQuery(String id, JsonObject patch) {
+    JsonObject query = RepoImpl.idDocument(id);
+    patch.remove(PageRequest.ID_FIELD);
+    String versionField = versionField();
+    if (versionField != null) {
+      Object version = patch.remove(versionField);
+      if (version != null) query.put(versionField, version);
+    }
+    return query;
+  }
+
+  /**
+   * Build the update of a merge update which sets the patch fields and increments the version
+   * @param patch The fields to merge
+   * @return The update, empty if there is nothing to update
+   */
+  protected JsonObject mergeUpdate(JsonObject patch) {
+    JsonObject update = new JsonObject();
+    if (!patch.isEmpty()) update.put("$set", patch);
+    String versionField = versionField();
+    if (versionField != null && !update.isEmpty()) update.put("$inc", new JsonObject().put(versionField, 1));
+    return update;
+  }
+
   /**
    * Replace a document
+   * When updates are versioned a body with the version field only applies to that version, otherwise it fails 409.
    * @param ctx Represents the context for the handling of a request in Vert.x-Web.
    */
   protected void replace(RoutingContext ctx) {
-    repo.replaceById(idPathParam(ctx), ctx.body().asJsonObject())
-      .onSuccess(notNullHandler(ctx))
+    String id = idPathParam(ctx);
+    JsonObject document = Http.bodyAsJsonObject(ctx);
+    JsonObject query;
+    try {
+      query = replaceQuery(id, document);
+    } catch (IllegalArgumentException e) {
+      ctx.fail(HttpStatus.BAD_REQUEST.value(), e);
+      return;
+    }
+    (versionField() != null && !query.containsKey(versionField())
+      ? replaceStored(id, document, MAX_REPLACE_ATTEMPTS)
+      : repo.replace(query, document))
+      .onSuccess(matchedHandler(ctx, id))
       .onFailure(ctx::fail);
   }
 
+  /**
+   * Build the query matching the document of a replace
+   * When updates are versioned and the replacement sends a version it matches that version, which is then incremented
+   * @param id The document id
+   * @param document The replacement document
+   * @return The query
+   * @throws IllegalArgumentException if the version isn't a number
+   */
+  protected JsonObject replaceQuery(String id, JsonObject document) {
+    JsonObject query = RepoImpl.idDocument(id);
+    String versionField = versionField();
+    if (versionField != null) {
+      Object version = document.getValue(versionField);
+      if (version != null && !(version instanceof Number))
+        throw new IllegalArgumentException(String.format("%s must be a number", versionField));
+      if (version != null) {
+        query.put(versionField, version);
+        document.put(versionField, ((Number) version).longValue() + 1);
+      }
+    }
+    return query;
+  }
+
+  /**
+   * Replace whatever version of a document is stored, for a replacement which doesn't send a version
+   * The stored version is read first so the replacement increments it,
+   * the replace is tried again when a concurrent write changed the version in between.
+   * @param id The document id
+   * @param document The replacement document
+   * @param attempts The number of replaces to try
+   * @return A future containing the replaced document, null if it is missing or its version kept changing
+   */
+  protected Future<JsonObject> replaceStored(String id, JsonObject document, int attempts) {
+    String versionField = versionField();
+    // not through the document cache, which may hold an older version
+    return repo.findOne(RepoImpl.idDocument(id)).compose(stored -> {
+      if (stored == null) return Future.succeededFuture();
+      Object version = stored.getValue(versionField);
+      // null also matches a document without the field
+      JsonObject query = RepoImpl.idDocument(id).put(versionField, version);
+      document.put(versionField, version instanceof Number number ? number.longValue() + 1 : 1L);
+      return repo.replace(query, document).compose(replaced -> replaced != null || attempts <= 1
+        ? Future.succeededFuture(replaced)
+        : replaceStored(id, document, attempts - 1));
+    });
+  }
+
+  // an update which only applies to the version in its query, or a replace which reads the stored version
+  boolean versioned(BulkOperation operation) {
+    String versionField = versionField();
+    return versionField != null
+      && (operation.getType() == BulkOperationType.REPLACE
+        || operation.getType() == BulkOperationType.UPDATE && operation.getFilter().containsKey(versionField));
+  }
+
   /**
    * Delete a document
    * @param ctx Represents the context for the handling of a request in Vert.x-Web.
@@ -247,4 +711,289 @@ public abstract class RepoModule<R extends Repo, T> extends AppModule {
       .onSuccess(notNullHandler(ctx))
       .onFailure(ctx::fail);
   }
+
+  /**
+   * The number of bulk operations sent to the datasource in one round trip
+   * Configured by the module config bulk.batch_size
+   * @return The batch size
+   */
+  protected int bulkBatchSize() {
+    return config().getJsonObject(BULK_PROP, new JsonObject()).getInteger(BATCH_SIZE_PROP, DEFAULT_BULK_BATCH_SIZE);
+  }
+
+  /**
+   * Run a JSON array of mixed operations in batches
+   * Each item is an object with an op of insert, update, replace or delete, the _id of the target document
+   * (except for inserts) and the document (except for deletes). Updates merge the document fields.
+   * Items are validated with the same validators as the single document routes.
+   * Operations run in order and stop at the first failure unless the ordered query parameter is false.
+   * Responds with the result of each item in request order and the totals written, including partial batches.
+   * A failed item reports 409 for a duplicate key or a changed version, 404 for a missing document;
+   * the items an ordered write didn't reach report 424.
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   */
+  protected void bulk(RoutingContext ctx) {
+    JsonArray items;
+    try {
+      items = Http.bodyAsJsonArray(ctx);
+    } catch (DecodeException | ClassCastException e) {
+      ctx.fail(HttpStatus.BAD_REQUEST.value(), e);
+      return;
+    }
+    if (items == null) {
+      ctx.fail(HttpStatus.BAD_REQUEST.value(), new IllegalArgumentException("expected a JSON array of operations"));
+      return;
+    }
+    boolean ordered = !"false".equals(PageRequest.param(ctx, ORDERED_PARAM));
+    Locale locale = Http.getLocale(ctx);
+    JsonObject[] results = new JsonObject[items.size()];
+    List<BulkOperation> operations = new ArrayList<>();
+    List<Integer> indexes = new ArrayList<>();
+
+    for (int i = 0; i < items.size(); i++) {
+      JsonObject result = new JsonObject().put("index", i);
+      results[i] = result;
+      try {
+        JsonObject item = items.getJsonObject(i);
+        result.put(OP_FIELD, item.getString(OP_FIELD));
+        operations.add(bulkOperation(item, result, locale));
+        indexes.add(i);
+      } catch (ConstraintViolationsException e) {
+        result.put("status", HttpStatus.BAD_REQUEST.value())
+          .put("errors", JsonObject.mapFrom(new ValidationErrors(e)).getJsonArray("errors"));
+      } catch (RuntimeException e) {
+        result.put("status", HttpStatus.BAD_REQUEST.value()).put("error", e.getMessage());
+      }
+      if (ordered && result.containsKey("status")) {
+        skip(results, i + 1);
+        break;
+      }
+    }
+
+    BulkWriteOptions options = new BulkWriteOptions(ordered);
+    JsonObject totals = new JsonObject()
+      .put("inserted", 0L).put("matched", 0L).put("modified", 0L).put("deleted", 0L);
+    Future<Boolean> chain = Future.succeededFuture(true);
+    for (List<Integer> segment : segments(operations, Math.max(1, bulkBatchSize()))) {
+      List<BulkOperation> batch = segment.stream().map(operations::get).collect(Collectors.toList());
+      List<Integer> batchIndexes = segment.stream().map(indexes::get).collect(Collectors.toList());
+      chain = chain.compose(proceed -> {
+        if (!proceed) {
+          batchIndexes.forEach(i -> results[i].put("status", HttpStatus.FAILED_DEPENDENCY.value()));
+          return Future.succeededFuture(false);
+        }
+        return versioned(batch.get(0))
+          ? writeVersioned(batch.get(0), results[batchIndexes.get(0)], ordered, totals)
+          : writeBatch(batch, batchIndexes, results, options, totals);
+      });
+    }
+
+    chain.onSuccess(done -> Http.send(ctx, totals
+        .put(ORDERED_PARAM, ordered)
+        .put("items", new JsonArray(List.of(results)))))
+      .onFailure(ctx::fail);
+  }
+
+  /**
+   * Split bulk operations into the segments written in one round trip
+   * Versioned operations are written alone, since a bulk write only counts the documents it matched
+   * and can't tell which of its operations found a changed version,
+   * as are replaces without a version, which read the stored version first.
+   * @param operations The bulk operations
+   * @param batchSize The maximum number of operations of a segment
+   * @return The segments as positions in the operations, in order
+   */
+  protected List<List<Integer>> segments(List<BulkOperation> operations, int batchSize) {
+    List<List<Integer>> segments = new ArrayList<>();
+    List<Integer> segment = new ArrayList<>();
+    for (int i = 0; i < operations.size(); i++) {
+      if (versioned(operations.get(i))) {
+        if (!segment.isEmpty()) segments.add(segment);
+        segments.add(List.of(i));
+        segment = new ArrayList<>();
+        continue;
+      }
+      segment.add(i);
+      if (segment.size() == batchSize) {
+        segments.add(segment);
+        segment = new ArrayList<>();
+      }
+    }
+    if (!segment.isEmpty()) segments.add(segment);
+    return segments;
+  }
+
+  /**
+   * Write a batch of bulk operations in one round trip and report each of them
+   * @param batch The operations
+   * @param batchIndexes The item index of each operation
+   * @param results The results of all the items
+   * @param options The bulk write options
+   * @param totals The totals written, which receive the counts of the batch
+   * @return A future containing true if the following batches should be written
+   */
+  Future<Boolean> writeBatch(List<BulkOperation> batch, List<Integer> batchIndexes, JsonObject[] results
+    , BulkWriteOptions options, JsonObject totals) {
+    boolean ordered = options.isOrdered();
+    return repo.bulk(batch, options)
+      .map(written -> {
+        addTotals(totals, written);
+        batchIndexes.forEach(i -> results[i].put("status", writtenStatus(results[i])));
+        return written;
+      })
+      .otherwise(t -> {
+        if (!BulkWriteFailure.is(t)) {
+          // nothing tells which operations were written
+          batchIndexes.forEach(i -> results[i].put("status", HttpStatus.INTERNAL_SERVER_ERROR.value())
+            .put("error", t.getMessage()));
+          return null;
+        }
+        MongoClientBulkWriteResult written = BulkWriteFailure.written(t);
+        addTotals(totals, written);
+        Map<Integer, BulkWriteFailure.WriteError> errors = BulkWriteFailure.errors(t);
+        int firstError = errors.keySet().stream().min(Integer::compare).orElse(batch.size());
+        for (int j = 0; j < batchIndexes.size(); j++) {
+          JsonObject result = results[batchIndexes.get(j)];
+          BulkWriteFailure.WriteError error = errors.get(j);
+          if (error != null) {
+            result.put("status", error.code() == BulkWriteFailure.DUPLICATE_KEY
+              ? HttpStatus.CONFLICT.value() : HttpStatus.INTERNAL_SERVER_ERROR.value())
+              .put("error", error.message());
+          } else if (ordered && j > firstError) {
+            // an ordered write stops at the failed operation
+            result.put("status", HttpStatus.FAILED_DEPENDENCY.value());
+          } else {
+            result.put("status", writtenStatus(result));
+          }
+        }
+        return written;
+      })
+      .compose(written -> written == null ? Future.succeededFuture() : missing(batch, batchIndexes, results, written))
+      .map(v -> !ordered || batchIndexes.stream().allMatch(i -> results[i].getInteger("status") < 300));
+  }
+
+  /**
+   * Report 404 for the updates and replaces of a batch which matched no document
+   * Only read when the batch matched fewer documents than it updated and replaced.
+   * @param batch The operations
+   * @param batchIndexes The item index of each operation
+   * @param results The results of all the items
+   * @param written The counts written by the batch
+   * @return A future completed when the results are reported
+   */
+  Future<Void> missing(List<BulkOperation> batch, List<Integer> batchIndexes, JsonObject[] results
+    , MongoClientBulkWriteResult written) {
+    List<Integer> targeted = new ArrayList<>();
+    for (int j = 0; j < batch.size(); j++) {
+      BulkOperationType type = batch.get(j).getType();
+      if ((type == BulkOperationType.UPDATE || type == BulkOperationType.REPLACE)
+        && results[batchIndexes.get(j)].getInteger("status") == HttpStatus.OK.value()) targeted.add(batchIndexes.get(j));
+    }
+    if (written.getMatchedCount() >= targeted.size()) return Future.succeededFuture();
+    List<String> ids = targeted.stream().map(i -> results[i].getString(PageRequest.ID_FIELD)).collect(Collectors.toList());
+    return repo.getMany(ids).map(documents -> {
+      for (int k = 0; k < targeted.size(); k++) {
+        if (documents.get(k) == null) results[targeted.get(k)].put("status", HttpStatus.NOT_FOUND.value());
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Write a versioned update or replace on its own and report 409 if the version changed
+   * @param operation The operation
+   * @param result The result of the item
+   * @param ordered True if a failure stops the following operations
+   * @param totals The totals written, which receive the counts of the operation
+   * @return A future containing true if the following operations should be written
+   */
+  Future<Boolean> writeVersioned(BulkOperation operation, JsonObject result, boolean ordered, JsonObject totals) {
+    String id = result.getString(PageRequest.ID_FIELD);
+    Future<JsonObject> write = operation.getType() == BulkOperationType.UPDATE
+      ? repo.updateAndGet(operation.getFilter(), operation.getDocument())
+      : operation.getFilter().containsKey(versionField())
+        ? repo.replace(operation.getFilter(), operation.getDocument())
+        : replaceStored(id, operation.getDocument(), MAX_REPLACE_ATTEMPTS);
+    return write
+      .compose(it -> {
+        if (it == null) return unmatchedStatus(id);
+        // a versioned write always changes the version
+        totals.put("matched", totals.getLong("matched") + 1).put("modified", totals.getLong("modified") + 1);
+        return Future.succeededFuture(HttpStatus.OK.value());
+      })
+      .map(status -> {
+        result.put("status", status);
+        return !ordered || status == HttpStatus.OK.value();
+      })
+      .otherwise(t -> {
+        result.put("status", HttpStatus.INTERNAL_SERVER_ERROR.value()).put("error", t.getMessage());
+        return !ordered;
+      });
+  }
+
+  /**
+   * Validate a bulk item and convert it to a bulk operation
+   * @param item The bulk item
+   * @param result The result of the item, which receives the _id of the target document
+   * @param locale The locale of the validation messages
+   * @return The bulk operation
+   * @throws ConstraintViolationsException if the item document is invalid
+   * @throws IllegalArgumentException if the item is malformed or the operation isn't enabled
+   */
+  protected BulkOperation bulkOperation(JsonObject item, JsonObject result, Locale locale) {
+    String op = item.getString(OP_FIELD);
+    JsonObject document = item.getJsonObject(DOCUMENT_FIELD);
+    String id = item.getString(PageRequest.ID_FIELD);
+    if (op == null) throw new IllegalArgumentException(String.format("%s is required", OP_FIELD));
+    if (!op.equals("delete") && document == null)
+      throw new IllegalArgumentException(String.format("%s is required", DOCUMENT_FIELD));
+
+    if (op.equals("insert")) {
+      if (!createEnabled()) throw new IllegalArgumentException("insert is not enabled");
+      if (document.getValue(PageRequest.ID_FIELD) == null) document.put(PageRequest.ID_FIELD, RepoImpl.newId());
+      result.put(PageRequest.ID_FIELD, document.getValue(PageRequest.ID_FIELD));
+      validate(saveValidator, document.mapTo(collectionClass), locale);
+      return BulkOperation.createInsert(document);
+    }
+
+    if (id == null) throw new IllegalArgumentException(String.format("%s is required", PageRequest.ID_FIELD));
+    result.put(PageRequest.ID_FIELD, id);
+    switch (op) {
+      case "update":
+        if (!updateEnabled()) throw new IllegalArgumentException("update is not enabled");
+        JsonObject query = mergeQuery(id, document);
+        validatePatch(updateValidator, document, collectionClass, locale);
+        JsonObject update = mergeUpdate(document);
+        if (update.isEmpty()) throw new IllegalArgumentException(String.format("%s is empty", DOCUMENT_FIELD));
+        return BulkOperation.createUpdate(query, update);
+      case "replace":
+        if (!updateEnabled()) throw new IllegalArgumentException("replace is not enabled");
+        document.put(PageRequest.ID_FIELD, id);
+        validate(replaceValidator, document.mapTo(collectionClass), locale);
+        return BulkOperation.createReplace(replaceQuery(id, document), document);
+      case "delete":
+        if (!deleteEnabled()) throw new IllegalArgumentException("delete is not enabled");
+        validate(deleteValidator, RepoImpl.idDocument(id).mapTo(collectionClass), locale);
+        return BulkOperation.createDelete(RepoImpl.idDocument(id));
+      default:
+        throw new IllegalArgumentException(String.format("unknown %s %s", OP_FIELD, op));
+    }
+  }
+
+  static int writtenStatus(JsonObject result) {
+    return result.getString(OP_FIELD).equals("insert") ? HttpStatus.CREATED.value() : HttpStatus.OK.value();
+  }
+
+  static void skip(JsonObject[] results, int from) {
+    for (int i = from; i < results.length; i++) {
+      results[i] = new JsonObject().put("index", i).put("status", HttpStatus.FAILED_DEPENDENCY.value());
+    }
+  }
+
+  static void addTotals(JsonObject totals, MongoClientBulkWriteResult written) {
+    totals.put("inserted", totals.getLong("inserted") + written.getInsertedCount())
+      .put("matched", totals.getLong("matched") + written.getMatchedCount())
+      .put("modified", totals.getLong("modified") + written.getModifiedCount())
+      .put("deleted", totals.getLong("deleted") + written.getDeletedCount());
+  }
 }
@@ -0,0 +1,150 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the event bus consumers of a service registered only while its health check passes
+ * In a cluster the event bus balances calls across the nodes which registered the service address,
+ * so a node which can't reach its datasource stops receiving calls until it can again.
+ * The health is checked when started and then every interval, a check which fails or doesn't complete
+ * within the timeout unregisters the consumers and the next passing check registers them again.
+ * Configured by the advertise object of the collection config: interval_ms (default 5000) and timeout_ms (default 2000)
+ */
+public class Advertiser {
+  public static final String ADVERTISE_PROP = "advertise";
+  public static final String INTERVAL_PROP = "interval_ms";
+  public static final String TIMEOUT_PROP = "timeout_ms";
+  public static final long DEFAULT_INTERVAL_MS = 5000;
+  public static final long DEFAULT_TIMEOUT_MS = 2000;
+
+  private final Logger log;
+  private final Vertx vertx;
+  private final String name;
+  private final HealthChecked service;
+  private final Supplier<List<MessageConsumer<?>>> register;
+  private final long interval;
+  private final long timeout;
+  private final LongAdder withdrawals;
+  // the registered consumers, null while the service isn't advertised
+  private List<MessageConsumer<?>> consumers;
+  private long timer = -1;
+  private boolean stopped;
+
+  /**
+   * Create an advertiser
+   * @param vertx The Vert.x instance
+   * @param name The service name, used to name the metrics
+   * @param service The health checked service
+   * @param config The advertise config
+   * @param register Registers the consumers of the service
+   */
+  public Advertiser(Vertx vertx
+    , String name
+    , HealthChecked service
+    , JsonObject config
+    , Supplier<List<MessageConsumer<?>>> register) {
+    this.log = LoggerFactory.getLogger(Advertiser.class.getSimpleName());
+    this.vertx = vertx;
+    this.name = name;
+    this.service = service;
+    this.register = register;
+    this.interval = Math.max(1, config.getLong(INTERVAL_PROP, DEFAULT_INTERVAL_MS));
+    this.timeout = Math.max(1, config.getLong(TIMEOUT_PROP, DEFAULT_TIMEOUT_MS));
+    this.withdrawals = Metrics.of(vertx).counter(String.format("service.%s.withdrawals", name));
+  }
+
+  /**
+   * Check the health now and then every interval
+   */
+  public void start() {
+    check();
+  }
+
+  /**
+   * Whether the consumers of the service are registered
+   * @return True if the service is advertised
+   */
+  public synchronized boolean advertised() {
+    return consumers != null;
+  }
+
+  /**
+   * Stop checking the health and unregister the consumers
+   * @return A future completed when the consumers are unregistered
+   */
+  public Future<Void> stop() {
+    synchronized (this) {
+      stopped = true;
+      if (timer != -1) vertx.cancelTimer(timer);
+    }
+    return withdraw();
+  }
+
+  void check() {
+    healthy().onComplete(health -> {
+      synchronized (this) {
+        if (stopped) return;
+      }
+      if (health.succeeded()) {
+        advertise();
+      } else if (advertised()) {
+        log.warn("withdrawing {} from the event bus, the health check failed: {}", name, health.cause().getMessage());
+        withdrawals.increment();
+        withdraw();
+      }
+      synchronized (this) {
+        if (!stopped) timer = vertx.setTimer(interval, id -> check());
+      }
+    });
+  }
+
+  // the health check, failed once the timeout passes
+  Future<Void> healthy() {
+    Promise<Void> promise = Promise.promise();
+    long timer = vertx.setTimer(timeout, id -> promise.tryFail(
+      new TimeoutException(String.format("health check of %s exceeded %d ms", name, timeout))));
+    Future<Void> check;
+    try {
+      check = service.checkHealth();
+    } catch (RuntimeException e) {
+      check = Future.failedFuture(e);
+    }
+    check.onComplete(it -> {
+      vertx.cancelTimer(timer);
+      if (it.succeeded()) promise.tryComplete();
+      else promise.tryFail(it.cause());
+    });
+    return promise.future();
+  }
+
+  synchronized void advertise() {
+    if (consumers != null) return;
+    log.info("advertising {} on the event bus", name);
+    consumers = register.get();
+  }
+
+  Future<Void> withdraw() {
+    List<MessageConsumer<?>> withdrawn;
+    synchronized (this) {
+      withdrawn = consumers;
+      consumers = null;
+    }
+    if (withdrawn == null) return Future.succeededFuture();
+    return CompositeFuture.join(withdrawn.stream().map(MessageConsumer::unregister).collect(Collectors.toList()))
+      .mapEmpty();
+  }
+}
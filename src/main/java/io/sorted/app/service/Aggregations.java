@@ -0,0 +1,139 @@
+package io.sorted.app.service;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Evaluates Mongo style aggregation pipelines against documents in memory
+ * Supports the stages $match, $sort, $skip, $limit, $project, $group and $count.
+ * Group keys and accumulators take field paths such as "$rank", constants,
+ * or for the key an object of either, and the accumulators are $sum, $avg, $min, $max, $first, $last and $push.
+ */
+public final class Aggregations {
+  private Aggregations() { }
+
+  /**
+   * Run a pipeline
+   * @param documents The input documents, which aren't modified
+   * @param pipeline The stages
+   * @return The output documents
+   * @throws IllegalArgumentException if the pipeline uses an unsupported stage, accumulator or operator
+   */
+  public static List<JsonObject> run(List<JsonObject> documents, JsonArray pipeline) {
+    List<JsonObject> current = documents;
+    for (Object value : pipeline) {
+      if (!(value instanceof JsonObject) || ((JsonObject) value).size() != 1)
+        throw new IllegalArgumentException("a stage must be an object with a single operator");
+      JsonObject stage = (JsonObject) value;
+      String operator = stage.fieldNames().iterator().next();
+      Object operand = stage.getValue(operator);
+      switch (operator) {
+        case "$match":
+          current = current.stream().filter(it -> Documents.matches(it, (JsonObject) operand)).collect(Collectors.toList());
+          break;
+        case "$sort":
+          current = current.stream().sorted(Documents.comparator((JsonObject) operand)).collect(Collectors.toList());
+          break;
+        case "$skip":
+          current = current.stream().skip(((Number) operand).longValue()).collect(Collectors.toList());
+          break;
+        case "$limit":
+          current = current.stream().limit(((Number) operand).longValue()).collect(Collectors.toList());
+          break;
+        case "$project":
+          current = current.stream().map(it -> project(it, (JsonObject) operand)).collect(Collectors.toList());
+          break;
+        case "$group":
+          current = group(current, (JsonObject) operand);
+          break;
+        case "$count":
+          current = List.of(new JsonObject().put((String) operand, current.size()));
+          break;
+        default:
+          throw new IllegalArgumentException(String.format("unsupported stage %s", operator));
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Evaluate an expression against a document
+   * @param document The document
+   * @param expression A field path starting with $, an object of expressions or a constant
+   * @return The value
+   */
+  static Object evaluate(JsonObject document, Object expression) {
+    if (expression instanceof String && ((String) expression).startsWith("$"))
+      return Documents.value(document, ((String) expression).substring(1));
+    if (expression instanceof JsonObject) {
+      JsonObject evaluated = new JsonObject();
+      ((JsonObject) expression).forEach(it -> evaluated.put(it.getKey(), evaluate(document, it.getValue())));
+      return evaluated;
+    }
+    return expression;
+  }
+
+  static JsonObject project(JsonObject document, JsonObject fields) {
+    JsonObject plain = new JsonObject();
+    JsonObject computed = new JsonObject();
+    fields.forEach(it -> {
+      if (it.getValue() instanceof Number || it.getValue() instanceof Boolean) plain.put(it.getKey(), it.getValue());
+      else computed.put(it.getKey(), it.getValue());
+    });
+    JsonObject projected = Documents.project(document, plain);
+    computed.forEach(it -> Documents.set(projected, it.getKey(), evaluate(document, it.getValue())));
+    return projected;
+  }
+
+  static List<JsonObject> group(List<JsonObject> documents, JsonObject group) {
+    if (!group.containsKey("_id")) throw new IllegalArgumentException("$group requires an _id");
+    Map<Object, List<JsonObject>> groups = new LinkedHashMap<>();
+    for (JsonObject document : documents) {
+      groups.computeIfAbsent(evaluate(document, group.getValue("_id")), it -> new ArrayList<>()).add(document);
+    }
+    List<JsonObject> grouped = new ArrayList<>();
+    groups.forEach((key, members) -> {
+      JsonObject result = new JsonObject().put("_id", key);
+      group.forEach(field -> {
+        if (field.getKey().equals("_id")) return;
+        if (!(field.getValue() instanceof JsonObject) || ((JsonObject) field.getValue()).size() != 1)
+          throw new IllegalArgumentException(String.format("%s must be a single accumulator", field.getKey()));
+        JsonObject accumulator = (JsonObject) field.getValue();
+        String operator = accumulator.fieldNames().iterator().next();
+        result.put(field.getKey(), accumulate(operator, accumulator.getValue(operator), members));
+      });
+      grouped.add(result);
+    });
+    return grouped;
+  }
+
+  static Object accumulate(String operator, Object expression, List<JsonObject> members) {
+    List<Object> values = members.stream().map(it -> evaluate(it, expression)).collect(Collectors.toList());
+    List<Number> numbers = values.stream()
+      .filter(Number.class::isInstance).map(Number.class::cast).collect(Collectors.toList());
+    switch (operator) {
+      case "$sum":
+        return numbers.stream().reduce((Number) 0, Documents::add);
+      case "$avg":
+        return numbers.isEmpty() ? null : numbers.stream().mapToDouble(Number::doubleValue).average().orElse(0);
+      case "$min":
+        return values.stream().filter(it -> it != null).min(Documents::compare).orElse(null);
+      case "$max":
+        return values.stream().filter(it -> it != null).max(Documents::compare).orElse(null);
+      case "$first":
+        return values.isEmpty() ? null : values.get(0);
+      case "$last":
+        return values.isEmpty() ? null : values.get(values.size() - 1);
+      case "$push":
+        return new JsonArray(values);
+      default:
+        throw new IllegalArgumentException(String.format("unsupported accumulator %s", operator));
+    }
+  }
+}
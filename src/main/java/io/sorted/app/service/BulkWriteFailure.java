@@ -0,0 +1,100 @@
+package io.sorted.app.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
+import io.vertx.serviceproxy.ServiceException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The failure of a bulk write which may have written some of its operations
+ * It is a ServiceException whose debug info holds the code and message of each failed operation by index
+ * and the counts of the written documents, so it reaches callers over the event bus and they can report each operation.
+ * A failed ordered write ran the operations before the first failed index, an unordered write ran every other operation.
+ */
+public class BulkWriteFailure {
+  public static final int DUPLICATE_KEY = 11000;
+  static final String ERRORS_FIELD = "write_errors";
+  static final String WRITTEN_FIELD = "written";
+  static final String INDEX_FIELD = "index";
+  static final String CODE_FIELD = "code";
+  static final String MESSAGE_FIELD = "message";
+
+  /**
+   * An operation which failed
+   * @param index The index of the operation in the bulk write
+   * @param code The error code, such as {@link #DUPLICATE_KEY}
+   * @param message The error message
+   */
+  public record WriteError(int index, int code, String message) { }
+
+  /**
+   * Build the failure of a bulk write
+   * @param errors The failed operations
+   * @param written The counts of the written documents
+   * @return The failure
+   */
+  public static ServiceException of(List<WriteError> errors, MongoClientBulkWriteResult written) {
+    JsonArray errorArray = new JsonArray();
+    errors.forEach(error -> errorArray.add(new JsonObject()
+      .put(INDEX_FIELD, error.index()).put(CODE_FIELD, error.code()).put(MESSAGE_FIELD, error.message())));
+    String message = errors.isEmpty() ? "bulk write failed" : errors.get(0).message();
+    return new ServiceException(-1, message, new JsonObject()
+      .put(ERRORS_FIELD, errorArray)
+      .put(WRITTEN_FIELD, written.toJson()));
+  }
+
+  /**
+   * Build the failure of a Mongo bulk write
+   * @param e The Mongo exception
+   * @return The failure
+   */
+  public static ServiceException of(MongoBulkWriteException e) {
+    BulkWriteResult result = e.getWriteResult();
+    MongoClientBulkWriteResult written = result.wasAcknowledged()
+      ? new MongoClientBulkWriteResult(result.getInsertedCount(), result.getMatchedCount(), result.getDeletedCount()
+        , result.getModifiedCount(), List.of())
+      : new MongoClientBulkWriteResult();
+    return of(e.getWriteErrors().stream()
+      .map(error -> new WriteError(error.getIndex(), error.getCode(), error.getMessage()))
+      .toList(), written);
+  }
+
+  /**
+   * Determine if a failure is the failure of a bulk write
+   * @param t The failure
+   * @return True if it holds the failed operations and the written counts
+   */
+  public static boolean is(Throwable t) {
+    return t instanceof ServiceException e && e.getDebugInfo() != null && e.getDebugInfo().containsKey(ERRORS_FIELD);
+  }
+
+  /**
+   * The failed operations of a bulk write failure
+   * @param t The failure, see {@link #is}
+   * @return The failed operations by index
+   */
+  public static Map<Integer, WriteError> errors(Throwable t) {
+    Map<Integer, WriteError> errors = new HashMap<>();
+    for (Object error : ((ServiceException) t).getDebugInfo().getJsonArray(ERRORS_FIELD)) {
+      JsonObject json = (JsonObject) error;
+      errors.put(json.getInteger(INDEX_FIELD)
+        , new WriteError(json.getInteger(INDEX_FIELD), json.getInteger(CODE_FIELD), json.getString(MESSAGE_FIELD)));
+    }
+    return errors;
+  }
+
+  /**
+   * The counts of the documents a failed bulk write wrote
+   * @param t The failure, see {@link #is}
+   * @return The written counts
+   */
+  public static MongoClientBulkWriteResult written(Throwable t) {
+    return new MongoClientBulkWriteResult(((ServiceException) t).getDebugInfo().getJsonObject(WRITTEN_FIELD));
+  }
+}
@@ -0,0 +1,130 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the document caches of every repo instance for a collection consistent, across verticles or clustered nodes
+ * Written ids are collected for a short window and published in one message on a per-collection address,
+ * so a bulk write causes a single message instead of one per document.
+ * Receivers evict the ids from their local cache and report the change, see {@link RepoImpl#changeTag()}.
+ * Configured by the cache object of the collection config:
+ * broadcast (default true) and broadcast_window_ms the time to collect ids before publishing
+ */
+public class CacheInvalidator {
+  public static final String BROADCAST_PROP = "broadcast";
+  public static final String WINDOW_PROP = "broadcast_window_ms";
+  public static final long DEFAULT_WINDOW_MS = 5;
+  // past this many ids it is cheaper to clear the remote caches
+  public static final int MAX_IDS = 1000;
+  static final String SOURCE = "source";
+  static final String IDS = "ids";
+  static final String ALL = "all";
+
+  /**
+   * The event bus address where invalidations of a collection are published
+   * @param collectionName The collection name
+   * @return The address
+   */
+  public static String address(String collectionName) {
+    return String.format("%s.%s.invalidate", Repo.class.getName(), collectionName);
+  }
+
+  private final Vertx vertx;
+  private final String address;
+  private final long window;
+  private final String source = UUID.randomUUID().toString();
+  private final MessageConsumer<JsonObject> consumer;
+  private final LongAdder published;
+  private final LongAdder received;
+  private Set<Object> pending = new LinkedHashSet<>();
+  private boolean all;
+  private long timer = -1;
+
+  public CacheInvalidator(Vertx vertx, String collectionName, JsonObject config, DocumentCache cache) {
+    this(vertx, collectionName, config, cache, () -> { });
+  }
+
+  public CacheInvalidator(Vertx vertx
+    , String collectionName
+    , JsonObject config
+    , DocumentCache cache
+    , Runnable changed) {
+    this.vertx = vertx;
+    this.address = address(collectionName);
+    this.window = Math.max(1, config.getLong(WINDOW_PROP, DEFAULT_WINDOW_MS));
+    Metrics metrics = Metrics.of(vertx);
+    this.published = metrics.counter(String.format("repo.%s.cache.invalidations_published", collectionName));
+    this.received = metrics.counter(String.format("repo.%s.cache.invalidations_received", collectionName));
+    this.consumer = vertx.eventBus().consumer(address, message -> {
+      JsonObject body = message.body();
+      // this instance already evicted its own writes
+      if (source.equals(body.getString(SOURCE))) return;
+      received.increment();
+      if (body.getBoolean(ALL, false)) cache.clear();
+      else body.getJsonArray(IDS, new JsonArray()).forEach(cache::invalidate);
+      changed.run();
+    });
+  }
+
+  /**
+   * Queue an id to be evicted from the other caches
+   * @param id The id of the written document
+   */
+  public synchronized void invalidate(Object id) {
+    if (all) return;
+    pending.add(id);
+    if (pending.size() > MAX_IDS) invalidateAll();
+    else schedule();
+  }
+
+  /**
+   * Queue clearing the other caches
+   */
+  public synchronized void invalidateAll() {
+    all = true;
+    pending.clear();
+    schedule();
+  }
+
+  private void schedule() {
+    if (timer == -1) timer = vertx.setTimer(window, id -> flush());
+  }
+
+  /**
+   * Publish the queued invalidations now
+   */
+  public void flush() {
+    JsonObject body = new JsonObject().put(SOURCE, source);
+    synchronized (this) {
+      if (timer != -1) vertx.cancelTimer(timer);
+      timer = -1;
+      if (!all && pending.isEmpty()) return;
+      if (all) body.put(ALL, true);
+      else body.put(IDS, new JsonArray(new ArrayList<>(pending)));
+      pending = new LinkedHashSet<>();
+      all = false;
+    }
+    published.increment();
+    vertx.eventBus().publish(address, body);
+  }
+
+  /**
+   * Publish any queued invalidations and stop receiving them
+   * @return A future completed when the consumer is unregistered
+   */
+  public Future<Void> close() {
+    flush();
+    return consumer.unregister();
+  }
+}
@@ -1,5 +1,7 @@
 package io.sorted.app.service;
 
+import java.util.List;
+
 /**
  * Interface to specify a datasource collection
  */
@@ -9,4 +11,12 @@ public interface Collectable {
    * @return The collection name
    */
   String collectionName();
+
+  /**
+   * The indexes the collection needs, created on startup when missing, see {@link IndexManager}
+   * @return The declared indexes
+   */
+  default List<Index> indexes() {
+    return List.of();
+  }
 }
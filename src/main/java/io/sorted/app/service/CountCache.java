@@ -0,0 +1,96 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Short lived cache of counts keyed by query, which any write to the collection invalidates
+ * Each count remembers the change counter of the repo when it was loaded and is only used while the counter is unchanged,
+ * writes through other repo instances change it when cache invalidations are broadcast, otherwise the ttl bounds them.
+ * Configured by the count_cache object of the collection config:
+ * enabled (default false), max_size the maximum number of queries and ttl_ms the time to live
+ */
+public class CountCache {
+  public static final String COUNT_CACHE_PROP = "count_cache";
+  public static final String MAX_SIZE_PROP = "max_size";
+  public static final String TTL_PROP = "ttl_ms";
+  public static final int DEFAULT_MAX_SIZE = 1000;
+  public static final long DEFAULT_TTL_MS = 1000;
+
+  /**
+   * A cached count
+   * @param count The number of matching documents
+   * @param changes The change counter when the count was loaded
+   * @param expires Time the entry expires in milliseconds
+   */
+  record Entry(long count, long changes, long expires) { }
+
+  private final int maxSize;
+  private final long ttl;
+  private final LongSupplier changes;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LinkedHashMap<String, Entry> entries;
+
+  /**
+   * Create a count cache
+   * @param vertx The Vert.x instance
+   * @param collectionName The collection name, used to name the metrics
+   * @param config The count cache config
+   * @param changes The change counter of the repo, incremented by every write
+   */
+  public CountCache(Vertx vertx, String collectionName, JsonObject config, LongSupplier changes) {
+    this.maxSize = Math.max(1, config.getInteger(MAX_SIZE_PROP, DEFAULT_MAX_SIZE));
+    this.ttl = Math.max(1, config.getLong(TTL_PROP, DEFAULT_TTL_MS));
+    this.changes = changes;
+    Metrics metrics = Metrics.of(vertx);
+    this.hits = metrics.counter(String.format("repo.%s.count_cache.hits", collectionName));
+    this.misses = metrics.counter(String.format("repo.%s.count_cache.misses", collectionName));
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  /**
+   * Get a count from the cache or load it on a miss
+   * @param key The key of the count, such as the encoded query
+   * @param loader Counts the documents in the datasource
+   * @return A future containing the count
+   */
+  public Future<Long> get(String key, Supplier<Future<Long>> loader) {
+    // read before loading, so a write during the load leaves the count stale
+    long loadChanges = changes.getAsLong();
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null && entry.changes() == loadChanges && entry.expires() > System.currentTimeMillis()) {
+        hits.increment();
+        return Future.succeededFuture(entry.count());
+      }
+      misses.increment();
+    }
+    return loader.get().onSuccess(count -> {
+      synchronized (this) {
+        entries.put(key, new Entry(count, loadChanges, System.currentTimeMillis() + ttl));
+      }
+    });
+  }
+
+  /**
+   * The number of cached counts
+   * @return The cache size
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,57 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds how long a caller waits for a repo operation
+ * Past the deadline the caller's future fails with a TimeoutException and the late result is ignored,
+ * the Mongo client can't cancel an operation in flight, so a late write may still be applied and still invalidates caches.
+ * Configured by deadline_ms of the collection config, 0 (the default) for no deadline
+ */
+public class Deadline {
+  public static final String DEADLINE_PROP = "deadline_ms";
+
+  private final Vertx vertx;
+  private final long timeout;
+  private final LongAdder exceeded;
+
+  /**
+   * Create a deadline
+   * @param vertx The Vert.x instance
+   * @param collectionName The collection name, used to name the metrics
+   * @param timeout The deadline of each operation in milliseconds
+   */
+  public Deadline(Vertx vertx, String collectionName, long timeout) {
+    this.vertx = vertx;
+    this.timeout = Math.max(1, timeout);
+    this.exceeded = Metrics.of(vertx).counter(String.format("repo.%s.deadline.exceeded", collectionName));
+  }
+
+  /**
+   * Apply the deadline to an operation
+   * @param operation The future of the operation
+   * @return A future completed with the result of the operation, or failed once the deadline passes
+   * @param <T> The type of result
+   */
+  public <T> Future<T> apply(Future<T> operation) {
+    if (operation.isComplete()) return operation;
+    Promise<T> promise = Promise.promise();
+    long timer = vertx.setTimer(timeout, id -> {
+      if (promise.future().isComplete()) return;
+      exceeded.increment();
+      promise.tryFail(new TimeoutException(String.format("deadline of %d ms exceeded", timeout)));
+    });
+    operation.onComplete(it -> {
+      vertx.cancelTimer(timer);
+      if (it.succeeded()) promise.tryComplete(it.result());
+      else promise.tryFail(it.cause());
+    });
+    return promise.future();
+  }
+}
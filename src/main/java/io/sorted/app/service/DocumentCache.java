@@ -0,0 +1,181 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU cache of documents keyed by _id, where entries also expire after a time to live
+ * Configured by the cache object of the collection config:
+ * enabled (default false), max_size the maximum number of documents and ttl_ms the time to live
+ */
+public class DocumentCache {
+  public static final String CACHE_PROP = "cache";
+  public static final String MAX_SIZE_PROP = "max_size";
+  public static final String TTL_PROP = "ttl_ms";
+  public static final int DEFAULT_MAX_SIZE = 10_000;
+  public static final long DEFAULT_TTL_MS = 60_000;
+
+  /**
+   * A cached document
+   * @param document The document
+   * @param expires Time the entry expires in milliseconds
+   */
+  record Entry(JsonObject document, long expires) { }
+
+  private final int maxSize;
+  private final long ttl;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private final LongAdder evictions;
+  private final LinkedHashMap<Object, Entry> entries;
+  // incremented by every invalidation so loads which started before a write don't cache a stale document
+  private long generation;
+
+  public DocumentCache(Vertx vertx, String collectionName, JsonObject config) {
+    this.maxSize = Math.max(1, config.getInteger(MAX_SIZE_PROP, DEFAULT_MAX_SIZE));
+    this.ttl = Math.max(1, config.getLong(TTL_PROP, DEFAULT_TTL_MS));
+    Metrics metrics = Metrics.of(vertx);
+    this.hits = metrics.counter(String.format("repo.%s.cache.hits", collectionName));
+    this.misses = metrics.counter(String.format("repo.%s.cache.misses", collectionName));
+    this.evictions = metrics.counter(String.format("repo.%s.cache.evictions", collectionName));
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+        boolean full = size() > maxSize;
+        if (full) evictions.increment();
+        return full;
+      }
+    };
+  }
+
+  /**
+   * Get a document from the cache or load it on a miss
+   * @param id The document id
+   * @param loader Loads the document from the datasource
+   * @return A future containing the document, which is a copy the caller may change
+   */
+  public Future<JsonObject> get(String id, Function<String, Future<JsonObject>> loader) {
+    long loadGeneration;
+    synchronized (this) {
+      Entry entry = entries.get(id);
+      if (entry != null) {
+        if (entry.expires() > System.currentTimeMillis()) {
+          hits.increment();
+          return Future.succeededFuture(entry.document().copy());
+        }
+        entries.remove(id);
+        evictions.increment();
+      }
+      misses.increment();
+      loadGeneration = generation;
+    }
+    return loader.apply(id).onSuccess(document -> {
+      if (document != null) {
+        synchronized (this) {
+          if (generation == loadGeneration) store(document);
+        }
+      }
+    });
+  }
+
+  /**
+   * Get several documents from the cache and load the misses together
+   * @param ids The document ids
+   * @param loader Loads the documents of the missed ids from the datasource, in their order with null for a missing one
+   * @return A future containing the documents in the order of the ids, null for an id without a document
+   */
+  public Future<List<JsonObject>> getMany(List<String> ids, Function<List<String>, Future<List<JsonObject>>> loader) {
+    Map<String, JsonObject> found = new HashMap<>();
+    LinkedHashSet<String> missed = new LinkedHashSet<>();
+    long loadGeneration;
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      for (String id : ids) {
+        if (found.containsKey(id) || missed.contains(id)) continue;
+        Entry entry = entries.get(id);
+        if (entry != null && entry.expires() > now) {
+          hits.increment();
+          found.put(id, entry.document());
+          continue;
+        }
+        if (entry != null) {
+          entries.remove(id);
+          evictions.increment();
+        }
+        misses.increment();
+        missed.add(id);
+      }
+      loadGeneration = generation;
+    }
+    Future<List<JsonObject>> loaded = missed.isEmpty()
+      ? Future.succeededFuture(List.of())
+      : loader.apply(new ArrayList<>(missed));
+    List<String> missedIds = new ArrayList<>(missed);
+    return loaded.map(documents -> {
+      synchronized (this) {
+        for (int i = 0; i < missedIds.size(); i++) {
+          JsonObject document = documents.get(i);
+          if (document != null && generation == loadGeneration) store(document);
+          found.put(missedIds.get(i), document);
+        }
+      }
+      // an id requested twice gets a copy each time
+      List<JsonObject> ordered = new ArrayList<>(ids.size());
+      for (String id : ids) {
+        JsonObject document = found.get(id);
+        ordered.add(document == null ? null : document.copy());
+      }
+      return ordered;
+    });
+  }
+
+  /**
+   * Refresh the cached copy of a document which was just written
+   * @param document The document
+   */
+  public synchronized void put(JsonObject document) {
+    generation++;
+    store(document);
+  }
+
+  private void store(JsonObject document) {
+    Object id = document.getValue("_id");
+    if (id != null) entries.put(id, new Entry(document.copy(), System.currentTimeMillis() + ttl));
+  }
+
+  /**
+   * Remove a document from the cache
+   * @param id The document id
+   */
+  public synchronized void invalidate(Object id) {
+    generation++;
+    if (id != null) entries.remove(id);
+  }
+
+  /**
+   * Remove every document from the cache
+   */
+  public synchronized void clear() {
+    generation++;
+    entries.clear();
+  }
+
+  /**
+   * The number of cached documents
+   * @return The cache size
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+}
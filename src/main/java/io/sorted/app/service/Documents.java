@@ -0,0 +1,291 @@
+package io.sorted.app.service;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates Mongo style queries, updates, sorts and projections against documents in memory
+ * Supports the comparison operators $eq, $ne, $gt, $gte, $lt, $lte, $in, $nin, $exists and $regex,
+ * the logical operators $and, $or, $nor and $not, and the update operators $set, $unset and $inc.
+ * Fields may be dotted paths into embedded documents.
+ * Values of different types are ordered like BSON: null, numbers, strings, objects, arrays, booleans.
+ */
+public final class Documents {
+  private Documents() { }
+
+  /**
+   * Get the value of a field
+   * @param document The document
+   * @param path The field name or a dotted path into embedded documents
+   * @return The value, null if the field is missing
+   */
+  public static Object value(JsonObject document, String path) {
+    Object value = document;
+    for (String field : path.split("\\.")) {
+      if (!(value instanceof JsonObject)) return null;
+      value = ((JsonObject) value).getValue(field);
+    }
+    return value;
+  }
+
+  static boolean exists(JsonObject document, String path) {
+    int dot = path.lastIndexOf('.');
+    Object parent = dot == -1 ? document : value(document, path.substring(0, dot));
+    return parent instanceof JsonObject && ((JsonObject) parent).containsKey(path.substring(dot + 1));
+  }
+
+  /**
+   * Determine if a document matches a query
+   * @param document The document
+   * @param query The query
+   * @return True if every condition of the query matches
+   * @throws IllegalArgumentException if the query uses an unsupported operator
+   */
+  public static boolean matches(JsonObject document, JsonObject query) {
+    for (Map.Entry<String, Object> entry : query) {
+      String key = entry.getKey();
+      Object condition = entry.getValue();
+      boolean matched;
+      switch (key) {
+        case "$and":
+          matched = array(key, condition).stream().allMatch(it -> matches(document, (JsonObject) it));
+          break;
+        case "$or":
+          matched = array(key, condition).stream().anyMatch(it -> matches(document, (JsonObject) it));
+          break;
+        case "$nor":
+          matched = array(key, condition).stream().noneMatch(it -> matches(document, (JsonObject) it));
+          break;
+        default:
+          if (key.startsWith("$")) throw new IllegalArgumentException(String.format("unsupported operator %s", key));
+          matched = matchesField(document, key, condition);
+      }
+      if (!matched) return false;
+    }
+    return true;
+  }
+
+  static JsonArray array(String operator, Object value) {
+    if (value instanceof JsonArray) return (JsonArray) value;
+    throw new IllegalArgumentException(String.format("%s requires an array", operator));
+  }
+
+  static boolean isOperators(Object condition) {
+    return condition instanceof JsonObject
+      && !((JsonObject) condition).isEmpty()
+      && ((JsonObject) condition).fieldNames().iterator().next().startsWith("$");
+  }
+
+  static boolean matchesField(JsonObject document, String path, Object condition) {
+    Object value = value(document, path);
+    if (!isOperators(condition)) return equalsOrContains(value, condition);
+    for (Map.Entry<String, Object> entry : (JsonObject) condition) {
+      if (!matchesOperator(document, path, value, entry.getKey(), entry.getValue())) return false;
+    }
+    return true;
+  }
+
+  static boolean matchesOperator(JsonObject document, String path, Object value, String operator, Object operand) {
+    switch (operator) {
+      case "$eq": return equalsOrContains(value, operand);
+      case "$ne": return !equalsOrContains(value, operand);
+      case "$gt": return comparable(value, operand) && compare(value, operand) > 0;
+      case "$gte": return comparable(value, operand) && compare(value, operand) >= 0;
+      case "$lt": return comparable(value, operand) && compare(value, operand) < 0;
+      case "$lte": return comparable(value, operand) && compare(value, operand) <= 0;
+      case "$in": return array(operator, operand).stream().anyMatch(it -> equalsOrContains(value, it));
+      case "$nin": return array(operator, operand).stream().noneMatch(it -> equalsOrContains(value, it));
+      case "$exists": return exists(document, path) == Boolean.TRUE.equals(operand);
+      case "$regex":
+        return value instanceof String && Pattern.compile(String.valueOf(operand)).matcher((String) value).find();
+      case "$not": return !matchesField(document, path, operand);
+      default: throw new IllegalArgumentException(String.format("unsupported operator %s", operator));
+    }
+  }
+
+  // like Mongo a condition on an array field matches if any element matches
+  static boolean equalsOrContains(Object value, Object condition) {
+    if (same(value, condition)) return true;
+    return value instanceof JsonArray && ((JsonArray) value).stream().anyMatch(it -> same(it, condition));
+  }
+
+  static boolean same(Object a, Object b) {
+    if (a instanceof Number && b instanceof Number) return compare(a, b) == 0;
+    return Objects.equals(a, b);
+  }
+
+  static boolean comparable(Object a, Object b) {
+    return a != null && b != null && rank(a) == rank(b);
+  }
+
+  static int rank(Object value) {
+    if (value == null) return 0;
+    if (value instanceof Number) return 1;
+    if (value instanceof String) return 2;
+    if (value instanceof JsonObject) return 3;
+    if (value instanceof JsonArray) return 4;
+    if (value instanceof Boolean) return 5;
+    return 6;
+  }
+
+  /**
+   * Compare two values in BSON order
+   * @param a The first value
+   * @param b The second value
+   * @return A negative number, zero or a positive number as a is less than, equal to or greater than b
+   */
+  public static int compare(Object a, Object b) {
+    int rank = Integer.compare(rank(a), rank(b));
+    if (rank != 0 || a == null) return rank;
+    if (a instanceof Number) return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+    if (a instanceof String) return ((String) a).compareTo((String) b);
+    if (a instanceof Boolean) return Boolean.compare((Boolean) a, (Boolean) b);
+    return a.toString().compareTo(b.toString());
+  }
+
+  /**
+   * Build a comparator from a sort document such as { rank: -1, _id: 1 }
+   * @param sort The sort document, null for no order
+   * @return The comparator
+   */
+  public static Comparator<JsonObject> comparator(JsonObject sort) {
+    Comparator<JsonObject> comparator = (a, b) -> 0;
+    if (sort == null) return comparator;
+    for (String field : sort.fieldNames()) {
+      int direction = ((Number) sort.getValue(field)).intValue() < 0 ? -1 : 1;
+      comparator = comparator.thenComparing((a, b) -> direction * compare(value(a, field), value(b, field)));
+    }
+    return comparator;
+  }
+
+  /**
+   * Determine if an update is a replacement document rather than a set of update operators
+   * @param update The update
+   * @return True if the update has no operators
+   */
+  public static boolean isReplacement(JsonObject update) {
+    return update.fieldNames().stream().noneMatch(it -> it.startsWith("$"));
+  }
+
+  /**
+   * Apply an update to a copy of a document
+   * @param document The document
+   * @param update The update operators, or a replacement document which keeps the _id of the document
+   * @return The updated copy
+   * @throws IllegalArgumentException if the update uses an unsupported operator
+   */
+  public static JsonObject update(JsonObject document, JsonObject update) {
+    if (isReplacement(update)) {
+      JsonObject replaced = update.copy();
+      if (document.containsKey("_id")) replaced.put("_id", document.getValue("_id"));
+      return replaced;
+    }
+    JsonObject updated = document.copy();
+    for (Map.Entry<String, Object> entry : update) {
+      JsonObject fields = (JsonObject) entry.getValue();
+      switch (entry.getKey()) {
+        case "$set":
+          fields.forEach(field -> set(updated, field.getKey(), field.getValue()));
+          break;
+        case "$unset":
+          fields.fieldNames().forEach(field -> unset(updated, field));
+          break;
+        case "$inc":
+          fields.forEach(field -> {
+            Object current = value(updated, field.getKey());
+            Number by = (Number) field.getValue();
+            set(updated, field.getKey(), current == null ? by : add((Number) current, by));
+          });
+          break;
+        case "$setOnInsert":
+          // only applies when an upsert inserts, see upsert
+          break;
+        default:
+          throw new IllegalArgumentException(String.format("unsupported update operator %s", entry.getKey()));
+      }
+    }
+    return updated;
+  }
+
+  /**
+   * Build the document inserted by an upsert which matched nothing
+   * @param query The query of the upsert, its equality conditions become fields
+   * @param update The update operators or the replacement document
+   * @return The new document without an _id unless the query or update specified one
+   */
+  public static JsonObject upsert(JsonObject query, JsonObject update) {
+    JsonObject document = new JsonObject();
+    query.forEach(entry -> {
+      if (!entry.getKey().startsWith("$") && !isOperators(entry.getValue()))
+        set(document, entry.getKey(), entry.getValue());
+    });
+    if (isReplacement(update)) {
+      JsonObject replacement = update.copy();
+      if (replacement.getValue("_id") == null && document.getValue("_id") != null)
+        replacement.put("_id", document.getValue("_id"));
+      return replacement;
+    }
+    JsonObject inserted = update(document, update);
+    JsonObject onInsert = update.getJsonObject("$setOnInsert");
+    if (onInsert != null) onInsert.forEach(field -> set(inserted, field.getKey(), field.getValue()));
+    return inserted;
+  }
+
+  static Number add(Number a, Number b) {
+    if (a instanceof Integer && b instanceof Integer) return Math.addExact(a.intValue(), b.intValue());
+    if ((a instanceof Integer || a instanceof Long) && (b instanceof Integer || b instanceof Long))
+      return Math.addExact(a.longValue(), b.longValue());
+    return a.doubleValue() + b.doubleValue();
+  }
+
+  static void set(JsonObject document, String path, Object value) {
+    String[] fields = path.split("\\.");
+    JsonObject parent = document;
+    for (int i = 0; i < fields.length - 1; i++) {
+      JsonObject child = parent.getValue(fields[i]) instanceof JsonObject ? parent.getJsonObject(fields[i]) : null;
+      if (child == null) parent.put(fields[i], child = new JsonObject());
+      parent = child;
+    }
+    parent.put(fields[fields.length - 1], value);
+  }
+
+  static void unset(JsonObject document, String path) {
+    int dot = path.lastIndexOf('.');
+    Object parent = dot == -1 ? document : value(document, path.substring(0, dot));
+    if (parent instanceof JsonObject) ((JsonObject) parent).remove(path.substring(dot + 1));
+  }
+
+  /**
+   * Project the fields of a document
+   * @param document The document
+   * @param fields The projection, either fields to include or fields to exclude, null for every field
+   * @return The projected copy
+   */
+  public static JsonObject project(JsonObject document, JsonObject fields) {
+    if (fields == null || fields.isEmpty()) return document.copy();
+    boolean include = fields.stream()
+      .anyMatch(it -> !it.getKey().equals("_id") && truthy(it.getValue()));
+    JsonObject projected;
+    if (include) {
+      projected = new JsonObject();
+      for (String field : fields.fieldNames()) {
+        if (truthy(fields.getValue(field)) && exists(document, field)) set(projected, field, value(document, field));
+      }
+      if (!fields.containsKey("_id") && document.containsKey("_id")) projected.put("_id", document.getValue("_id"));
+    } else {
+      projected = document.copy();
+      fields.fieldNames().forEach(field -> unset(projected, field));
+    }
+    if (fields.containsKey("_id") && !truthy(fields.getValue("_id"))) projected.remove("_id");
+    return projected.copy();
+  }
+
+  static boolean truthy(Object value) {
+    return value instanceof Boolean ? (Boolean) value : value instanceof Number && ((Number) value).intValue() != 0;
+  }
+}
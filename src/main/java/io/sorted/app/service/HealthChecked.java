@@ -0,0 +1,14 @@
+package io.sorted.app.service;
+
+import io.vertx.core.Future;
+
+/**
+ * A service which can check the health of the datasource it depends on, see {@link Advertiser}
+ */
+public interface HealthChecked {
+  /**
+   * Check the service can reach its datasource
+   * @return A future completed when the datasource answered, failed otherwise
+   */
+  Future<Void> checkHealth();
+}
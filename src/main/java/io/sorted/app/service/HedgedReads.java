@@ -0,0 +1,145 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Issues a second read when the first is slower than most reads, and takes whichever result arrives first
+ * The delay before hedging is a percentile of the recent latencies of first reads, so only the slow tail is hedged
+ * and the extra load stays around 100 - percentile percent of reads.
+ * A first read which fails before the delay fails the read without hedging, after it the other read may still succeed.
+ * The late result is ignored, the Mongo client can't cancel a read in flight.
+ * The second read uses the client and read preference of the first, since a read from a lagging secondary
+ * could return a document older than a write the caller just made, and cache it.
+ * So it only hedges against stalls of the first read's connection, pool checkout or a GC pause:
+ * with the primary read preference both reads go to the same member, a slow member slows both.
+ * Configured by the hedge object of the collection config:
+ * enabled (default false), percentile (default 95) of the latencies, min_delay_ms and max_delay_ms which bound the delay,
+ * max_delay_ms is also the delay until enough latencies are recorded and window the number of latencies kept
+ */
+public class HedgedReads {
+  public static final String HEDGE_PROP = "hedge";
+  public static final String PERCENTILE_PROP = "percentile";
+  public static final String MIN_DELAY_PROP = "min_delay_ms";
+  public static final String MAX_DELAY_PROP = "max_delay_ms";
+  public static final String WINDOW_PROP = "window";
+  public static final double DEFAULT_PERCENTILE = 95;
+  public static final long DEFAULT_MIN_DELAY_MS = 2;
+  public static final long DEFAULT_MAX_DELAY_MS = 100;
+  public static final int DEFAULT_WINDOW = 1024;
+  // the delay is recomputed after this many latencies, sorting the window on every read would cost more than it saves
+  static final int RECOMPUTE_EVERY = 64;
+
+  private final Vertx vertx;
+  private final double percentile;
+  private final long minDelay;
+  private final long maxDelay;
+  private final long[] latencies;
+  private final LongAdder reads;
+  private final LongAdder hedged;
+  private final LongAdder wins;
+  private int next;
+  private int recorded;
+  private volatile long delay;
+
+  /**
+   * Create a hedging policy
+   * @param vertx The Vert.x instance
+   * @param collectionName The collection name, used to name the metrics
+   * @param config The hedge config
+   */
+  public HedgedReads(Vertx vertx, String collectionName, JsonObject config) {
+    this.vertx = vertx;
+    this.percentile = Math.min(100, Math.max(0, config.getDouble(PERCENTILE_PROP, DEFAULT_PERCENTILE)));
+    this.minDelay = Math.max(1, config.getLong(MIN_DELAY_PROP, DEFAULT_MIN_DELAY_MS));
+    this.maxDelay = Math.max(minDelay, config.getLong(MAX_DELAY_PROP, DEFAULT_MAX_DELAY_MS));
+    this.latencies = new long[Math.max(RECOMPUTE_EVERY, config.getInteger(WINDOW_PROP, DEFAULT_WINDOW))];
+    this.delay = maxDelay;
+    Metrics metrics = Metrics.of(vertx);
+    this.reads = metrics.counter(String.format("repo.%s.hedge.reads", collectionName));
+    this.hedged = metrics.counter(String.format("repo.%s.hedge.hedged", collectionName));
+    this.wins = metrics.counter(String.format("repo.%s.hedge.wins", collectionName));
+  }
+
+  /**
+   * Run a read, hedged by a second read if it takes longer than the delay
+   * @param read Starts the first read
+   * @param hedge Starts the second read
+   * @return A future containing the first successful result
+   * @param <T> The type of result
+   */
+  public <T> Future<T> run(Supplier<Future<T>> read, Supplier<Future<T>> hedge) {
+    reads.increment();
+    long start = System.nanoTime();
+    Future<T> first = read.get();
+    if (first.isComplete()) {
+      record(System.nanoTime() - start);
+      return first;
+    }
+    Promise<T> result = Promise.promise();
+    // reads still running, the result fails when none is left
+    int[] pending = { 1 };
+    long timer = vertx.setTimer(delay, id -> {
+      if (result.future().isComplete()) return;
+      hedged.increment();
+      pending[0]++;
+      Future<T> second;
+      try {
+        second = hedge.get();
+      } catch (RuntimeException e) {
+        second = Future.failedFuture(e);
+      }
+      second.onComplete(it -> {
+        if (it.succeeded() && !result.future().isComplete()) wins.increment();
+        complete(result, it, --pending[0]);
+      });
+    });
+    first.onComplete(it -> {
+      record(System.nanoTime() - start);
+      // before the delay there is no second read, even a failure isn't hedged since it would most likely repeat
+      if (vertx.cancelTimer(timer)) result.handle(it);
+      else complete(result, it, --pending[0]);
+    });
+    return result.future();
+  }
+
+  // the first success completes the result, a failure only when no other read is pending
+  private <T> void complete(Promise<T> result, AsyncResult<T> read, int pending) {
+    if (read.succeeded()) result.tryComplete(read.result());
+    else if (pending == 0) result.tryFail(read.cause());
+  }
+
+  /**
+   * Record the latency of a first read
+   * @param nanos The latency in nanoseconds
+   */
+  synchronized void record(long nanos) {
+    latencies[next] = nanos;
+    next = (next + 1) % latencies.length;
+    if (recorded < latencies.length) recorded++;
+    if (next % RECOMPUTE_EVERY == 0) {
+      long[] sorted = Arrays.copyOf(latencies, recorded);
+      Arrays.sort(sorted);
+      int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+      long millis = TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]);
+      delay = Math.min(maxDelay, Math.max(minDelay, millis));
+    }
+  }
+
+  /**
+   * The current delay before a read is hedged
+   * @return The delay in milliseconds
+   */
+  public long delay() {
+    return delay;
+  }
+}
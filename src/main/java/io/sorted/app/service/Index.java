@@ -0,0 +1,91 @@
+package io.sorted.app.service;
+
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.IndexOptions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * An index a collection needs, reconciled with the datasource on startup, see {@link IndexManager}
+ * @param key The indexed fields in order, 1 for ascending and -1 for descending
+ * @param unique True if the indexed values must be unique
+ * @param expireAfterSeconds Seconds after the date in the indexed field when documents expire, null to never expire
+ */
+public record Index(JsonObject key, boolean unique, Long expireAfterSeconds) {
+  /**
+   * An ascending index on one or more fields
+   * @param fields The field names, in key order
+   * @return The index
+   */
+  public static Index on(String... fields) {
+    JsonObject key = new JsonObject();
+    for (String field : fields) key.put(field, 1);
+    return of(key);
+  }
+
+  /**
+   * An index on a key document such as { rank: -1, _id: 1 }
+   * @param key The indexed fields in order
+   * @return The index
+   */
+  public static Index of(JsonObject key) {
+    return new Index(key, false, null);
+  }
+
+  /**
+   * @return A copy of the index which requires unique values
+   */
+  public Index asUnique() {
+    return new Index(key, true, expireAfterSeconds);
+  }
+
+  /**
+   * A copy of the index which expires documents, the indexed field has to hold a date
+   * @param seconds Seconds after the indexed date when documents expire
+   * @return The TTL index
+   */
+  public Index expireAfter(long seconds) {
+    return new Index(key, unique, seconds);
+  }
+
+  /**
+   * The index name, generated the same way as Mongo does for example rank_1__id_1
+   * @return The name
+   */
+  public String name() {
+    return key.stream().map(it -> it.getKey() + "_" + it.getValue()).collect(Collectors.joining("_"));
+  }
+
+  /**
+   * The first field of the key, the only field a query has to use for the index to support it
+   * @return The field name
+   */
+  public String prefix() {
+    return key.fieldNames().iterator().next();
+  }
+
+  /**
+   * The options used to create the index
+   * @return The index options
+   */
+  public IndexOptions options() {
+    IndexOptions options = new IndexOptions().name(name()).unique(unique).background(true);
+    if (expireAfterSeconds != null) options.expireAfter(expireAfterSeconds, TimeUnit.SECONDS);
+    return options;
+  }
+
+  /**
+   * Determine if an index listed by the datasource matches this one
+   * @param listed An index document from listIndexes
+   * @return True if the key and options are the same
+   */
+  boolean matches(JsonObject listed) {
+    Object expires = listed.getValue("expireAfterSeconds");
+    return key.equals(listed.getJsonObject("key"))
+      && unique == listed.getBoolean("unique", false)
+      && (expireAfterSeconds == null
+        ? expires == null
+        : expires instanceof Number && ((Number) expires).longValue() == expireAfterSeconds);
+  }
+}
@@ -0,0 +1,140 @@
+package io.sorted.app.service;
+
+import com.mongodb.MongoCommandException;
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Reconciles the indexes declared by a collection with the datasource and checks that queries are supported by them
+ * Missing indexes are created in the background, indexes which exist with different options are only reported,
+ * dropping or rebuilding an index is left to an operator.
+ * Each query shape, the fields it filters and sorts on, which no index supports is logged once.
+ * Configured by the indexes object of the collection config:
+ * reconcile (default true) to create missing indexes on startup,
+ * strict (default false) to fail unsupported queries instead of only logging them
+ */
+public class IndexManager {
+  public static final String INDEXES_PROP = "indexes";
+  public static final String RECONCILE_PROP = "reconcile";
+  public static final String STRICT_PROP = "strict";
+  // the error listing the indexes of a collection which doesn't exist yet
+  static final int NAMESPACE_NOT_FOUND = 26;
+
+  private final Logger log;
+  private final MongoClient mongo;
+  private final String collectionName;
+  private final List<Index> indexes;
+  private final Set<String> prefixes;
+  private final boolean reconcile;
+  private final boolean strict;
+  private final Map<Set<String>, Boolean> unsupported = new ConcurrentHashMap<>();
+  private final LongAdder unindexed;
+
+  public IndexManager(Vertx vertx, MongoClient mongo, String collectionName, List<Index> indexes, JsonObject config) {
+    this.log = LoggerFactory.getLogger(IndexManager.class.getSimpleName());
+    this.mongo = mongo;
+    this.collectionName = collectionName;
+    this.indexes = indexes;
+    this.prefixes = indexes.stream().map(Index::prefix).collect(Collectors.toCollection(HashSet::new));
+    this.prefixes.add("_id");
+    this.reconcile = config.getBoolean(RECONCILE_PROP, true);
+    this.strict = config.getBoolean(STRICT_PROP, false);
+    this.unindexed = Metrics.of(vertx).counter(String.format("repo.%s.indexes.unindexed_queries", collectionName));
+  }
+
+  /**
+   * Create the declared indexes which don't exist yet
+   * @return A future completed when every missing index was created, failed if the indexes can't be listed
+   */
+  public Future<Void> reconcile() {
+    if (!reconcile || indexes.isEmpty()) return Future.succeededFuture();
+    return mongo.listIndexes(collectionName)
+      // only a collection which doesn't exist yet has no indexes to list
+      .recover(t -> t instanceof MongoCommandException e && e.getErrorCode() == NAMESPACE_NOT_FOUND
+        ? Future.succeededFuture(new JsonArray())
+        : Future.failedFuture(t))
+      .compose(listed -> {
+        Future<Void> chain = Future.succeededFuture();
+        for (Index index : indexes) {
+          JsonObject existing = listed.stream()
+            .map(JsonObject.class::cast)
+            .filter(it -> index.key().equals(it.getJsonObject("key")) || index.name().equals(it.getString("name")))
+            .findFirst().orElse(null);
+          if (existing == null) {
+            chain = chain.compose(v -> mongo.createIndexWithOptions(collectionName, index.key(), index.options())
+              .onSuccess(created -> log.info("created index {} on {}", index.name(), collectionName)));
+          } else if (!index.matches(existing)) {
+            log.warn("index {} on {} exists with different options {}, declared {}"
+              , existing.getString("name"), collectionName, existing.encode(), index);
+          }
+        }
+        return chain;
+      });
+  }
+
+  /**
+   * Check that an index supports a query
+   * A query without conditions or sort is a deliberate scan and always allowed.
+   * Conditions combined with $and need one indexed condition, an $or needs an indexed condition in every branch.
+   * @param query The query
+   * @param sort The sort document, null if unsorted
+   * @throws IllegalStateException if no index supports the query and strict is enabled
+   */
+  public void check(JsonObject query, JsonObject sort) {
+    Set<String> fields = new TreeSet<>();
+    fields(query, fields);
+    String sortField = sort == null || sort.isEmpty() ? null : sort.fieldNames().iterator().next();
+    boolean supported = fields.isEmpty()
+      ? sortField == null || prefixes.contains(sortField)
+      : supported(query);
+    if (supported) return;
+
+    unindexed.increment();
+    if (sortField != null) fields.add("sort:" + sortField);
+    if (unsupported.putIfAbsent(fields, true) == null)
+      log.warn("no index on {} supports a query on {}", collectionName, fields);
+    if (strict) throw new IllegalStateException(String.format("no index supports a query on %s", fields));
+  }
+
+  // an index supports a query if it supports one of its implicitly and-ed conditions
+  boolean supported(JsonObject query) {
+    for (Map.Entry<String, Object> entry : query) {
+      String key = entry.getKey();
+      if (!key.startsWith("$")) {
+        if (prefixes.contains(key)) return true;
+      } else if (entry.getValue() instanceof JsonArray branches && !branches.isEmpty()) {
+        // $nor can't use an index
+        if (key.equals("$and") && branches.stream().anyMatch(it -> it instanceof JsonObject q && supported(q))) return true;
+        if (key.equals("$or") && branches.stream().allMatch(it -> it instanceof JsonObject q && supported(q))) return true;
+      }
+    }
+    return false;
+  }
+
+  // the fields a query filters on, including inside $and, $or and $nor
+  static void fields(JsonObject query, Set<String> fields) {
+    if (query == null) return;
+    query.forEach(entry -> {
+      if (!entry.getKey().startsWith("$")) fields.add(entry.getKey());
+      else if (entry.getValue() instanceof JsonArray)
+        ((JsonArray) entry.getValue()).forEach(it -> {
+          if (it instanceof JsonObject) fields((JsonObject) it, fields);
+        });
+    });
+  }
+}
@@ -0,0 +1,120 @@
+package io.sorted.app.service;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.Iterator;
+
+/**
+ * Read stream over the items of an iterable, emitted on a Vert.x context
+ * Honours pause, resume and fetch, and yields the event loop after every batch of items.
+ * The iterator is created when the first items are emitted, so the source may be computed lazily.
+ * @param <T> The type of item
+ */
+public class IterableStream<T> implements ReadStream<T> {
+  static final int BATCH_SIZE = 128;
+
+  private final Context context;
+  private final Iterable<T> items;
+  private Iterator<T> iterator;
+  private Handler<T> handler;
+  private Handler<Void> endHandler;
+  private Handler<Throwable> exceptionHandler;
+  private long demand = Long.MAX_VALUE;
+  private boolean scheduled;
+  private boolean ended;
+
+  public IterableStream(Context context, Iterable<T> items) {
+    this.context = context;
+    this.items = items;
+  }
+
+  @Override
+  public synchronized IterableStream<T> exceptionHandler(Handler<Throwable> handler) {
+    this.exceptionHandler = handler;
+    return this;
+  }
+
+  @Override
+  public synchronized IterableStream<T> handler(Handler<T> handler) {
+    this.handler = handler;
+    if (handler != null) schedule();
+    return this;
+  }
+
+  @Override
+  public synchronized IterableStream<T> endHandler(Handler<Void> endHandler) {
+    this.endHandler = endHandler;
+    return this;
+  }
+
+  @Override
+  public synchronized IterableStream<T> pause() {
+    demand = 0;
+    return this;
+  }
+
+  @Override
+  public IterableStream<T> resume() {
+    return fetch(Long.MAX_VALUE);
+  }
+
+  @Override
+  public synchronized IterableStream<T> fetch(long amount) {
+    if (amount > 0) {
+      demand += amount;
+      if (demand < 0) demand = Long.MAX_VALUE;
+      schedule();
+    }
+    return this;
+  }
+
+  private void schedule() {
+    if (scheduled || ended) return;
+    scheduled = true;
+    context.runOnContext(v -> emit());
+  }
+
+  private void emit() {
+    Handler<T> handler;
+    synchronized (this) {
+      scheduled = false;
+      handler = this.handler;
+    }
+    try {
+      synchronized (this) {
+        if (iterator == null) iterator = items.iterator();
+      }
+      for (int i = 0; i < BATCH_SIZE; i++) {
+        T item;
+        synchronized (this) {
+          if (ended || this.handler == null || demand == 0 || !iterator.hasNext()) break;
+          if (demand != Long.MAX_VALUE) demand--;
+          item = iterator.next();
+        }
+        handler.handle(item);
+      }
+    } catch (RuntimeException e) {
+      Handler<Throwable> exceptionHandler;
+      synchronized (this) {
+        ended = true;
+        exceptionHandler = this.exceptionHandler;
+      }
+      if (exceptionHandler != null) exceptionHandler.handle(e);
+      return;
+    }
+    Handler<Void> endHandler = null;
+    synchronized (this) {
+      if (ended || this.handler == null) return;
+      if (!iterator.hasNext()) {
+        ended = true;
+        endHandler = this.endHandler;
+      } else if (demand > 0) {
+        // yield before the next batch so other events on the loop get a turn
+        schedule();
+      }
+    }
+    if (endHandler != null) endHandler.handle(null);
+  }
+}
@@ -0,0 +1,106 @@
+package io.sorted.app.service;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.serviceproxy.ServiceException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Calls a service implementation registered in this Vert.x instance directly instead of through the event bus
+ * Behaves like the event bus proxy without encoding messages: the call runs on the context the service was registered on,
+ * the result is delivered on the caller's context, arguments and results are passed without copies
+ * like the {@link ServiceCodec} passes them, failures other than a ServiceException become a ServiceException with code -1 and a call which doesn't complete
+ * within the default send timeout fails with a timeout ReplyException.
+ * Methods which don't return a future, such as streams, call the implementation directly.
+ */
+class LocalProxy implements InvocationHandler {
+  private final Vertx vertx;
+  private final String address;
+  private final Object impl;
+  private final Context context;
+
+  LocalProxy(Vertx vertx, String address, Object impl, Context context) {
+    this.vertx = vertx;
+    this.address = address;
+    this.impl = impl;
+    this.context = context;
+  }
+
+  /**
+   * Create a proxy of a local service
+   * @param vertx The Vert.x instance
+   * @param aClass The service class (interface)
+   * @param impl The service implementation object
+   * @param context The context the service was registered on
+   * @return The proxy
+   * @param <T> the type of the service interface
+   */
+  static <T> T create(Vertx vertx, Class<T> aClass, Object impl, Context context) {
+    return aClass.cast(Proxy.newProxyInstance(aClass.getClassLoader(), new Class<?>[] { aClass }
+      , new LocalProxy(vertx, aClass.getName(), impl, context)));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (method.getDeclaringClass() == Object.class) return objectMethod(proxy, method, args);
+    if (method.getReturnType() != Future.class) return call(method, args);
+
+    Context caller = Vertx.currentContext();
+    Promise<Object> promise = Promise.promise();
+    long timer = vertx.setTimer(DeliveryOptions.DEFAULT_TIMEOUT, id -> promise.tryFail(new ReplyException(
+      ReplyFailure.TIMEOUT
+      , String.format("Timed out after waiting %d(ms) for a reply. address: %s", DeliveryOptions.DEFAULT_TIMEOUT, address))));
+    context.runOnContext(v -> {
+      Future<?> result;
+      try {
+        result = (Future<?>) call(method, args);
+      } catch (Throwable t) {
+        result = Future.failedFuture(t);
+      }
+      result.onComplete(it -> {
+        vertx.cancelTimer(timer);
+        if (caller == null || caller == Vertx.currentContext()) complete(promise, it);
+        else caller.runOnContext(hop -> complete(promise, it));
+      });
+    });
+    return promise.future();
+  }
+
+  Object call(Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(impl, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  static void complete(Promise<Object> promise, AsyncResult<?> result) {
+    if (result.succeeded()) {
+      promise.tryComplete(result.result());
+    } else {
+      Throwable cause = result.cause();
+      promise.tryFail(cause instanceof ServiceException ? cause : new ServiceException(-1, cause.getMessage()));
+    }
+  }
+
+  Object objectMethod(Object proxy, Method method, Object[] args) {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      default:
+        return String.format("%s[local %s]", address, impl);
+    }
+  }
+}
@@ -0,0 +1,482 @@
+package io.sorted.app.service;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
+import io.vertx.serviceproxy.ServiceException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-memory implementation of standard database operations, an alternative to {@link RepoImpl} without a datasource
+ * Documents are kept in a concurrent map ordered by _id, so results are deterministic.
+ * Queries, updates, sorts and projections support the Mongo operators described in {@link Documents}.
+ * Reads don't lock, writes are serialized so the findOneAnd* operations are atomic.
+ * Stored documents are never shared with callers, every result is a copy.
+ * Selected by setting backend = memory in the collection config, see {@link #BACKEND_PROP}
+ */
+public abstract class MemoryRepo implements StreamingRepo, Collectable {
+  public static final String BACKEND_PROP = "backend";
+  public static final String MEMORY_BACKEND = "memory";
+
+  /**
+   * Determine if a collection is configured to be kept in memory
+   * @param config The collection config
+   * @return True if the backend is memory
+   */
+  public static boolean isMemory(JsonObject config) {
+    return MEMORY_BACKEND.equals(config.getString(BACKEND_PROP));
+  }
+
+  protected final Vertx vertx;
+  private final String collectionName;
+  protected final JsonObject config;
+  private final NavigableMap<String, JsonObject> documents = new ConcurrentSkipListMap<>();
+  private final String epoch = RepoImpl.newId();
+  private final AtomicLong changes = new AtomicLong();
+
+  /**
+   * Create an in-memory repo for a collection
+   * @param vertx The Vert.x instance
+   * @param collectionName The collection name
+   * @param config The collection config
+   */
+  public MemoryRepo(Vertx vertx, String collectionName, JsonObject config) {
+    this.vertx = vertx;
+    this.collectionName = collectionName;
+    this.config = config;
+  }
+
+  /**
+   * The collection name the repo operates on
+   * @return The collection name
+   */
+  @Override
+  public String collectionName() {
+    return collectionName;
+  }
+
+  static String key(Object id) {
+    return String.valueOf(id);
+  }
+
+  // complete with the result, or fail with any exception thrown such as an unsupported operator
+  static <T> Future<T> call(Supplier<T> supplier) {
+    try {
+      return Future.succeededFuture(supplier.get());
+    } catch (RuntimeException e) {
+      return Future.failedFuture(e);
+    }
+  }
+
+  static JsonObject copy(JsonObject document) {
+    return document == null ? null : document.copy();
+  }
+
+  /**
+   * Nothing to release
+   * @return a {@code Future} of the asynchronous result
+   */
+  @Override
+  public Future<Void> close() {
+    return Future.succeededFuture();
+  }
+
+  Stream<JsonObject> matching(JsonObject query) {
+    Object id = query.getValue("_id");
+    // a plain _id condition is a map lookup instead of a scan
+    Stream<JsonObject> candidates = id == null || id instanceof JsonObject
+      ? documents.values().stream()
+      : Stream.ofNullable(documents.get(key(id)));
+    return candidates.filter(it -> Documents.matches(it, query));
+  }
+
+  List<JsonObject> findSync(JsonObject query, FindOptions options) {
+    Stream<JsonObject> found = matching(query);
+    if (options.getSort() != null && !options.getSort().isEmpty())
+      found = found.sorted(Documents.comparator(options.getSort()));
+    if (options.getSkip() > 0) found = found.skip(options.getSkip());
+    if (options.getLimit() > 0) found = found.limit(options.getLimit());
+    return found.map(it -> Documents.project(it, options.getFields())).collect(Collectors.toList());
+  }
+
+  /**
+   * Called after a document was written, with the write lock held
+   * @param id The id of the written document
+   */
+  protected void written(Object id) {
+    changes.incrementAndGet();
+  }
+
+  /**
+   * The document as currently stored, which a subclass may read from {@link #written(Object)}
+   * @param id The document id
+   * @return The stored document, which must not be changed, null if there is none
+   */
+  protected synchronized JsonObject stored(Object id) {
+    return documents.get(key(id));
+  }
+
+  /**
+   * Called after a write which may have changed any document in the collection, with the write lock held
+   */
+  protected void writtenAll() {
+    changes.incrementAndGet();
+  }
+
+  /**
+   * Save a document, replacing any document with the same _id
+   * @param jsonObject the document
+   * @return A future containing the saved object
+   */
+  @Override
+  public Future<JsonObject> save(JsonObject jsonObject) {
+    JsonObject document = jsonObject.copy();
+    if (document.getValue("_id") == null) document.put("_id", RepoImpl.newId());
+    synchronized (this) {
+      documents.put(key(document.getValue("_id")), document);
+      written(document.getValue("_id"));
+    }
+    return Future.succeededFuture(document.copy());
+  }
+
+  /**
+   * Find a single document which matches the id
+   * @param id The id to retrieve
+   * @return A future containing the retrieved document
+   */
+  @Override
+  public Future<JsonObject> get(String id) {
+    return Future.succeededFuture(copy(documents.get(key(id))));
+  }
+
+  /**
+   * Find the documents of several ids
+   * @param ids The ids to retrieve
+   * @return A future containing the documents in the order of the ids, null for an id without a document
+   */
+  @Override
+  public Future<List<JsonObject>> getMany(List<String> ids) {
+    List<JsonObject> found = new ArrayList<>(ids.size());
+    for (String id : ids) found.add(copy(documents.get(key(id))));
+    return Future.succeededFuture(found);
+  }
+
+  /**
+   * list all documents
+   * @return A future containing a list of all documents
+   */
+  @Override
+  public Future<List<JsonObject>> list() {
+    return find(new JsonObject());
+  }
+
+  /**
+   * Stream matching documents
+   * @param query query used to match documents
+   * @param options options to sort, limit and project the documents
+   * @return A stream of the matching documents
+   */
+  @Override
+  public ReadStream<JsonObject> stream(JsonObject query, FindOptions options) {
+    // matched when the stream starts so errors such as an unsupported operator reach the exception handler
+    return new IterableStream<>(vertx.getOrCreateContext(), () -> findSync(query, options).iterator());
+  }
+
+  /**
+   * Stream the results of an aggregation pipeline, with the stages described in {@link Aggregations}
+   * @param pipeline The aggregation stages
+   * @return A stream of the results
+   */
+  @Override
+  public ReadStream<JsonObject> aggregate(JsonArray pipeline) {
+    return new IterableStream<>(vertx.getOrCreateContext()
+      , () -> Aggregations.run(new ArrayList<>(documents.values()), pipeline).stream().map(JsonObject::copy).iterator());
+  }
+
+  /**
+   * Count matching documents
+   * @param query query used to match documents
+   * @return A future containing the number of matching documents
+   */
+  @Override
+  public Future<Long> count(JsonObject query) {
+    return call(() -> matching(query).count());
+  }
+
+  /**
+   * The number of documents, which in memory is exact
+   * @return A future containing the number of documents
+   */
+  @Override
+  public Future<Long> estimatedCount() {
+    return Future.succeededFuture((long) documents.size());
+  }
+
+  /**
+   * Find matching documents using a query object
+   * @param query query used to match documents
+   * @return A future containing a list of all matching documents
+   */
+  @Override
+  public Future<List<JsonObject>> find(JsonObject query) {
+    return findWithOptions(query, new FindOptions());
+  }
+
+  /**
+   * Find matching documents using a query object
+   * @param query query used to match documents
+   * @param options options to sort, limit and project the documents
+   * @return A future containing a list of the matching documents
+   */
+  @Override
+  public Future<List<JsonObject>> findWithOptions(JsonObject query, FindOptions options) {
+    return call(() -> findSync(query, options));
+  }
+
+  /**
+   * Find a single matching document
+   * @param query the query used to match the document
+   * @return A future containing a single matching document
+   */
+  @Override
+  public Future<JsonObject> findOne(JsonObject query) {
+    return call(() -> matching(query).findFirst().map(JsonObject::copy).orElse(null));
+  }
+
+  /**
+   * An opaque tag of the collection contents, which changes whenever a document is written
+   * @return A future containing the change tag
+   */
+  @Override
+  public Future<String> changeTag() {
+    return Future.succeededFuture(epoch + "-" + changes.get());
+  }
+
+  // atomically update the first matching document, returns the previous and updated documents
+  synchronized JsonObject[] modify(JsonObject query, JsonObject update) {
+    JsonObject current = matching(query).findFirst().orElse(null);
+    if (current == null) return null;
+    JsonObject updated = Documents.update(current, update);
+    documents.put(key(current.getValue("_id")), updated);
+    written(current.getValue("_id"));
+    return new JsonObject[] { current, updated };
+  }
+
+  /**
+   * Find a single matching document and update it
+   * @param id the id used to match the document
+   * @param update used to describe how the documents will be updated
+   * @return A future containing the document before the update
+   */
+  @Override
+  public Future<JsonObject> updateById(String id, JsonObject update) {
+    return update(RepoImpl.idDocument(id), update);
+  }
+
+  /**
+   * Find a single matching document and update it
+   * @param query the query used to match the document
+   * @param update used to describe how the documents will be updated
+   * @return A future containing the document before the update
+   */
+  @Override
+  public Future<JsonObject> update(JsonObject query, JsonObject update) {
+    return call(() -> {
+      JsonObject[] modified = modify(query, update);
+      return modified == null ? null : modified[0].copy();
+    });
+  }
+
+  /**
+   * Find a single matching document and update it atomically
+   * @param query the query used to match the document
+   * @param update used to describe how the document will be updated
+   * @return A future containing the document after the update, null if no document matched
+   */
+  @Override
+  public Future<JsonObject> updateAndGet(JsonObject query, JsonObject update) {
+    return call(() -> {
+      JsonObject[] modified = modify(query, update);
+      return modified == null ? null : modified[1].copy();
+    });
+  }
+
+  /**
+   * Find a single matching document and replace it
+   * @param id the id used to match the document
+   * @param update used to describe how the documents will be replaced
+   * @return A future containing the document before the replace
+   */
+  @Override
+  public Future<JsonObject> replaceById(String id, JsonObject update) {
+    return replace(RepoImpl.idDocument(id), update);
+  }
+
+  /**
+   * Find a single matching document and replace it
+   * @param query the query used to match the document
+   * @param update used to describe how the documents will be replaced
+   * @return A future containing the document before the replace
+   */
+  @Override
+  public Future<JsonObject> replace(JsonObject query, JsonObject update) {
+    if (!Documents.isReplacement(update))
+      return Future.failedFuture(new IllegalArgumentException("a replacement can't contain update operators"));
+    return update(query, update);
+  }
+
+  /**
+   * Find a single matching document and delete it
+   * @param id the id used to match the document
+   * @return A future containing the deleted document
+   */
+  @Override
+  public Future<JsonObject> deleteById(String id) {
+    return delete(RepoImpl.idDocument(id));
+  }
+
+  /**
+   * Find a single matching document and delete it
+   * @param query the query used to match the document
+   * @return A future containing the deleted document
+   */
+  @Override
+  public Future<JsonObject> delete(JsonObject query) {
+    return call(() -> {
+      synchronized (this) {
+        JsonObject current = matching(query).findFirst().orElse(null);
+        if (current != null) {
+          documents.remove(key(current.getValue("_id")));
+          written(current.getValue("_id"));
+        }
+        return current;
+      }
+    });
+  }
+
+  /**
+   * Run a batch of mixed insert, update, replace and delete operations atomically
+   * An ordered batch stops at the first failed operation, an unordered batch runs the rest.
+   * Either way the batch fails after running with a {@link BulkWriteFailure} of the failed operations and written counts.
+   * @param operations The operations to run
+   * @param options Whether the operations are ordered
+   * @return A future containing the counts of inserted, matched, modified and deleted documents
+   */
+  @Override
+  public synchronized Future<MongoClientBulkWriteResult> bulk(List<BulkOperation> operations, BulkWriteOptions options) {
+    long[] counts = new long[4];
+    List<JsonObject> upserts = new ArrayList<>();
+    List<Object> ids = new ArrayList<>();
+    List<BulkWriteFailure.WriteError> errors = new ArrayList<>();
+    for (int i = 0; i < operations.size(); i++) {
+      try {
+        apply(operations.get(i), i, counts, upserts, ids);
+      } catch (RuntimeException e) {
+        errors.add(new BulkWriteFailure.WriteError(i
+          , e instanceof ServiceException failure ? failure.failureCode() : -1
+          , e.getMessage()));
+        if (options.isOrdered()) break;
+      }
+    }
+    ids.forEach(this::written);
+    MongoClientBulkWriteResult written = new MongoClientBulkWriteResult(counts[0], counts[1], counts[2], counts[3], upserts);
+    if (!errors.isEmpty()) return Future.failedFuture(BulkWriteFailure.of(errors, written));
+    return Future.succeededFuture(written);
+  }
+
+  // counts are inserted, matched, deleted and modified like the MongoClientBulkWriteResult constructor
+  // ids collects the written documents
+  void apply(BulkOperation operation, int index, long[] counts, List<JsonObject> upserts, List<Object> ids) {
+    JsonObject filter = operation.getFilter() == null ? new JsonObject() : operation.getFilter();
+    switch (operation.getType()) {
+      case INSERT: {
+        JsonObject document = operation.getDocument().copy();
+        if (document.getValue("_id") == null) document.put("_id", RepoImpl.newId());
+        String key = key(document.getValue("_id"));
+        if (documents.containsKey(key))
+          throw new ServiceException(BulkWriteFailure.DUPLICATE_KEY
+            , String.format("duplicate key _id %s at index %d", key, index));
+        documents.put(key, document);
+        ids.add(document.getValue("_id"));
+        counts[0]++;
+        break;
+      }
+      case UPDATE:
+      case REPLACE: {
+        List<JsonObject> matched = matching(filter).collect(Collectors.toList());
+        if (!operation.isMulti() && matched.size() > 1) matched = matched.subList(0, 1);
+        for (JsonObject current : matched) {
+          JsonObject updated = Documents.update(current, operation.getDocument());
+          counts[1]++;
+          if (!updated.equals(current)) counts[3]++;
+          documents.put(key(current.getValue("_id")), updated);
+          ids.add(current.getValue("_id"));
+        }
+        if (matched.isEmpty() && operation.isUpsert()) {
+          JsonObject inserted = Documents.upsert(filter, operation.getDocument());
+          if (inserted.getValue("_id") == null) inserted.put("_id", RepoImpl.newId());
+          documents.put(key(inserted.getValue("_id")), inserted);
+          ids.add(inserted.getValue("_id"));
+          upserts.add(new JsonObject().put("index", index).put("_id", inserted.getValue("_id")));
+        }
+        break;
+      }
+      case DELETE: {
+        List<JsonObject> matched = matching(filter).collect(Collectors.toList());
+        if (!operation.isMulti() && matched.size() > 1) matched = matched.subList(0, 1);
+        matched.forEach(it -> {
+          documents.remove(key(it.getValue("_id")));
+          ids.add(it.getValue("_id"));
+        });
+        counts[2] += matched.size();
+        break;
+      }
+      default:
+        throw new IllegalArgumentException(String.format("unsupported bulk operation %s", operation.getType()));
+    }
+  }
+
+  /**
+   * Delete all documents in the collection
+   * @return A future containing the number of deleted documents
+   */
+  @Override
+  public synchronized Future<Long> deleteAll() {
+    long count = documents.size();
+    documents.clear();
+    writtenAll();
+    return Future.succeededFuture(count);
+  }
+
+  /**
+   * Drop the collection
+   * @return {@code Future} of the asynchronous result
+   */
+  @Override
+  public Future<Void> drop() {
+    return deleteAll().mapEmpty();
+  }
+
+  /**
+   * The number of documents held
+   * @return The number of documents
+   */
+  public int size() {
+    return documents.size();
+  }
+
+}
@@ -0,0 +1,239 @@
+package io.sorted.app.service;
+
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceException;
+import io.vertx.serviceproxy.ServiceProxyBuilder;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Packs the service calls a caller makes in the same event loop tick into one event bus message
+ * The generated proxy sends each call to a local consumer of the caller, which queues the calls of the tick
+ * and sends them together to the batch address of the service. There each call is dispatched to the service handler
+ * like a single request and its reply is sent back to the reply consumer of the caller as soon as it completes,
+ * so a slow call doesn't hold back the replies of the fast calls of its batch.
+ * The batch itself is answered once every call completed.
+ * A tick with a single call sends it to the service address as is.
+ * Failures keep their type: a service failure is a ServiceException with its code, message and debug info,
+ * a failed batch, such as a timeout, fails every call of the batch still waiting with the same ReplyException.
+ */
+public class Multiplexer {
+  public static final String BATCH_SUFFIX = ".batch";
+  static final String HEADERS_FIELD = "headers";
+  static final String BODY_FIELD = "body";
+  static final String RESULT_FIELD = "result";
+  static final String FAILURE_FIELD = "failure";
+  static final String MESSAGE_FIELD = "message";
+  static final String TYPE_FIELD = "type";
+  static final String DEBUG_FIELD = "debug";
+  static final String ID_FIELD = "id";
+  static final String REPLY_TO_HEADER = "reply_to";
+
+  private final Vertx vertx;
+  private final String address;
+  private final MessageConsumer<Object> consumer;
+  // receives the reply of each call of a batch, from whichever node served it
+  private final MessageConsumer<JsonObject> replies;
+  // the batched calls waiting for their reply, by id
+  private final Map<Long, Message<Object>> waiting = new HashMap<>();
+  private List<Message<Object>> queued = new ArrayList<>();
+  private long nextId;
+
+  Multiplexer(Vertx vertx, String address) {
+    this.vertx = vertx;
+    this.address = address;
+    this.consumer = vertx.eventBus().localConsumer(address + ".mux." + UUID.randomUUID(), this::queue);
+    this.replies = vertx.eventBus().consumer(consumer.address() + ".replies", this::replied);
+  }
+
+  /**
+   * Create a proxy whose calls are multiplexed
+   * The local consumer runs on the current context, create the proxy on the context of the caller
+   * @param vertx The Vert.x instance
+   * @param aClass The service class (interface)
+   * @return The proxy
+   * @param <T> the type of the service interface
+   */
+  static <T> T proxy(Vertx vertx, Class<T> aClass) {
+    Multiplexer multiplexer = new Multiplexer(vertx, aClass.getName());
+    return new ServiceProxyBuilder(vertx)
+      .setAddress(multiplexer.consumer.address())
+      .setOptions(ServiceCodec.options())
+      .build(aClass);
+  }
+
+  void queue(Message<Object> call) {
+    // the calls of this tick were all delivered by the time the flush runs
+    if (queued.isEmpty()) vertx.runOnContext(v -> flush());
+    queued.add(call);
+  }
+
+  void flush() {
+    List<Message<Object>> calls = queued;
+    queued = new ArrayList<>();
+    if (calls.size() == 1) {
+      Message<Object> call = calls.get(0);
+      vertx.eventBus().request(address, call.body(), new DeliveryOptions(ServiceCodec.options()).setHeaders(call.headers()))
+        .onSuccess(reply -> call.reply(reply.body(), ServiceCodec.codec(reply.body(), new DeliveryOptions())))
+        .onFailure(t -> call.reply(t));
+      return;
+    }
+    JsonArray batch = new JsonArray(new ArrayList<>(calls.size()));
+    List<Long> ids = new ArrayList<>(calls.size());
+    for (Message<Object> call : calls) {
+      JsonObject headers = new JsonObject();
+      call.headers().forEach(header -> headers.put(header.getKey(), header.getValue()));
+      long id = nextId++;
+      ids.add(id);
+      waiting.put(id, call);
+      batch.add(new JsonObject().put(ID_FIELD, id).put(HEADERS_FIELD, headers).put(BODY_FIELD, call.body()));
+    }
+    vertx.eventBus().request(address + BATCH_SUFFIX, batch
+        , ServiceCodec.options().addHeader(REPLY_TO_HEADER, replies.address()))
+      // the calls answered themselves, only a failed batch leaves calls to answer
+      .onFailure(t -> ids.forEach(id -> {
+        Message<Object> call = waiting.remove(id);
+        if (call != null) call.reply(t);
+      }));
+  }
+
+  void replied(Message<JsonObject> reply) {
+    Message<Object> call = waiting.remove(reply.body().getLong(ID_FIELD));
+    // a late reply of a batch which already failed
+    if (call != null) answer(call, reply.body());
+  }
+
+  static void answer(Message<Object> call, JsonObject reply) {
+    if (reply.containsKey(FAILURE_FIELD)) {
+      call.reply(new ServiceException(reply.getInteger(FAILURE_FIELD), reply.getString(MESSAGE_FIELD)
+        , reply.getJsonObject(DEBUG_FIELD, new JsonObject())));
+    } else {
+      Object result = number(reply.getValue(RESULT_FIELD), reply.getString(TYPE_FIELD));
+      call.reply(result, ServiceCodec.codec(result, new DeliveryOptions()));
+    }
+  }
+
+  // numbers encoded between nodes may come back narrower, the proxy expects the type the service replied with
+  static Object number(Object result, String type) {
+    if (!(result instanceof Number) || type == null) return result;
+    Number number = (Number) result;
+    switch (type) {
+      case "Long":
+        return number.longValue();
+      case "Integer":
+        return number.intValue();
+      case "Double":
+        return number.doubleValue();
+      case "Float":
+        return number.floatValue();
+      default:
+        return result;
+    }
+  }
+
+  /**
+   * Serve the batches of a service, dispatching each call to the service handler
+   * Each reply is sent to the reply address of the batch as soon as its call completes,
+   * the batch is answered once all of them were sent
+   * @param vertx The Vert.x instance
+   * @param address The service address
+   * @param handler The handler of single requests
+   * @return The batch consumer
+   */
+  static MessageConsumer<JsonArray> serve(Vertx vertx, String address, Handler<Message<JsonObject>> handler) {
+    return vertx.eventBus().consumer(address + BATCH_SUFFIX, batch -> {
+      JsonArray calls = batch.body();
+      String replyTo = batch.headers().get(REPLY_TO_HEADER);
+      int[] pending = { calls.size() };
+      for (int i = 0; i < calls.size(); i++) {
+        JsonObject call = calls.getJsonObject(i);
+        Object id = call.getValue(ID_FIELD);
+        handler.handle(new Call(address, call, reply -> {
+          vertx.eventBus().send(replyTo, reply.put(ID_FIELD, id), ServiceCodec.options());
+          if (--pending[0] == 0) batch.reply(null);
+        }));
+      }
+    });
+  }
+
+  /**
+   * A call of a batch, answered through the reply handler instead of the event bus
+   */
+  static class Call implements Message<JsonObject> {
+    private final String address;
+    private final MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+    private final JsonObject body;
+    private final Handler<JsonObject> replies;
+    private boolean replied;
+
+    Call(String address, JsonObject call, Handler<JsonObject> replies) {
+      this.address = address;
+      for (Map.Entry<String, Object> header : call.getJsonObject(HEADERS_FIELD, new JsonObject())) {
+        headers.add(header.getKey(), String.valueOf(header.getValue()));
+      }
+      this.body = call.getJsonObject(BODY_FIELD);
+      this.replies = replies;
+    }
+
+    @Override
+    public String address() {
+      return address;
+    }
+
+    @Override
+    public MultiMap headers() {
+      return headers;
+    }
+
+    @Override
+    public JsonObject body() {
+      return body;
+    }
+
+    @Override
+    public String replyAddress() {
+      return null;
+    }
+
+    @Override
+    public boolean isSend() {
+      return true;
+    }
+
+    @Override
+    public void reply(Object message, DeliveryOptions options) {
+      if (replied) return;
+      replied = true;
+      if (message instanceof ReplyException) {
+        ReplyException failure = (ReplyException) message;
+        JsonObject reply = new JsonObject().put(FAILURE_FIELD, failure.failureCode()).put(MESSAGE_FIELD, failure.getMessage());
+        if (failure instanceof ServiceException e) reply.put(DEBUG_FIELD, e.getDebugInfo());
+        replies.handle(reply);
+      } else {
+        JsonObject reply = new JsonObject().put(RESULT_FIELD, message);
+        if (message instanceof Number) reply.put(TYPE_FIELD, message.getClass().getSimpleName());
+        replies.handle(reply);
+      }
+    }
+
+    @Override
+    public <R> Future<Message<R>> replyAndRequest(Object message, DeliveryOptions options) {
+      reply(message, options);
+      return Future.failedFuture(new ReplyException(ReplyFailure.NO_HANDLERS, "a batched call can't be replied to"));
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the rank indexes of every clustered node consistent with the writes made on the others
+ * Each node only sees its own writes, so the written ids are collected for a short window and published
+ * in one message on a per-collection address. Receivers fetch the documents again to move them to their rank,
+ * see {@link RankTracker#written(Object)}, and rebuild their index after a write of unknown documents.
+ * Configured by the rerank object of the collection config:
+ * broadcast_window_ms (default 5) the time to collect ids before publishing
+ */
+public class RankBroadcast {
+  public static final String WINDOW_PROP = "broadcast_window_ms";
+  public static final long DEFAULT_WINDOW_MS = 5;
+  // past this many ids it is cheaper for the other nodes to rebuild
+  public static final int MAX_IDS = 1000;
+  static final String SOURCE = "source";
+  static final String IDS = "ids";
+  static final String ALL = "all";
+
+  /**
+   * The event bus address where the writes of a collection are published to the rank indexes
+   * @param collectionName The collection name
+   * @return The address
+   */
+  public static String address(String collectionName) {
+    return String.format("%s.%s.ranks", Repo.class.getName(), collectionName);
+  }
+
+  private final Vertx vertx;
+  private final String address;
+  private final long window;
+  private final String source = UUID.randomUUID().toString();
+  private final MessageConsumer<JsonObject> consumer;
+  private final LongAdder published;
+  private final LongAdder received;
+  private Set<Object> pending = new LinkedHashSet<>();
+  private boolean all;
+  private long timer = -1;
+
+  /**
+   * Broadcast the writes of a collection between the rank trackers of the nodes
+   * @param vertx The Vert.x instance
+   * @param collectionName The collection name
+   * @param config The rerank config
+   * @param tracker The rank tracker of this node
+   */
+  public RankBroadcast(Vertx vertx, String collectionName, JsonObject config, RankTracker tracker) {
+    this.vertx = vertx;
+    this.address = address(collectionName);
+    this.window = Math.max(1, config.getLong(WINDOW_PROP, DEFAULT_WINDOW_MS));
+    Metrics metrics = Metrics.of(vertx);
+    this.published = metrics.counter(String.format("repo.%s.ranks.writes_published", collectionName));
+    this.received = metrics.counter(String.format("repo.%s.ranks.writes_received", collectionName));
+    this.consumer = vertx.eventBus().consumer(address, message -> {
+      JsonObject body = message.body();
+      // this node already moved its own writes
+      if (source.equals(body.getString(SOURCE))) return;
+      received.increment();
+      if (body.getBoolean(ALL, false)) tracker.build();
+      else body.getJsonArray(IDS, new JsonArray()).forEach(tracker::written);
+    });
+  }
+
+  /**
+   * Queue the id of a written document to be moved by the other nodes
+   * @param id The id of the written document
+   */
+  public synchronized void written(Object id) {
+    if (all) return;
+    pending.add(id);
+    if (pending.size() > MAX_IDS) writtenAll();
+    else schedule();
+  }
+
+  /**
+   * Queue rebuilding the indexes of the other nodes
+   */
+  public synchronized void writtenAll() {
+    all = true;
+    pending.clear();
+    schedule();
+  }
+
+  private void schedule() {
+    if (timer == -1) timer = vertx.setTimer(window, id -> flush());
+  }
+
+  /**
+   * Publish the queued writes now
+   */
+  public void flush() {
+    JsonObject body = new JsonObject().put(SOURCE, source);
+    synchronized (this) {
+      if (timer != -1) vertx.cancelTimer(timer);
+      timer = -1;
+      if (!all && pending.isEmpty()) return;
+      if (all) body.put(ALL, true);
+      else body.put(IDS, new JsonArray(new ArrayList<>(pending)));
+      pending = new LinkedHashSet<>();
+      all = false;
+    }
+    published.increment();
+    vertx.eventBus().publish(address, body);
+  }
+
+  /**
+   * Publish any queued writes and stop receiving them
+   * @return A future completed when the consumer is unregistered
+   */
+  public Future<Void> close() {
+    flush();
+    return consumer.unregister();
+  }
+}
@@ -0,0 +1,268 @@
+package io.sorted.app.service;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process order statistic index of documents by a rank key, ties broken by _id
+ * Keys are compared in BSON order, such as numbers or the strings of {@link RankKeys}.
+ * Lower keys come first, position 1 is the top. Documents without a key aren't indexed.
+ * Backed by a treap whose nodes know the size of their subtree, so finding the position of a document,
+ * the document at a position and a range of k positions all take O(log n) time plus O(k) for the range.
+ * Safe for concurrent use, reads share a lock and writes are exclusive.
+ */
+public class RankIndex {
+  /**
+   * A document in the index
+   * @param id The document _id
+   * @param key The rank key
+   * @param position The 1-based position of the document in rank order
+   */
+  public record Entry(String id, Object key, long position) {
+    /**
+     * @return The entry as a JSON object with _id, key and position
+     */
+    public JsonObject toJson() {
+      return new JsonObject().put("_id", id).put("key", key).put("position", position);
+    }
+  }
+
+  static final class Node {
+    final Object key;
+    final String id;
+    final int priority = ThreadLocalRandom.current().nextInt();
+    int size = 1;
+    Node left;
+    Node right;
+
+    Node(Object key, String id) {
+      this.key = key;
+      this.id = id;
+    }
+  }
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final Map<String, Node> nodes = new HashMap<>();
+  private Node root;
+
+  static int size(Node node) {
+    return node == null ? 0 : node.size;
+  }
+
+  static Node update(Node node) {
+    node.size = 1 + size(node.left) + size(node.right);
+    return node;
+  }
+
+  static int compare(Object key, String id, Node node) {
+    int compared = Documents.compare(key, node.key);
+    return compared != 0 ? compared : id.compareTo(node.id);
+  }
+
+  // nodes before the key on the left, the rest on the right
+  static Node[] split(Node node, Object key, String id) {
+    if (node == null) return new Node[2];
+    if (compare(key, id, node) > 0) {
+      Node[] split = split(node.right, key, id);
+      node.right = split[0];
+      split[0] = update(node);
+      return split;
+    }
+    Node[] split = split(node.left, key, id);
+    node.left = split[1];
+    split[1] = update(node);
+    return split;
+  }
+
+  // every node of left comes before every node of right
+  static Node merge(Node left, Node right) {
+    if (left == null) return right;
+    if (right == null) return left;
+    if (left.priority > right.priority) {
+      left.right = merge(left.right, right);
+      return update(left);
+    }
+    right.left = merge(left, right.left);
+    return update(right);
+  }
+
+  static Node remove(Node node, Object key, String id) {
+    if (node == null) return null;
+    int compared = compare(key, id, node);
+    if (compared == 0) return merge(node.left, node.right);
+    if (compared < 0) node.left = remove(node.left, key, id);
+    else node.right = remove(node.right, key, id);
+    return update(node);
+  }
+
+  /**
+   * Index a document, moving it if its key changed
+   * @param id The document _id
+   * @param key The rank key, null to remove the document from the index
+   */
+  public void put(String id, Object key) {
+    lock.writeLock().lock();
+    try {
+      putUnlocked(id, key);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  void putUnlocked(String id, Object key) {
+    Node existing = nodes.get(id);
+    if (existing != null) {
+      if (key != null && Documents.compare(existing.key, key) == 0) return;
+      root = remove(root, existing.key, id);
+      nodes.remove(id);
+    }
+    if (key == null) return;
+    Node node = new Node(key, id);
+    Node[] split = split(root, key, id);
+    root = merge(merge(split[0], node), split[1]);
+    nodes.put(id, node);
+  }
+
+  /**
+   * Index a document only if its key is still the expected one
+   * @param id The document _id
+   * @param expected The key the document must have
+   * @param key The new rank key
+   * @return True if the document was moved
+   */
+  public boolean putIf(String id, Object expected, Object key) {
+    lock.writeLock().lock();
+    try {
+      Node existing = nodes.get(id);
+      if (existing == null || Documents.compare(existing.key, expected) != 0) return false;
+      putUnlocked(id, key);
+      return true;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove a document from the index
+   * @param id The document _id
+   */
+  public void remove(String id) {
+    put(id, null);
+  }
+
+  /**
+   * Replace the contents of the index with another index, which is discarded
+   * @param built The new contents
+   * @param keep Ids whose current entries are newer than the new contents and are carried over
+   */
+  public void replace(RankIndex built, Set<String> keep) {
+    lock.writeLock().lock();
+    try {
+      for (String id : keep) {
+        Node current = nodes.get(id);
+        built.putUnlocked(id, current == null ? null : current.key);
+      }
+      root = built.root;
+      nodes.clear();
+      nodes.putAll(built.nodes);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * The number of indexed documents
+   * @return The size of the index
+   */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return nodes.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Find the position of a document
+   * @param id The document _id
+   * @return The entry of the document, null if it isn't indexed
+   */
+  public Entry position(String id) {
+    lock.readLock().lock();
+    try {
+      Node target = nodes.get(id);
+      if (target == null) return null;
+      long before = 0;
+      Node node = root;
+      while (node != null) {
+        int compared = compare(target.key, id, node);
+        if (compared == 0) return new Entry(id, target.key, before + size(node.left) + 1);
+        if (compared < 0) {
+          node = node.left;
+        } else {
+          before += size(node.left) + 1;
+          node = node.right;
+        }
+      }
+      return null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * The document at a position
+   * @param position The position, starting at 1
+   * @return The entry, null if the position is outside the index
+   */
+  public Entry at(long position) {
+    List<Entry> entries = range(position, position);
+    return entries.isEmpty() ? null : entries.get(0);
+  }
+
+  /**
+   * The first documents in rank order
+   * @param limit The maximum number of documents
+   * @return The entries of the top documents
+   */
+  public List<Entry> top(int limit) {
+    return range(1, limit);
+  }
+
+  /**
+   * The documents between two positions
+   * @param from The first position, starting at 1
+   * @param to The last position, inclusive
+   * @return The entries in rank order, empty if the range is past the end of the index
+   */
+  public List<Entry> range(long from, long to) {
+    lock.readLock().lock();
+    try {
+      List<Entry> entries = new ArrayList<>();
+      long first = Math.max(1, from);
+      long last = Math.min(to, size(root));
+      if (first <= last) collect(root, 0, first, last, entries);
+      return entries;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  // in-order walk of only the subtrees which overlap the positions, offset is the number of nodes before the subtree
+  static void collect(Node node, long offset, long from, long to, List<Entry> entries) {
+    if (node == null) return;
+    long position = offset + size(node.left) + 1;
+    if (from < position) collect(node.left, offset, from, to, entries);
+    if (from <= position && position <= to) entries.add(new Entry(node.id, node.key, position));
+    if (to > position) collect(node.right, position, from, to, entries);
+  }
+}
@@ -0,0 +1,74 @@
+package io.sorted.app.service;
+
+/**
+ * Fractional rank keys, strings of base 36 digits which sort lexicographically
+ * A key can always be generated between two others, so moving a document only rewrites that document.
+ * Dense integer ranks map to fixed width keys, so documents which were never moved need no key of their own.
+ * Generated keys never end with 0, which keeps room below every key.
+ */
+public final class RankKeys {
+  static final String DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz";
+  static final int BASE = DIGITS.length();
+  /**
+   * The width of the keys of integer ranks, enough for ranks up to 36^8
+   */
+  public static final int WIDTH = 8;
+
+  private RankKeys() { }
+
+  /**
+   * The key of an integer rank
+   * @param rank The rank, at least 0
+   * @return The fixed width key
+   */
+  public static String of(long rank) {
+    if (rank < 0) throw new IllegalArgumentException("rank can't be negative");
+    StringBuilder key = new StringBuilder(Long.toString(rank, BASE));
+    while (key.length() < WIDTH) key.insert(0, '0');
+    return key.toString();
+  }
+
+  /**
+   * The integer rank of a key of an integer rank
+   * @param key The fixed width key, see {@link #of}
+   * @return The rank
+   * @throws NumberFormatException if the key isn't made of base 36 digits
+   */
+  public static long rank(String key) {
+    return Long.parseLong(key, BASE);
+  }
+
+  static int digit(String key, int i) {
+    return DIGITS.indexOf(key.charAt(i));
+  }
+
+  /**
+   * Generate a key between two keys
+   * @param lower The key to sort after, null for no lower bound
+   * @param upper The key to sort before, null for no upper bound
+   * @return A key greater than lower and less than upper
+   * @throws IllegalArgumentException if lower isn't less than upper, or upper is all zeros and nothing is less
+   */
+  public static String between(String lower, String upper) {
+    String low = lower == null ? "" : lower;
+    if (upper != null && low.compareTo(upper) >= 0)
+      throw new IllegalArgumentException(String.format("%s must be less than %s", lower, upper));
+    StringBuilder key = new StringBuilder();
+    String high = upper;
+    for (int i = 0; ; i++) {
+      int lo = i < low.length() ? digit(low, i) : 0;
+      if (high != null && i >= high.length()) throw new IllegalArgumentException(String.format("no key is less than %s", upper));
+      int hi = high == null ? BASE : digit(high, i);
+      if (lo == hi) {
+        // shared prefix
+        key.append(DIGITS.charAt(lo));
+      } else if (hi - lo > 1) {
+        return key.append(DIGITS.charAt((lo + hi) / 2)).toString();
+      } else {
+        // no digit fits between, keep the lower digit and anything after it is above lower and below upper
+        key.append(DIGITS.charAt(lo));
+        high = null;
+      }
+    }
+  }
+}
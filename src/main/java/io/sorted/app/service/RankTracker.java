@@ -0,0 +1,176 @@
+package io.sorted.app.service;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Keeps a {@link RankIndex} up to date with the writes of a repo
+ * The index is built by streaming the rank key of every document, then each written document is moved to its new rank.
+ * Writes which return the stored document move it directly, the others are fetched again,
+ * with the ids written while a fetch is in flight fetched together by the next one.
+ * When the same document is written again before its fetch completes only the latest write is applied,
+ * so the index never goes back to an older rank.
+ */
+public class RankTracker {
+  private final StreamingRepo repo;
+  private final JsonObject fields;
+  private final Function<JsonObject, Object> key;
+  private final Function<List<String>, Future<List<JsonObject>>> fetch;
+  private final RankIndex index = new RankIndex();
+  private final AtomicLong writes = new AtomicLong();
+  private final Map<String, Long> latest = new ConcurrentHashMap<>();
+  // the ids to fetch with their write sequence, guarded by this
+  private Map<String, Long> queued = new LinkedHashMap<>();
+  private boolean fetching;
+  private volatile Set<String> written;
+  private Future<Void> building;
+  private boolean rebuild;
+
+  /**
+   * Track the ranks of a repo
+   * @param repo The repo whose documents are ranked
+   * @param fields The projection of the fields the rank key is computed from
+   * @param key Computes the rank key of a document, null if the document isn't ranked
+   * @param fetch Reads documents from the datasource in one query, bypassing any cache,
+   *              in the order of the ids with null for a missing one
+   */
+  public RankTracker(StreamingRepo repo
+    , JsonObject fields
+    , Function<JsonObject, Object> key
+    , Function<List<String>, Future<List<JsonObject>>> fetch) {
+    this.repo = repo;
+    this.fields = fields;
+    this.key = key;
+    this.fetch = fetch;
+  }
+
+  /**
+   * The tracked index
+   * @return The rank index
+   */
+  public RankIndex index() {
+    return index;
+  }
+
+  Object key(JsonObject document) {
+    return document == null ? null : key.apply(document);
+  }
+
+  /**
+   * Rebuild the index from every ranked document, while it builds the current index keeps answering
+   * A rebuild requested while building runs again once the current build completes
+   * @return A future completed when the index is built
+   */
+  public synchronized Future<Void> build() {
+    if (building != null) {
+      rebuild = true;
+      return building;
+    }
+    Set<String> writtenWhileBuilding = ConcurrentHashMap.newKeySet();
+    written = writtenWhileBuilding;
+    RankIndex built = new RankIndex();
+    Promise<Void> promise = Promise.promise();
+    Future<Void> future = promise.future();
+    building = future;
+    future.onComplete(it -> {
+      synchronized (this) {
+        written = null;
+        building = null;
+        if (rebuild) {
+          rebuild = false;
+          build();
+        }
+      }
+    });
+    try {
+      repo.stream(new JsonObject(), new FindOptions().setFields(fields))
+        .exceptionHandler(promise::tryFail)
+        .endHandler(v -> {
+          // documents written during the build already have a newer rank in the current index
+          index.replace(built, writtenWhileBuilding);
+          promise.tryComplete();
+        })
+        .handler(document -> built.put(String.valueOf(document.getValue("_id")), key(document)));
+    } catch (RuntimeException e) {
+      promise.tryFail(e);
+    }
+    return future;
+  }
+
+  /**
+   * Move a written document to its current rank, fetched from the datasource
+   * @param id The id of the written document
+   */
+  public void written(Object id) {
+    String documentId = String.valueOf(id);
+    long sequence = sequence(documentId);
+    synchronized (this) {
+      queued.put(documentId, sequence);
+      if (fetching) return;
+      fetching = true;
+    }
+    fetchQueued();
+  }
+
+  /**
+   * Move a written document to its rank
+   * @param id The id of the written document
+   * @param document The document as stored by the write, null if it was deleted
+   */
+  public void written(Object id, JsonObject document) {
+    String documentId = String.valueOf(id);
+    long sequence = sequence(documentId);
+    index.put(documentId, key(document));
+    // any fetch of an earlier write is older than this document
+    latest.remove(documentId, sequence);
+  }
+
+  long sequence(String documentId) {
+    long sequence = writes.incrementAndGet();
+    latest.put(documentId, sequence);
+    Set<String> writtenWhileBuilding = written;
+    if (writtenWhileBuilding != null) writtenWhileBuilding.add(documentId);
+    return sequence;
+  }
+
+  // fetch every queued id in one read, then the ids queued meanwhile
+  void fetchQueued() {
+    Map<String, Long> batch;
+    synchronized (this) {
+      if (queued.isEmpty()) {
+        fetching = false;
+        return;
+      }
+      batch = queued;
+      queued = new LinkedHashMap<>();
+    }
+    List<String> ids = new ArrayList<>(batch.keySet());
+    Future<List<JsonObject>> fetched;
+    try {
+      fetched = fetch.apply(ids);
+    } catch (RuntimeException e) {
+      fetched = Future.failedFuture(e);
+    }
+    fetched.onComplete(it -> {
+      for (int i = 0; i < ids.size(); i++) {
+        String documentId = ids.get(i);
+        // a later write of the same document has its own fetch or document, which has the newer rank
+        if (!latest.remove(documentId, batch.get(documentId))) continue;
+        // on failure the previous rank stays until the document is written again or the index is rebuilt
+        if (it.succeeded()) index.put(documentId, key(it.result().get(i)));
+      }
+      fetchQueued();
+    });
+  }
+}
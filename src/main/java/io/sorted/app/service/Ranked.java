@@ -0,0 +1,20 @@
+package io.sorted.app.service;
+
+import io.vertx.core.Future;
+
+/**
+ * A repo which keeps an in-process rank index of its documents, see {@link RankIndex}
+ */
+public interface Ranked {
+  /**
+   * The rank index of the repo
+   * @return The rank index
+   */
+  RankIndex ranks();
+
+  /**
+   * Build the rank index from every document of the collection
+   * @return A future completed when the index is built
+   */
+  Future<Void> buildRanks();
+}
@@ -3,6 +3,10 @@ package io.sorted.app.service;
 import io.vertx.codegen.annotations.VertxGen;
 import io.vertx.core.Future;
 import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
 
 import java.util.List;
 
@@ -32,6 +36,13 @@ public interface Repo {
    */
   Future<JsonObject> get(String id);
 
+  /**
+   * Find the documents of several ids in one query
+   * @param ids The ids to retrieve
+   * @return A future containing the documents in the order of the ids, null for an id without a document
+   */
+  Future<List<JsonObject>> getMany(List<String> ids);
+
   /**
    * list all documents
    * @return A future containing a list of all documents
@@ -45,6 +56,27 @@ public interface Repo {
    */
   Future<List<JsonObject>> find(JsonObject query);
 
+  /**
+   * Find matching documents using a query object and find options
+   * @param query query used to match documents
+   * @param options options to sort, limit and project the documents
+   * @return A future containing a list of all matching documents
+   */
+  Future<List<JsonObject>> findWithOptions(JsonObject query, FindOptions options);
+
+  /**
+   * Count matching documents without transferring them
+   * @param query query used to match documents
+   * @return A future containing the number of matching documents
+   */
+  Future<Long> count(JsonObject query);
+
+  /**
+   * Estimate the number of documents in the collection from its metadata, without scanning
+   * @return A future containing the estimated number of documents
+   */
+  Future<Long> estimatedCount();
+
   /**
    * Find a single matching document
    * @param query the query used to match the document
@@ -52,6 +84,13 @@ public interface Repo {
    */
   Future<JsonObject> findOne(JsonObject query);
 
+  /**
+   * An opaque tag of the collection contents, which changes whenever a document is written through the repo
+   * Reading it doesn't touch the datasource
+   * @return A future containing the change tag, null if the repo can't see every write of the collection
+   */
+  Future<String> changeTag();
+
   /**
    * Find a single matching document in the specified collection and update it.
    * @param id the id used to match the document
@@ -68,6 +107,14 @@ public interface Repo {
    */
   Future<JsonObject> update(JsonObject query, JsonObject update);
 
+  /**
+   * Find a single matching document and update it atomically
+   * @param query the query used to match the document
+   * @param update used to describe how the document will be updated
+   * @return A future containing the document after the update, null if no document matched
+   */
+  Future<JsonObject> updateAndGet(JsonObject query, JsonObject update);
+
   /**
    * Find a single matching document in the specified collection and replace it.
    * @param id the id used to match the document
@@ -98,6 +145,14 @@ public interface Repo {
    */
   Future<JsonObject> delete(JsonObject query);
 
+  /**
+   * Run a batch of mixed insert, update, replace and delete operations in a single round trip
+   * @param operations the operations to run
+   * @param options options such as running the operations in order
+   * @return A future containing the counts of the written documents
+   */
+  Future<MongoClientBulkWriteResult> bulk(List<BulkOperation> operations, BulkWriteOptions options);
+
   /**
    * Delete all documents in the collection
    * @return The number of removed documents
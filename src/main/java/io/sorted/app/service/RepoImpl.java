@@ -1,16 +1,42 @@
 package io.sorted.app.service;
 
+import com.mongodb.MongoBulkWriteException;
+import io.sorted.app.conf.Configurable;
 import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.mongo.AggregateOptions;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkOperationType;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.FindOptions;
 import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
 import io.vertx.ext.mongo.MongoClientDeleteResult;
+import io.vertx.ext.mongo.UpdateOptions;
+import org.bson.types.ObjectId;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * Implementation of standard database operations
  */
-public abstract class RepoImpl implements Repo, Collectable {
+public abstract class RepoImpl implements StreamingRepo, Collectable, HealthChecked {
+  public static final int DEFAULT_BATCH_SIZE = 100;
+  public static final String AGGREGATE_PROP = "aggregate";
+  public static final String ALLOW_DISK_USE_PROP = "allow_disk_use";
+  public static final String BATCH_SIZE_PROP = "batch_size";
+  public static final String MAX_TIME_PROP = "max_time_ms";
+  public static final String SINGLE_WRITER_PROP = "single_writer";
+
   /**
    * Create a query object for the id
    * @param id The id value
@@ -20,12 +46,76 @@ public abstract class RepoImpl implements Repo, Collectable {
     return new JsonObject().put("_id", id);
   }
 
+  /**
+   * Generate a new document id, the same way the Mongo client does when saving a document without one
+   * @return The id value
+   */
+  public static String newId() {
+    return new ObjectId().toHexString();
+  }
+
+  protected final Vertx vertx;
   private final MongoClient mongo;
   private final String collectionName;
+  protected final JsonObject config;
+  private final SaveBatcher saveBatcher;
+  private final DocumentCache cache;
+  private final CacheInvalidator invalidator;
+  private final SingleFlight flights;
+  // built on first use rather than by the constructor, so indexes() may use the fields of a subclass
+  private volatile IndexManager indexManager;
+  private final AggregateOptions aggregateOptions;
+  private final CountCache counts;
+  private final HedgedReads hedging;
+  private final Deadline deadline;
+  // distinguishes the counters of different processes, which all start from 0
+  private final String epoch = newId();
+  private final AtomicLong changes = new AtomicLong();
 
-  public RepoImpl(MongoClient mongo, String collectionName) {
+  /**
+   * Create a repo for a collection
+   * @param vertx The Vert.x instance
+   * @param mongo The Mongo client
+   * @param collectionName The collection name
+   * @param config The collection config, see {@link SaveBatcher}, {@link DocumentCache}, {@link CacheInvalidator},
+   *               {@link SingleFlight}, {@link IndexManager}, {@link CountCache}, {@link HedgedReads} and {@link Deadline},
+   *               the aggregate object for {@link #aggregate} and single_writer for {@link #changeTag()}
+   */
+  public RepoImpl(Vertx vertx, MongoClient mongo, String collectionName, JsonObject config) {
+    this.vertx = vertx;
     this.mongo = mongo;
     this.collectionName = collectionName;
+    this.config = config;
+    JsonObject saveBatch = config.getJsonObject(SaveBatcher.SAVE_BATCH_PROP, new JsonObject());
+    this.saveBatcher = saveBatch.getBoolean(Configurable.ENABLED_PROP, false)
+      ? new SaveBatcher(vertx, mongo, collectionName, saveBatch)
+      : null;
+    JsonObject cacheConfig = config.getJsonObject(DocumentCache.CACHE_PROP, new JsonObject());
+    this.cache = cacheConfig.getBoolean(Configurable.ENABLED_PROP, false)
+      ? new DocumentCache(vertx, collectionName, cacheConfig)
+      : null;
+    this.invalidator = cache != null && cacheConfig.getBoolean(CacheInvalidator.BROADCAST_PROP, true)
+      ? new CacheInvalidator(vertx, collectionName, cacheConfig, cache, changes::incrementAndGet)
+      : null;
+    JsonObject singleFlight = config.getJsonObject(SingleFlight.SINGLE_FLIGHT_PROP, new JsonObject());
+    this.flights = singleFlight.getBoolean(Configurable.ENABLED_PROP, false)
+      ? new SingleFlight(vertx, collectionName, singleFlight)
+      : null;
+    JsonObject countCache = config.getJsonObject(CountCache.COUNT_CACHE_PROP, new JsonObject());
+    this.counts = countCache.getBoolean(Configurable.ENABLED_PROP, false)
+      ? new CountCache(vertx, collectionName, countCache, changes::get)
+      : null;
+    JsonObject aggregate = config.getJsonObject(AGGREGATE_PROP, new JsonObject());
+    this.aggregateOptions = new AggregateOptions()
+      .setAllowDiskUse(aggregate.getBoolean(ALLOW_DISK_USE_PROP, false))
+      .setBatchSize(aggregate.getInteger(BATCH_SIZE_PROP, batchSize()))
+      .setMaxTime(aggregate.getLong(MAX_TIME_PROP, 30000L));
+    JsonObject hedge = config.getJsonObject(HedgedReads.HEDGE_PROP, new JsonObject());
+    this.hedging = hedge.getBoolean(Configurable.ENABLED_PROP, false)
+      ? new HedgedReads(vertx, collectionName, hedge)
+      : null;
+    long deadlineMs = config.getLong(Deadline.DEADLINE_PROP, 0L);
+    this.deadline = deadlineMs > 0 ? new Deadline(vertx, collectionName, deadlineMs) : null;
   }
 
   /**
@@ -36,24 +126,183 @@ public abstract class RepoImpl implements Repo, Collectable {
     return collectionName;
   }
 
+  /**
+   * Create the declared indexes which don't exist yet
+   * This runs in the background of startup, queries before it completes may still scan
+   * @return A future completed when every missing index was created
+   */
+  public Future<Void> ensureIndexes() {
+    return indexManager().reconcile();
+  }
+
+  IndexManager indexManager() {
+    IndexManager manager = indexManager;
+    if (manager != null) return manager;
+    synchronized (this) {
+      if (indexManager == null) indexManager = new IndexManager(vertx, mongo, collectionName, indexes()
+        , config.getJsonObject(IndexManager.INDEXES_PROP, new JsonObject()));
+      return indexManager;
+    }
+  }
+
+  // fail the read when no index supports it and indexes are strict
+  <T> Future<T> indexed(JsonObject query, JsonObject sort, Supplier<Future<T>> read) {
+    try {
+      indexManager().check(query, sort);
+    } catch (IllegalStateException e) {
+      return Future.failedFuture(e);
+    }
+    return read.get();
+  }
+
+  // fail the operation once the deadline passes, when a deadline is configured
+  <T> Future<T> deadline(Future<T> operation) {
+    return deadline == null ? operation : deadline.apply(operation);
+  }
+
+  // read hedged by the same read when hedging is enabled, on the same client and read preference
+  // so cache fills and the refetches after a write can't see a lagging secondary, see HedgedReads
+  <T> Future<T> hedged(Supplier<Future<T>> read) {
+    return hedging == null ? read.get() : hedging.run(read, read);
+  }
+
+  /**
+   * Called after a document was written to keep any cached state consistent
+   * Bumps the change tag and evicts the document from this cache and from the caches of the other repo instances
+   * Reads in flight which may have missed the write are no longer shared, see {@link SingleFlight#invalidate}
+   * @param id The id of the written document
+   */
+  protected void written(Object id) {
+    invalidate(id);
+  }
+
+  private void invalidate(Object id) {
+    changes.incrementAndGet();
+    // a get of another document can't include this one, lists and queries may
+    if (flights != null) flights.invalidate(key -> !key.operation().equals("get") || key.argument().equals(id));
+    if (cache != null) cache.invalidate(id);
+    if (invalidator != null) invalidator.invalidate(id);
+  }
+
+  /**
+   * Called after a write which returned the stored document, instead of {@link #written(Object)}
+   * Subclasses which track documents can use the document rather than reading it again.
+   * @param id The id of the written document
+   * @param document The document as stored by the write, null if it was deleted
+   */
+  protected void written(Object id, JsonObject document) {
+    invalidate(id);
+  }
+
+  /**
+   * Called after a write which may have changed any document in the collection
+   */
+  protected void writtenAll() {
+    changes.incrementAndGet();
+    if (flights != null) flights.invalidate(key -> true);
+    if (cache != null) cache.clear();
+    if (invalidator != null) invalidator.invalidateAll();
+  }
+
+  // the id of a written document, used where the write returns the previous document
+  void writtenDocument(JsonObject document) {
+    if (document != null) written(document.getValue("_id"));
+  }
+
+  // a document returned as stored by the write
+  void storedDocument(JsonObject document) {
+    if (document != null) written(document.getValue("_id"), document);
+  }
+
+  /**
+   * An opaque tag of the collection contents, which changes whenever a document is written through this repo
+   * Writes through other repo instances change it when they are broadcast, see {@link CacheInvalidator}
+   * Writes by other processes can't change it, so there is only a tag when the collection config
+   * single_writer (default false) declares that every write of the collection goes through this repo.
+   * Clustered nodes each count their own changes, so a tag from one node could match on another
+   * which hasn't seen the same writes, a clustered repo has no tag.
+   * @return A future containing the change tag, null unless this repo is the single writer of an unclustered app
+   */
+  @Override
+  public Future<String> changeTag() {
+    if (!config.getBoolean(SINGLE_WRITER_PROP, false) || vertx.isClustered()) return Future.succeededFuture();
+    return Future.succeededFuture(epoch + "-" + changes.get());
+  }
+
   /**
    * Save a document in the specified collection
    * This operation might change <i>_id</i> field of <i>document</i> parameter
+   * When save batching is enabled the save is coalesced with other saves into one bulk write
+   * The saved object is built locally from the document and its id, so saving costs a single round trip
    * @param jsonObject the document
    * @return A future containing the saved object
    */
   @Override
   public Future<JsonObject> save(JsonObject jsonObject) {
-    return mongo.save(collectionName(), jsonObject).compose(this::get);
+    if (saveBatcher != null) return deadline(saveBatcher.save(jsonObject).onSuccess(this::storedDocument));
+    JsonObject document = jsonObject.copy();
+    // a generated id can't match an existing document so a plain insert is enough
+    Future<String> write = document.getValue("_id") == null
+      ? mongo.insert(collectionName(), document.put("_id", newId()))
+      : mongo.save(collectionName(), document);
+    return deadline(write.map(document).onSuccess(this::storedDocument));
   }
 
   /**
-   * list all documents
-   * @return A future containing a list of all documents
+   * Find a single document which matches the id
+   * Read through the document cache when it is enabled
+   * @param id The id to retrieve
+   * @return A future containing the retrieved document
    */
   @Override
   public Future<JsonObject> get(String id) {
-    return mongo.findOne(collectionName(), idDocument(id), null);
+    return deadline(cache != null ? cache.get(id, this::load) : load(id));
+  }
+
+  /**
+   * Find the documents of several ids with a single $in query
+   * Read through the document cache when it is enabled, so only the missed ids are queried
+   * @param ids The ids to retrieve
+   * @return A future containing the documents in the order of the ids, null for an id without a document
+   */
+  @Override
+  public Future<List<JsonObject>> getMany(List<String> ids) {
+    if (ids.isEmpty()) return Future.succeededFuture(new ArrayList<>());
+    return deadline(cache != null ? cache.getMany(ids, this::fetchMany) : fetchMany(ids));
+  }
+
+  /**
+   * Find the documents of several ids in the datasource with a single $in query, hedged when hedging is enabled
+   * @param ids The ids to retrieve
+   * @return A future containing the documents in the order of the ids, null for an id without a document
+   */
+  protected Future<List<JsonObject>> fetchMany(List<String> ids) {
+    JsonObject query = new JsonObject().put("_id", new JsonObject().put("$in", new JsonArray(new ArrayList<>(ids))));
+    return hedged(() -> mongo.find(collectionName(), query)).map(documents -> ordered(ids, documents));
+  }
+
+  // the documents in the order of the ids, with null for the missing ones
+  static List<JsonObject> ordered(List<String> ids, List<JsonObject> documents) {
+    Map<Object, JsonObject> byId = new HashMap<>();
+    for (JsonObject document : documents) byId.put(String.valueOf(document.getValue("_id")), document);
+    List<JsonObject> ordered = new ArrayList<>(ids.size());
+    for (String id : ids) ordered.add(byId.get(id));
+    return ordered;
+  }
+
+  // fetch the document, sharing the read with concurrent callers when single flight is enabled
+  Future<JsonObject> load(String id) {
+    if (flights != null) return flights.run("get", id, () -> fetch(id), JsonObject::copy);
+    return fetch(id);
+  }
+
+  /**
+   * Find a single document which matches the id in the datasource, hedged when hedging is enabled
+   * @param id The id to retrieve
+   * @return A future containing the retrieved document
+   */
+  protected Future<JsonObject> fetch(String id) {
+    return hedged(() -> mongo.findOne(collectionName(), idDocument(id), null));
   }
 
   /**
@@ -62,7 +311,81 @@ public abstract class RepoImpl implements Repo, Collectable {
    */
   @Override
   public Future<List<JsonObject>> list() {
-    return mongo.find(collectionName(), new JsonObject());
+    if (flights != null)
+      return deadline(flights.run("list", null, () -> mongo.find(collectionName(), new JsonObject()), RepoImpl::copy));
+    return deadline(mongo.find(collectionName(), new JsonObject()));
+  }
+
+  static List<JsonObject> copy(List<JsonObject> documents) {
+    return documents.stream().map(JsonObject::copy).collect(Collectors.toList());
+  }
+
+  /**
+   * Stream matching documents from a cursor which fetches them in batches
+   * @param query query used to match documents
+   * @param options options to sort, limit and project the documents
+   * @return A stream of the matching documents
+   */
+  @Override
+  public ReadStream<JsonObject> stream(JsonObject query, FindOptions options) {
+    FindOptions batchOptions = new FindOptions(options);
+    if (batchOptions.getBatchSize() == FindOptions.DEFAULT_BATCH_SIZE) batchOptions.setBatchSize(batchSize());
+    indexManager().check(query, options.getSort());
+    return mongo.findBatchWithOptions(collectionName(), query, batchOptions);
+  }
+
+  /**
+   * Stream the results of an aggregation pipeline from a cursor which fetches them in batches
+   * Configured by the aggregate object of the collection config: allow_disk_use (default false)
+   * to let large sorts and groups spill to disk, batch_size (default the stream batch size)
+   * and max_time_ms (default 30000) after which the server aborts the pipeline.
+   * A leading $match and $sort are checked against the declared indexes like a find.
+   * @param pipeline The aggregation stages
+   * @return A stream of the results
+   */
+  @Override
+  public ReadStream<JsonObject> aggregate(JsonArray pipeline) {
+    JsonObject match = stage(pipeline, 0, "$match");
+    JsonObject sort = stage(pipeline, match == null ? 0 : 1, "$sort");
+    indexManager().check(match == null ? new JsonObject() : match, sort);
+    return mongo.aggregateWithOptions(collectionName(), pipeline, new AggregateOptions(aggregateOptions));
+  }
+
+  static JsonObject stage(JsonArray pipeline, int position, String operator) {
+    if (pipeline.size() <= position || !(pipeline.getValue(position) instanceof JsonObject)) return null;
+    Object stage = pipeline.getJsonObject(position).getValue(operator);
+    return stage instanceof JsonObject ? (JsonObject) stage : null;
+  }
+
+  /**
+   * The number of documents fetched per round trip when streaming from a cursor
+   * @return The batch size
+   */
+  protected int batchSize() {
+    return DEFAULT_BATCH_SIZE;
+  }
+
+  /**
+   * Count matching documents on the server, answered from the count cache when enabled
+   * @param query query used to match documents
+   * @return A future containing the number of matching documents
+   */
+  @Override
+  public Future<Long> count(JsonObject query) {
+    Supplier<Future<Long>> count = () -> indexed(query, null, () -> mongo.count(collectionName(), query));
+    return deadline(counts == null ? count.get() : counts.get(query.encode(), count));
+  }
+
+  /**
+   * Estimate the number of documents from the collection metadata
+   * The count command without a query reads the metadata like estimatedDocumentCount, which this client doesn't have
+   * @return A future containing the estimated number of documents
+   */
+  @Override
+  public Future<Long> estimatedCount() {
+    Supplier<Future<Long>> count = () -> mongo.runCommand("count", new JsonObject().put("count", collectionName()))
+      .map(result -> result.getLong("n", 0L));
+    return deadline(counts == null ? count.get() : counts.get("estimated", count));
   }
 
   /**
@@ -72,17 +395,31 @@ public abstract class RepoImpl implements Repo, Collectable {
    */
   @Override
   public Future<List<JsonObject>> find(JsonObject query) {
-    return mongo.find(collectionName(), query);
+    return deadline(indexed(query, null, () -> mongo.find(collectionName(), query)));
+  }
+
+  /**
+   * Find matching documents using a query object and find options
+   * @param query query used to match documents
+   * @param options options to sort, limit and project the documents
+   * @return A future containing a list of all matching documents
+   */
+  @Override
+  public Future<List<JsonObject>> findWithOptions(JsonObject query, FindOptions options) {
+    return deadline(indexed(query, options.getSort(), () -> mongo.findWithOptions(collectionName(), query, options)));
   }
 
   /**
-   * Find a single matching document
+   * Find a single matching document, hedged when hedging is enabled
    * @param query the query used to match the document
    * @return A future containing a single matching document
    */
   @Override
   public Future<JsonObject> findOne(JsonObject query) {
-    return mongo.findOne(collectionName(), query, null);
+    Supplier<Future<JsonObject>> read = () -> hedged(() -> mongo.findOne(collectionName(), query, null));
+    return deadline(indexed(query, null, () -> flights == null
+      ? read.get()
+      : flights.run("findOne", query.copy(), read, JsonObject::copy)));
   }
 
   /**
@@ -93,7 +430,7 @@ public abstract class RepoImpl implements Repo, Collectable {
    */
   @Override
   public Future<JsonObject> updateById(String id, JsonObject update) {
-    return mongo.findOneAndUpdate(collectionName, idDocument(id), update);
+    return deadline(mongo.findOneAndUpdate(collectionName, idDocument(id), update).onSuccess(it -> written(id)));
   }
 
   /**
@@ -104,7 +441,20 @@ public abstract class RepoImpl implements Repo, Collectable {
    */
   @Override
   public Future<JsonObject> update(JsonObject query, JsonObject update) {
-    return mongo.findOneAndUpdate(collectionName, query, update);
+    return deadline(mongo.findOneAndUpdate(collectionName, query, update).onSuccess(this::writtenDocument));
+  }
+
+  /**
+   * Find a single matching document and update it atomically in a single round trip
+   * @param query the query used to match the document
+   * @param update used to describe how the document will be updated
+   * @return A future containing the document after the update, null if no document matched
+   */
+  @Override
+  public Future<JsonObject> updateAndGet(JsonObject query, JsonObject update) {
+    return deadline(mongo.findOneAndUpdateWithOptions(collectionName, query, update
+        , new FindOptions(), new UpdateOptions().setReturningNewDocument(true))
+      .onSuccess(this::storedDocument));
   }
 
   /**
@@ -115,7 +465,8 @@ public abstract class RepoImpl implements Repo, Collectable {
    */
   @Override
   public Future<JsonObject> replaceById(String id, JsonObject update) {
-    return mongo.findOneAndReplace(collectionName, idDocument(id), update);
+    return deadline(mongo.findOneAndReplace(collectionName, idDocument(id), update)
+      .onSuccess(it -> replaced(it, update)));
   }
 
   /**
@@ -126,7 +477,18 @@ public abstract class RepoImpl implements Repo, Collectable {
    */
   @Override
   public Future<JsonObject> replace(JsonObject query, JsonObject update) {
-    return mongo.findOneAndReplace(collectionName, query, update);
+    return deadline(mongo.findOneAndReplace(collectionName, query, update).onSuccess(it -> replaced(it, update)));
+  }
+
+  // the replacement is stored under the _id of the previous document, nothing was written if none matched
+  void replaced(JsonObject previous, JsonObject replacement) {
+    if (previous == null) return;
+    Object id = previous.getValue("_id");
+    written(id, replacement.copy().put("_id", id));
+  }
+
+  void deleted(JsonObject previous) {
+    if (previous != null) written(previous.getValue("_id"), null);
   }
 
   /**
@@ -136,7 +498,7 @@ public abstract class RepoImpl implements Repo, Collectable {
    */
   @Override
   public Future<JsonObject> deleteById(String id) {
-    return mongo.findOneAndDelete(collectionName, new JsonObject().put("_id", id));
+    return deadline(mongo.findOneAndDelete(collectionName, idDocument(id)).onSuccess(this::deleted));
   }
 
   /**
@@ -146,7 +508,43 @@ public abstract class RepoImpl implements Repo, Collectable {
    */
   @Override
   public Future<JsonObject> delete(JsonObject query) {
-    return mongo.findOneAndDelete(collectionName, query);
+    return deadline(mongo.findOneAndDelete(collectionName, query).onSuccess(this::deleted));
+  }
+
+  /**
+   * Run a batch of mixed insert, update, replace and delete operations in a single round trip
+   * Write errors fail with a {@link BulkWriteFailure} of the failed operations and the written counts
+   * @param operations the operations to run
+   * @param options options such as running the operations in order
+   * @return A future containing the counts of the written documents
+   */
+  @Override
+  public Future<MongoClientBulkWriteResult> bulk(List<BulkOperation> operations, BulkWriteOptions options) {
+    // a failed bulk write may still have written some of the operations
+    return deadline(mongo.bulkWriteWithOptions(collectionName, operations, options)
+      .onComplete(it -> writtenBulk(operations, it.succeeded()))
+      .recover(t -> Future.failedFuture(t instanceof MongoBulkWriteException e ? BulkWriteFailure.of(e) : t)));
+  }
+
+  // invalidate the documents targeted by bulk operations, everything if an operation isn't targeted by _id
+  // when every operation succeeded inserts, upserted replaces and deletes are known to have stored their document
+  void writtenBulk(List<BulkOperation> operations, boolean succeeded) {
+    for (BulkOperation operation : operations) {
+      JsonObject target = operation.getDocument() != null && operation.getFilter() == null
+        ? operation.getDocument()
+        : operation.getFilter();
+      Object id = target == null ? null : target.getValue("_id");
+      if (id == null || id instanceof JsonObject || operation.isMulti()) {
+        writtenAll();
+        return;
+      }
+      if (!succeeded) written(id);
+      else if (operation.getType() == BulkOperationType.INSERT) written(id, operation.getDocument());
+      else if (operation.getType() == BulkOperationType.REPLACE && operation.isUpsert())
+        written(id, operation.getDocument().copy().put("_id", id));
+      else if (operation.getType() == BulkOperationType.DELETE) written(id, null);
+      else written(id);
+    }
   }
 
   /**
@@ -155,7 +553,9 @@ public abstract class RepoImpl implements Repo, Collectable {
    */
   @Override
   public Future<Long> deleteAll() {
-    return mongo.removeDocuments(collectionName, new JsonObject()).map(MongoClientDeleteResult::getRemovedCount);
+    return deadline(mongo.removeDocuments(collectionName, new JsonObject())
+      .map(MongoClientDeleteResult::getRemovedCount)
+      .onSuccess(it -> writtenAll()));
   }
 
   /**
@@ -164,7 +564,16 @@ public abstract class RepoImpl implements Repo, Collectable {
    */
   @Override
   public Future<Void> drop() {
-    return mongo.dropCollection(collectionName);
+    return deadline(mongo.dropCollection(collectionName).onSuccess(it -> writtenAll()));
+  }
+
+  /**
+   * Ping the Mongo server
+   * @return A future completed when the server answered
+   */
+  @Override
+  public Future<Void> checkHealth() {
+    return mongo.runCommand("ping", new JsonObject().put("ping", 1)).mapEmpty();
   }
 
   /**
@@ -173,6 +582,8 @@ public abstract class RepoImpl implements Repo, Collectable {
    */
   @Override
   public Future<Void> close() {
-    return mongo.close();
+    Future<Void> flushed = saveBatcher == null ? Future.succeededFuture() : saveBatcher.flush();
+    if (invalidator != null) flushed = flushed.eventually(v -> invalidator.close());
+    return flushed.eventually(v -> mongo.close());
   }
 }
@@ -0,0 +1,244 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.serviceproxy.ServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Moves documents in rank order by writing a single fractional key, see {@link RankKeys}
+ * A document's rank key is its key field when present, otherwise the key of its integer rank field.
+ * A move sets the key field between the keys of the new neighbours, so the documents in between are left alone.
+ * Dense positions are served by the {@link RankIndex}, so the stored integer ranks don't need rewriting after a move.
+ * A rebalance sets the integer rank of every document to its position and removes the key fields, to keep keys short.
+ * It runs in the background straight away when a move generates a key longer than the maximum length,
+ * or when a rebalance delay is configured, once moves have been quiet for the delay.
+ * A document written since the rebalance started, whose key or rank changed, is left for the next rebalance.
+ * Moves requested while a rebalance runs wait for it, so they never see a half rewritten order.
+ * Configured by the rerank object of the collection config:
+ * max_key_length (default 24), rebalance_delay_ms (default -1 to only rebalance long keys)
+ * and batch_size (default 500) of the rebalance writes
+ */
+public class Reranker {
+  public static final String RERANK_PROP = "rerank";
+  public static final String MAX_KEY_LENGTH_PROP = "max_key_length";
+  public static final String REBALANCE_DELAY_PROP = "rebalance_delay_ms";
+  public static final String BATCH_SIZE_PROP = "batch_size";
+
+  private final Logger log;
+  private final Vertx vertx;
+  private final Repo repo;
+  private final RankIndex index;
+  private final String rankField;
+  private final String keyField;
+  private final int maxKeyLength;
+  private final long rebalanceDelay;
+  private final int batchSize;
+  private final LongAdder moves;
+  private final LongAdder rebalances;
+  private final LongAdder rewritten;
+  private long timer = -1;
+  private Future<Void> rebalancing;
+  private boolean again;
+
+  /**
+   * Create a reranker
+   * @param vertx The Vert.x instance
+   * @param collectionName The collection name, used to name the metrics
+   * @param repo The repo of the ranked documents
+   * @param index The rank index of the repo, kept up to date by the repo
+   * @param rankField The integer rank field
+   * @param keyField The fractional rank key field
+   * @param config The rerank config
+   */
+  public Reranker(Vertx vertx
+    , String collectionName
+    , Repo repo
+    , RankIndex index
+    , String rankField
+    , String keyField
+    , JsonObject config) {
+    this.log = LoggerFactory.getLogger(Reranker.class.getSimpleName());
+    this.vertx = vertx;
+    this.repo = repo;
+    this.index = index;
+    this.rankField = rankField;
+    this.keyField = keyField;
+    this.maxKeyLength = config.getInteger(MAX_KEY_LENGTH_PROP, 24);
+    this.rebalanceDelay = config.getLong(REBALANCE_DELAY_PROP, -1L);
+    this.batchSize = config.getInteger(BATCH_SIZE_PROP, 500);
+    Metrics metrics = Metrics.of(vertx);
+    this.moves = metrics.counter(String.format("repo.%s.rerank.moves", collectionName));
+    this.rebalances = metrics.counter(String.format("repo.%s.rerank.rebalances", collectionName));
+    this.rewritten = metrics.counter(String.format("repo.%s.rerank.rewritten", collectionName));
+  }
+
+  /**
+   * Compute the rank key of a document
+   * @param document The document
+   * @param rankField The integer rank field
+   * @param keyField The fractional rank key field
+   * @return The key field if it's set, otherwise the key of the integer rank, null if the document isn't ranked
+   */
+  public static String key(JsonObject document, String rankField, String keyField) {
+    Object key = document.getValue(keyField);
+    if (key instanceof String) return (String) key;
+    Object rank = document.getValue(rankField);
+    return rank instanceof Number && ((Number) rank).longValue() >= 0 ? RankKeys.of(((Number) rank).longValue()) : null;
+  }
+
+  static <T> Future<T> failure(int code, String message) {
+    return Future.failedFuture(new ServiceException(code, message));
+  }
+
+  /**
+   * Move a document between two others in rank order, writing only the moved document
+   * At least one neighbour is required, with only one the document is moved right next to it.
+   * Fails with a {@link ServiceException} of 400 if the neighbours are invalid or 404 if a document isn't found.
+   * @param id The document _id
+   * @param before The _id of the document to move before, null to only move after
+   * @param after The _id of the document to move after, null to only move before
+   * @return The moved document
+   */
+  public Future<JsonObject> move(String id, String before, String after) {
+    Future<Void> rebalanced;
+    synchronized (this) {
+      rebalanced = rebalancing;
+    }
+    if (rebalanced == null) return moveNow(id, before, after);
+    return rebalanced.transform(it -> moveNow(id, before, after));
+  }
+
+  Future<JsonObject> moveNow(String id, String before, String after) {
+    if (before == null && after == null) return failure(400, "before or after is required");
+    if (id.equals(before) || id.equals(after)) return failure(400, "a document can't be moved next to itself");
+    RankIndex.Entry upper = before == null ? null : index.position(before);
+    if (before != null && upper == null) return failure(404, String.format("%s isn't ranked", before));
+    RankIndex.Entry lower = after == null ? null : index.position(after);
+    if (after != null && lower == null) return failure(404, String.format("%s isn't ranked", after));
+    if (before == null) upper = neighbour(lower.position() + 1, id, 1);
+    if (after == null) lower = neighbour(upper.position() - 1, id, -1);
+    String key;
+    try {
+      key = RankKeys.between(lower == null ? null : (String) lower.key(), upper == null ? null : (String) upper.key());
+    } catch (IllegalArgumentException e) {
+      return failure(400, String.format("can't move %s there, %s", id, e.getMessage()));
+    }
+    moves.increment();
+    return repo.updateAndGet(RepoImpl.idDocument(id), new JsonObject().put("$set", new JsonObject().put(keyField, key)))
+      .compose(document -> {
+        if (document == null) return failure(404, String.format("%s not found", id));
+        index.put(id, key);
+        schedule(key.length() > maxKeyLength);
+        return Future.succeededFuture(document);
+      });
+  }
+
+  // the entry at a position, or the next one in the direction of step when it's the moving document
+  RankIndex.Entry neighbour(long position, String moving, int step) {
+    RankIndex.Entry entry = position < 1 ? null : index.at(position);
+    if (entry == null || !entry.id().equals(moving)) return entry;
+    return position + step < 1 ? null : index.at(position + step);
+  }
+
+  synchronized void schedule(boolean now) {
+    if (!now && rebalanceDelay < 0) return;
+    if (timer != -1) vertx.cancelTimer(timer);
+    timer = vertx.setTimer(now ? 1 : Math.max(1, rebalanceDelay), it -> {
+      synchronized (this) {
+        timer = -1;
+      }
+      rebalance().onFailure(e -> log.warn("rebalance failed, ranks are dense again after the next one", e));
+    });
+  }
+
+  /**
+   * Set the integer rank of every document to its position and remove the key fields
+   * Only documents whose position or key changed are written, in unordered bulk writes of the batch size.
+   * A document moved or ranked again while the rebalance runs keeps its write and is rebalanced by the next run.
+   * @return A future completed when every batch was written
+   */
+  public Future<Void> rebalance() {
+    Promise<Void> promise = Promise.promise();
+    synchronized (this) {
+      if (rebalancing != null) {
+        again = true;
+        return rebalancing;
+      }
+      rebalancing = promise.future();
+    }
+    rebalances.increment();
+    repo.findWithOptions(new JsonObject().put(keyField, new JsonObject().put("$exists", true))
+        , new FindOptions().setFields(new JsonObject().put(keyField, 1).put(rankField, 1)))
+      .compose(keyed -> {
+        Map<String, JsonObject> keys = keyed.stream()
+          .collect(Collectors.toMap(it -> String.valueOf(it.getValue("_id")), it -> it));
+        // a snapshot of the order, rewriting a document moves it among the keys of the documents not rewritten yet
+        List<RankIndex.Entry> order = index.range(1, index.size());
+        Future<Void> chain = Future.succeededFuture();
+        for (int from = 0; from < order.size(); from += batchSize) {
+          List<RankIndex.Entry> batch = order.subList(from, Math.min(order.size(), from + batchSize));
+          chain = chain.compose(v -> write(batch, keys));
+        }
+        return chain;
+      }).onComplete(promise);
+    promise.future().onComplete(it -> {
+      synchronized (this) {
+        rebalancing = null;
+        if (again) {
+          again = false;
+          schedule(false);
+        }
+      }
+    });
+    return promise.future();
+  }
+
+  Future<Void> write(List<RankIndex.Entry> batch, Map<String, JsonObject> keys) {
+    List<RankIndex.Entry> changed = new ArrayList<>();
+    List<BulkOperation> operations = new ArrayList<>();
+    for (RankIndex.Entry entry : batch) {
+      JsonObject keyed = keys.get(entry.id());
+      if (keyed == null && RankKeys.of(entry.position()).equals(entry.key())) continue;
+      // only matches while the document has the key and rank it had when the rebalance started,
+      // the index key of a document without a key field is the key of its rank
+      JsonObject query = RepoImpl.idDocument(entry.id());
+      if (keyed == null) {
+        query.put(keyField, new JsonObject().put("$exists", false)).put(rankField, RankKeys.rank((String) entry.key()));
+      } else {
+        query.put(keyField, keyed.getValue(keyField)).put(rankField, keyed.getValue(rankField));
+      }
+      operations.add(BulkOperation.createUpdate(query, new JsonObject()
+        .put("$set", new JsonObject().put(rankField, entry.position()))
+        .put("$unset", new JsonObject().put(keyField, ""))));
+      changed.add(entry);
+    }
+    if (operations.isEmpty()) return Future.succeededFuture();
+    return repo.bulk(operations, new BulkWriteOptions(false))
+      .map(result -> {
+        rewritten.add(result.getModifiedCount());
+        if (result.getMatchedCount() < operations.size()) {
+          // documents written since the rebalance started, rank them by the next one
+          synchronized (this) {
+            again = true;
+          }
+        }
+        // ahead of the fetches of the written documents, so moves right after the rebalance see the new keys
+        changed.forEach(it -> index.putIf(it.id(), it.key(), RankKeys.of(it.position())));
+        return null;
+      });
+  }
+}
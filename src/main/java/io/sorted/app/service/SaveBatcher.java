@@ -0,0 +1,180 @@
+package io.sorted.app.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import io.sorted.app.metrics.Metrics;
+import io.sorted.app.metrics.Summary;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.serviceproxy.ServiceException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces saves which arrive within a small time window into a single unordered bulk write
+ * Each caller gets its own result or error, a failed save fails with a ServiceException of the Mongo error code,
+ * such as {@link BulkWriteFailure#DUPLICATE_KEY}.
+ * An unordered write may apply its operations in any order, so a save of an _id already in the batch starts
+ * the next batch, and batches are written one at a time in order: the last save of an _id wins.
+ * Configured by the save_batch object of the collection config:
+ * enabled (default false), window_ms the time to wait for more saves and max_size the size which flushes early
+ */
+public class SaveBatcher {
+  public static final String SAVE_BATCH_PROP = "save_batch";
+  public static final String WINDOW_PROP = "window_ms";
+  public static final String MAX_SIZE_PROP = "max_size";
+  public static final long DEFAULT_WINDOW_MS = 2;
+  public static final int DEFAULT_MAX_SIZE = 100;
+
+  /**
+   * A save waiting for the next flush
+   * @param document The document to save
+   * @param inserted True if the _id was generated, so the document can be inserted rather than upserted
+   * @param promise Completed when the document is written
+   * @param queued Time the save was queued in nanoseconds
+   */
+  record Pending(JsonObject document, boolean inserted, Promise<JsonObject> promise, long queued) { }
+
+  /**
+   * Saves waiting for the batch in flight
+   * @param saves The saves of the batch
+   * @param written Completed when the batch is written
+   */
+  record Batch(List<Pending> saves, Promise<Void> written) { }
+
+  private final Vertx vertx;
+  private final MongoClient mongo;
+  private final String collectionName;
+  private final long window;
+  private final int maxSize;
+  private final Summary batchSize;
+  private final Summary queueTime;
+  private List<Pending> pending = new ArrayList<>();
+  private final Set<Object> pendingIds = new HashSet<>();
+  private final Deque<Batch> sealed = new ArrayDeque<>();
+  private Batch writing;
+  private long timer = -1;
+
+  public SaveBatcher(Vertx vertx, MongoClient mongo, String collectionName, JsonObject config) {
+    this.vertx = vertx;
+    this.mongo = mongo;
+    this.collectionName = collectionName;
+    this.window = Math.max(1, config.getLong(WINDOW_PROP, DEFAULT_WINDOW_MS));
+    this.maxSize = Math.max(1, config.getInteger(MAX_SIZE_PROP, DEFAULT_MAX_SIZE));
+    Metrics metrics = Metrics.of(vertx);
+    this.batchSize = metrics.summary(String.format("repo.%s.save_batch.size", collectionName));
+    this.queueTime = metrics.summary(String.format("repo.%s.save_batch.queue_us", collectionName));
+  }
+
+  /**
+   * Queue a document to be saved with the next batch
+   * Documents without an _id are given a new one, documents with an _id replace any existing document
+   * @param document the document
+   * @return A future containing the saved document
+   */
+  public Future<JsonObject> save(JsonObject document) {
+    Promise<JsonObject> promise = Promise.promise();
+    JsonObject copy = document.copy();
+    boolean inserted = copy.getValue("_id") == null;
+    if (inserted) copy.put("_id", RepoImpl.newId());
+    int size;
+    boolean repeated = false;
+    synchronized (this) {
+      if (!inserted && !pendingIds.add(copy.getValue("_id"))) {
+        repeated = true;
+        seal();
+        pendingIds.add(copy.getValue("_id"));
+      }
+      pending.add(new Pending(copy, inserted, promise, System.nanoTime()));
+      size = pending.size();
+      if (size == 1 && maxSize > 1) timer = vertx.setTimer(window, id -> flush());
+    }
+    if (size >= maxSize) flush();
+    else if (repeated) writeNext();
+    return promise.future();
+  }
+
+  /**
+   * Write all queued saves now, after the batches before them
+   * @return A future completed when the last queued batch is written
+   */
+  public Future<Void> flush() {
+    Future<Void> written;
+    synchronized (this) {
+      written = seal();
+    }
+    writeNext();
+    return written;
+  }
+
+  // queues the pending saves as a batch, called with the lock held
+  private Future<Void> seal() {
+    if (timer != -1) vertx.cancelTimer(timer);
+    timer = -1;
+    if (!pending.isEmpty()) {
+      sealed.add(new Batch(pending, Promise.promise()));
+      pending = new ArrayList<>();
+      pendingIds.clear();
+    }
+    Batch last = sealed.isEmpty() ? writing : sealed.peekLast();
+    return last == null ? Future.succeededFuture() : last.written().future();
+  }
+
+  // writes the next batch unless one is in flight
+  private void writeNext() {
+    Batch next;
+    synchronized (this) {
+      if (writing != null || sealed.isEmpty()) return;
+      next = sealed.poll();
+      writing = next;
+    }
+    write(next.saves()).onComplete(it -> {
+      synchronized (this) {
+        writing = null;
+      }
+      next.written().handle(it);
+      writeNext();
+    });
+  }
+
+  private Future<Void> write(List<Pending> batch) {
+    long now = System.nanoTime();
+    batchSize.record(batch.size());
+    List<BulkOperation> operations = new ArrayList<>(batch.size());
+    for (Pending save : batch) {
+      queueTime.record(TimeUnit.NANOSECONDS.toMicros(now - save.queued()));
+      operations.add(save.inserted()
+        ? BulkOperation.createInsert(save.document())
+        : BulkOperation.createReplace(new JsonObject().put("_id", save.document().getValue("_id")), save.document(), true));
+    }
+
+    return mongo.bulkWriteWithOptions(collectionName, operations, new BulkWriteOptions(false))
+      .onSuccess(result -> batch.forEach(save -> save.promise().complete(save.document())))
+      .onFailure(t -> {
+        if (t instanceof MongoBulkWriteException bulkError) {
+          // unordered, so only the items with write errors failed
+          Throwable[] errors = new Throwable[batch.size()];
+          for (BulkWriteError error : bulkError.getWriteErrors()) {
+            errors[error.getIndex()] = new ServiceException(error.getCode(), error.getMessage());
+          }
+          for (int i = 0; i < batch.size(); i++) {
+            if (errors[i] == null) batch.get(i).promise().complete(batch.get(i).document());
+            else batch.get(i).promise().fail(errors[i]);
+          }
+        } else {
+          batch.forEach(save -> save.promise().fail(t));
+        }
+      }).mapEmpty();
+  }
+}
@@ -1,17 +1,136 @@
 package io.sorted.app.service;
 
+import io.vertx.core.Context;
 import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.serviceproxy.ProxyHandler;
 import io.vertx.serviceproxy.ServiceBinder;
 import io.vertx.serviceproxy.ServiceProxyBuilder;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
 public class Service {
+  static final String LOCAL_SERVICES = Service.class.getName();
+
+  /**
+   * Holds a service implementation registered in this Vert.x instance
+   * @param impl The service implementation object
+   * @param context The context the service was registered on, which its event bus consumer runs on
+   */
+  record Local(Object impl, Context context) implements Shareable { }
+
+  static LocalMap<String, Local> locals(Vertx vertx) {
+    return vertx.sharedData().getLocalMap(LOCAL_SERVICES);
+  }
+
+  /**
+   * Register a service on the event bus and as a local service of this Vert.x instance
+   * Replies are sent with the {@link ServiceCodec}, so they aren't copied locally and are CBOR between nodes,
+   * and the service also answers batches of calls from a {@link Multiplexer}
+   * @param vertx The Vert.x instance
+   * @param tClass The service class (interface)
+   * @param impl The service implementation object
+   * @param <T> the type of the service interface
+   */
   public static <T, I extends T> void register(Vertx vertx, Class<T> tClass, I impl) {
-    new ServiceBinder(vertx)
-      .setAddress(tClass.getName())
-      .register(tClass, impl);
+    register(vertx, tClass, impl, new JsonObject());
+  }
+
+  /**
+   * Register a service on the event bus and as a local service of this Vert.x instance
+   * In a clustered Vert.x every node may register the same service and calls are balanced across them.
+   * A {@link HealthChecked} service is then only registered on the event bus while its health check passes, see {@link Advertiser}
+   * @param vertx The Vert.x instance
+   * @param tClass The service class (interface)
+   * @param impl The service implementation object
+   * @param config The service config, the collection config of a repo
+   * @param <T> the type of the service interface
+   */
+  public static <T, I extends T> void register(Vertx vertx, Class<T> tClass, I impl, JsonObject config) {
+    ServiceCodec.register(vertx.eventBus());
+    ProxyHandler handler = handler(vertx, tClass, impl);
+    Supplier<List<MessageConsumer<?>>> consumers = () -> List.of(
+      vertx.eventBus().<JsonObject>consumer(tClass.getName(), message -> handler.handle(ServiceCodec.replying(message)))
+      , Multiplexer.serve(vertx, tClass.getName(), handler));
+    if (vertx.isClustered() && impl instanceof HealthChecked checked) {
+      new Advertiser(vertx
+        , tClass.getSimpleName()
+        , checked
+        , config.getJsonObject(Advertiser.ADVERTISE_PROP, new JsonObject())
+        , consumers).start();
+    } else {
+      consumers.get();
+    }
+    locals(vertx).put(tClass.getName(), new Local(impl, vertx.getOrCreateContext()));
   }
 
+  // the generated handler which calls the implementation for each request, found like the ServiceBinder does
+  static <T> ProxyHandler handler(Vertx vertx, Class<T> tClass, T impl) {
+    try {
+      return (ProxyHandler) Class.forName(tClass.getName() + "VertxProxyHandler", true, tClass.getClassLoader())
+        .getConstructor(Vertx.class, tClass, boolean.class, long.class, boolean.class)
+        .newInstance(vertx, impl, true, ServiceBinder.DEFAULT_CONNECTION_TIMEOUT, false);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(String.format("no proxy handler was generated for %s", tClass.getName()), e);
+    }
+  }
+
+  /**
+   * Get a service
+   * A service registered in this Vert.x instance is called directly, which skips encoding messages,
+   * otherwise the service is called over the event bus with multiplexed calls.
+   * In a clustered Vert.x the calls always go over the event bus, so they are balanced across the nodes which registered the service
+   * @param vertx The Vert.x instance
+   * @param aClass The service class (interface)
+   * @return The service
+   * @param <T> the type of the service interface
+   */
   public static <T> T get(Vertx vertx, Class<T> aClass) {
-    return new ServiceProxyBuilder(vertx).setAddress(aClass.getName()).build(aClass);
+    Local local = vertx.isClustered() ? null : locals(vertx).get(aClass.getName());
+    return local == null ? multiplexed(vertx, aClass) : LocalProxy.create(vertx, aClass, local.impl(), local.context());
+  }
+
+  /**
+   * Get a proxy which packs the calls made in the same event loop tick into one event bus message, see {@link Multiplexer}
+   * Create it on the context of the caller, which queues the calls
+   * @param vertx The Vert.x instance
+   * @param aClass The service class (interface)
+   * @return The multiplexed proxy
+   * @param <T> the type of the service interface
+   */
+  public static <T> T multiplexed(Vertx vertx, Class<T> aClass) {
+    ServiceCodec.register(vertx.eventBus());
+    return Multiplexer.proxy(vertx, aClass);
+  }
+
+  /**
+   * Get a proxy which calls a service over the event bus, even when it is registered in this Vert.x instance
+   * Requests are sent with the {@link ServiceCodec}
+   * @param vertx The Vert.x instance
+   * @param aClass The service class (interface)
+   * @return The event bus proxy
+   * @param <T> the type of the service interface
+   */
+  public static <T> T proxy(Vertx vertx, Class<T> aClass) {
+    ServiceCodec.register(vertx.eventBus());
+    return new ServiceProxyBuilder(vertx).setAddress(aClass.getName()).setOptions(ServiceCodec.options()).build(aClass);
+  }
+
+  /**
+   * Get the service implementation when it was registered in this Vert.x instance
+   * Needed for operations which can't go over the event bus such as streams
+   * @param vertx The Vert.x instance
+   * @param aClass The service class (interface)
+   * @return The implementation, empty if the service is not registered locally
+   * @param <T> the type of the service interface
+   */
+  public static <T> Optional<T> local(Vertx vertx, Class<T> aClass) {
+    Local local = locals(vertx).get(aClass.getName());
+    return local == null ? Optional.empty() : Optional.of(aClass.cast(local.impl()));
   }
 }
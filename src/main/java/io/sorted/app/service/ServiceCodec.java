@@ -0,0 +1,120 @@
+package io.sorted.app.service;
+
+import io.sorted.app.http.Formats;
+import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.MessageCodec;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Codec of service requests and replies, JSON objects and arrays
+ * Locally the body is passed as is instead of copied, ownership moves to the receiver:
+ * the sender doesn't use a request after sending it and services reply with documents they don't keep,
+ * which the repos do since they copy what they cache or store.
+ * Between cluster nodes the body is encoded as CBOR, which is more compact and faster to parse than JSON text.
+ */
+public class ServiceCodec implements MessageCodec<Object, Object> {
+  public static final String NAME = "sorted.service";
+
+  /**
+   * Register the codec with the event bus, if it isn't already
+   * @param eventBus The event bus
+   */
+  public static void register(EventBus eventBus) {
+    try {
+      eventBus.registerCodec(new ServiceCodec());
+    } catch (IllegalStateException e) {
+      // already registered by another service or proxy
+    }
+  }
+
+  /**
+   * Delivery options which send with this codec
+   * @return The delivery options
+   */
+  public static DeliveryOptions options() {
+    return new DeliveryOptions().setCodecName(NAME);
+  }
+
+  @Override
+  public void encodeToWire(Buffer buffer, Object body) {
+    Buffer encoded = Formats.encode(Formats.APPLICATION_CBOR, body);
+    buffer.appendInt(encoded.length()).appendBuffer(encoded);
+  }
+
+  @Override
+  public Object decodeFromWire(int pos, Buffer buffer) {
+    int length = buffer.getInt(pos);
+    return Formats.decode(Formats.APPLICATION_CBOR, buffer.slice(pos + 4, pos + 4 + length));
+  }
+
+  @Override
+  public Object transform(Object body) {
+    return body;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public byte systemCodecID() {
+    return -1;
+  }
+
+  /**
+   * Wrap a request so the service replies with this codec
+   * @param message The request
+   * @return The request which replies with JSON objects and arrays through this codec
+   * @param <T> The type of the request body
+   */
+  static <T> Message<T> replying(Message<T> message) {
+    return new Message<>() {
+      @Override
+      public String address() {
+        return message.address();
+      }
+
+      @Override
+      public MultiMap headers() {
+        return message.headers();
+      }
+
+      @Override
+      public T body() {
+        return message.body();
+      }
+
+      @Override
+      public String replyAddress() {
+        return message.replyAddress();
+      }
+
+      @Override
+      public boolean isSend() {
+        return message.isSend();
+      }
+
+      @Override
+      public void reply(Object body, DeliveryOptions options) {
+        message.reply(body, codec(body, options));
+      }
+
+      @Override
+      public <R> Future<Message<R>> replyAndRequest(Object body, DeliveryOptions options) {
+        return message.replyAndRequest(body, codec(body, options));
+      }
+    };
+  }
+
+  static DeliveryOptions codec(Object body, DeliveryOptions options) {
+    if (!(body instanceof JsonObject || body instanceof JsonArray) || options.getCodecName() != null) return options;
+    return new DeliveryOptions(options).setCodecName(NAME);
+  }
+}
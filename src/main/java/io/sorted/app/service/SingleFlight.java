@@ -0,0 +1,113 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Coalesces concurrent reads with identical arguments into one datasource request
+ * Callers which arrive while a read is in flight wait for its result instead of starting their own,
+ * so the datasource load depends on the number of distinct keys rather than the concurrency.
+ * Every waiter has its own timeout, one waiter timing out doesn't affect the others.
+ * A write invalidates the reads which may have missed it, so a read after a write never joins an older read.
+ * Configured by the single_flight object of the collection config:
+ * enabled (default false) and timeout_ms how long a caller waits for the shared read, 0 to wait until it completes
+ */
+public class SingleFlight {
+  public static final String SINGLE_FLIGHT_PROP = "single_flight";
+  public static final String TIMEOUT_PROP = "timeout_ms";
+  public static final long DEFAULT_TIMEOUT_MS = 5000;
+
+  /**
+   * Identifies identical reads
+   * @param operation The read operation
+   * @param argument The argument of the operation, such as an id or a query
+   */
+  record Key(String operation, Object argument) { }
+
+  private final Vertx vertx;
+  private final long timeout;
+  private final Map<Key, Future<?>> inflight = new ConcurrentHashMap<>();
+  private final LongAdder shared;
+  private final LongAdder timeouts;
+
+  public SingleFlight(Vertx vertx, String collectionName, JsonObject config) {
+    this.vertx = vertx;
+    this.timeout = Math.max(0, config.getLong(TIMEOUT_PROP, DEFAULT_TIMEOUT_MS));
+    Metrics metrics = Metrics.of(vertx);
+    this.shared = metrics.counter(String.format("repo.%s.single_flight.shared", collectionName));
+    this.timeouts = metrics.counter(String.format("repo.%s.single_flight.timeouts", collectionName));
+  }
+
+  /**
+   * Run a read, or join the identical read already in flight
+   * @param operation The read operation
+   * @param argument The argument of the operation, such as an id or a query
+   * @param read Starts the read
+   * @param copy Copies the result for callers which joined, so they can't change each other's result
+   * @return A future containing the result of the read
+   * @param <T> The type of result
+   */
+  @SuppressWarnings("unchecked")
+  public <T> Future<T> run(String operation, Object argument, Supplier<Future<T>> read, UnaryOperator<T> copy) {
+    Key key = new Key(operation, argument);
+    Promise<T> promise = Promise.promise();
+    Future<T> existing = (Future<T>) inflight.putIfAbsent(key, promise.future());
+    if (existing != null) {
+      shared.increment();
+      return waiter(existing.map(it -> it == null ? null : copy.apply(it)));
+    }
+    try {
+      read.get().onComplete(result -> {
+        inflight.remove(key, promise.future());
+        promise.handle(result);
+      });
+    } catch (RuntimeException e) {
+      inflight.remove(key, promise.future());
+      promise.fail(e);
+    }
+    return waiter(promise.future());
+  }
+
+  private <T> Future<T> waiter(Future<T> result) {
+    if (timeout == 0 || result.isComplete()) return result;
+    Promise<T> waiter = Promise.promise();
+    long timer = vertx.setTimer(timeout, id -> {
+      if (waiter.tryFail(new TimeoutException(String.format("read timed out after %d ms", timeout))))
+        timeouts.increment();
+    });
+    result.onComplete(it -> {
+      vertx.cancelTimer(timer);
+      if (it.succeeded()) waiter.tryComplete(it.result());
+      else waiter.tryFail(it.cause());
+    });
+    return waiter.future();
+  }
+
+  /**
+   * Stop sharing the reads in flight which may have missed a write
+   * Later callers start a new read instead of joining them, the callers already waiting still get their result.
+   * @param written Tests whether a read may include the written documents
+   */
+  public void invalidate(Predicate<Key> written) {
+    inflight.keySet().removeIf(written);
+  }
+
+  /**
+   * The number of reads in flight
+   * @return The number of distinct keys being read
+   */
+  public int size() {
+    return inflight.size();
+  }
+}
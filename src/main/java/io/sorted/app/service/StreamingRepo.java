@@ -0,0 +1,37 @@
+package io.sorted.app.service;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.mongo.FindOptions;
+
+/**
+ * A repo implementation which streams documents from a cursor
+ * Streams can't be sent over the event bus, so only the implementation registered in this Vert.x instance supports them,
+ * see {@link Service#local}
+ */
+public interface StreamingRepo extends Repo {
+  /**
+   * Stream matching documents from a cursor which fetches them in batches
+   * @param query query used to match documents
+   * @return A stream of the matching documents
+   */
+  default ReadStream<JsonObject> stream(JsonObject query) {
+    return stream(query, new FindOptions());
+  }
+
+  /**
+   * Stream matching documents from a cursor which fetches them in batches
+   * @param query query used to match documents
+   * @param options options to sort, limit and project the documents
+   * @return A stream of the matching documents
+   */
+  ReadStream<JsonObject> stream(JsonObject query, FindOptions options);
+
+  /**
+   * Stream the results of an aggregation pipeline from a cursor which fetches them in batches
+   * @param pipeline The aggregation stages
+   * @return A stream of the results
+   */
+  ReadStream<JsonObject> aggregate(JsonArray pipeline);
+}
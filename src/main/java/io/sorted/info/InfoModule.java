@@ -2,6 +2,7 @@ package io.sorted.info;
 
 import io.sorted.app.MainVerticle;
 import io.sorted.app.conf.IMode;
+import io.sorted.app.metrics.Metrics;
 import io.sorted.app.module.AppModule;
 import io.vertx.core.Context;
 import io.vertx.core.Vertx;
@@ -38,6 +39,7 @@ public class InfoModule extends AppModule {
   public void init(Vertx vertx, Context context) {
     super.init(vertx, context);
     router.get("/").handler(this::index);
+    router.get("/metrics").handler(this::metrics);
   }
 
   /**
@@ -54,4 +56,12 @@ public class InfoModule extends AppModule {
         .put(DEBUG_PROP, isDebugging())
     );
   }
+
+  /**
+   * app metrics response
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   */
+  protected void metrics(RoutingContext ctx) {
+    ctx.json(Metrics.of(vertx).toJson());
+  }
 }
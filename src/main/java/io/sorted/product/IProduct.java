@@ -1,10 +1,33 @@
 package io.sorted.product;
 
+import io.sorted.app.service.Reranker;
+import io.vertx.core.json.JsonObject;
+
 public interface IProduct {
+  String RANK_FIELD = "rank";
+  String RANK_KEY_FIELD = "rank_key";
+
   static String collection() {
     return "products";
   }
 
+  /**
+   * The fields the rank key of a product is computed from
+   * @return The projection of the rank fields
+   */
+  static JsonObject rankFields() {
+    return new JsonObject().put(RANK_FIELD, 1).put(RANK_KEY_FIELD, 1);
+  }
+
+  /**
+   * The rank key of a product, its rank_key once it was moved, otherwise the key of its rank
+   * @param document The product document
+   * @return The rank key, null if the product isn't ranked
+   */
+  static String rankKey(JsonObject document) {
+    return Reranker.key(document, RANK_FIELD, RANK_KEY_FIELD);
+  }
+
   String name();
   String description();
   Integer rank();
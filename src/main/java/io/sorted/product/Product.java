@@ -1,5 +1,5 @@
 package io.sorted.product;
 
-public record Product(String name, String description, Integer rank, String _id) implements IProduct {
+public record Product(String name, String description, Integer rank, String rank_key, String _id, Long version) implements IProduct {
 
 }
@@ -0,0 +1,64 @@
+package io.sorted.product;
+
+import io.sorted.app.service.MemoryRepo;
+import io.sorted.app.service.RankIndex;
+import io.sorted.app.service.RankTracker;
+import io.sorted.app.service.Ranked;
+import io.sorted.app.service.Reranker;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+public class ProductMemoryRepo extends MemoryRepo implements ProductRepo, Ranked {
+  private final RankTracker ranks = new RankTracker(this, IProduct.rankFields(), IProduct::rankKey, this::getMany);
+  private final Reranker reranker;
+
+  public ProductMemoryRepo(Vertx vertx, String collectionName, JsonObject config) {
+    super(vertx, collectionName, config);
+    this.reranker = new Reranker(vertx, collectionName, this, ranks.index(), IProduct.RANK_FIELD, IProduct.RANK_KEY_FIELD
+      , config.getJsonObject(Reranker.RERANK_PROP, new JsonObject()));
+  }
+
+  /**
+   * The index of products by rank
+   * @return The rank index
+   */
+  @Override
+  public RankIndex ranks() {
+    return ranks.index();
+  }
+
+  /**
+   * Build the index of products by rank
+   * @return A future completed when the index is built
+   */
+  @Override
+  public Future<Void> buildRanks() {
+    return ranks.build();
+  }
+
+  /**
+   * Move a product in rank order, see {@link Reranker#move}
+   * @param id The product _id
+   * @param before The _id of the product to move before, null to only move after
+   * @param after The _id of the product to move after, null to only move before
+   * @return The moved product
+   */
+  @Override
+  public Future<JsonObject> move(String id, String before, String after) {
+    return reranker.move(id, before, after);
+  }
+
+  @Override
+  protected void written(Object id) {
+    super.written(id);
+    // called with the write lock held, so the stored document is the one just written
+    ranks.written(id, stored(id));
+  }
+
+  @Override
+  protected void writtenAll() {
+    super.writtenAll();
+    ranks.build();
+  }
+}
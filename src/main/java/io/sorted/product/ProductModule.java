@@ -3,13 +3,37 @@ package io.sorted.product;
 import am.ik.yavi.core.Constraint;
 import am.ik.yavi.core.Validator;
 import io.sorted.app.conf.IMode;
+import io.sorted.app.http.Http;
+import io.sorted.app.http.HttpStatus;
+import io.sorted.app.module.PageRequest;
 import io.sorted.app.module.RepoModule;
+import io.sorted.app.service.RankIndex;
+import io.sorted.app.service.Ranked;
 import io.sorted.app.validation.i18nValidatorBuilder;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Module to manage products
+ * Besides the repo routes products can be listed by position in rank order,
+ * answered from the in-process rank index without querying the datasource,
+ * and moved in rank order by writing only the moved product, see {@link io.sorted.app.service.Reranker}
  */
 public class ProductModule extends RepoModule<ProductRepo, Product> {
+  static final String FROM_PARAM = "from";
+  static final String TO_PARAM = "to";
+  static final String EXPAND_PARAM = "expand";
+  static final String BEFORE_PARAM = "before";
+  static final String AFTER_PARAM = "after";
+  static final long DEFAULT_TOP = 10;
+
   public ProductModule(IMode mode, Class<ProductRepo> repoClass, Class<Product> collectionClass) {
     super(mode, repoClass, collectionClass);
   }
@@ -25,6 +49,182 @@ public class ProductModule extends RepoModule<ProductRepo, Product> {
       .build();
   }
 
+  /**
+   * Products may be paged by rank as well as _id
+   * @return The sortable field names
+   */
+  @Override
+  protected Set<String> sortFields() {
+    return Set.of("rank");
+  }
+
+  /**
+   * rank_stats counts the ranked products and their lowest and highest rank
+   * @return The pipelines by name
+   */
+  @Override
+  protected Map<String, JsonArray> pipelines() {
+    return Map.of("rank_stats", new JsonArray()
+      .add(new JsonObject().put("$match", new JsonObject()
+        .put(IProduct.RANK_FIELD, new JsonObject().put("$ne", null))))
+      .add(new JsonObject().put("$group", new JsonObject()
+        .putNull("_id")
+        .put("count", new JsonObject().put("$sum", 1))
+        .put("min_rank", new JsonObject().put("$min", "$" + IProduct.RANK_FIELD))
+        .put("max_rank", new JsonObject().put("$max", "$" + IProduct.RANK_FIELD)))));
+  }
+
+  /**
+   * Adds the rank routes, before the id routes so top and range aren't taken for ids
+   */
+  @Override
+  protected void routes() {
+    if (getEnabled()) {
+      router.get("/top").handler(this::top);
+      router.get("/range").handler(this::range);
+      router.get("/:id/position").handler(this::position);
+    }
+    if (updateEnabled()) router.post("/:id/move").handler(this::move);
+    super.routes();
+  }
+
+  /**
+   * The index of products by rank, only available when the repo runs in this Vert.x instance
+   * Fails the request with 503 if the index isn't available
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   * @return The rank index, null if the repo is remote
+   */
+  protected RankIndex ranks(RoutingContext ctx) {
+    if (localRepo instanceof Ranked ranked) return ranked.ranks();
+    ctx.fail(HttpStatus.SERVICE_UNAVAILABLE.value());
+    return null;
+  }
+
+  static long longParam(RoutingContext ctx, String name, Long defaultValue) {
+    String value = PageRequest.param(ctx, name);
+    if (value == null) {
+      if (defaultValue == null) throw new IllegalArgumentException(String.format("%s is required", name));
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(String.format("%s must be a number", name));
+    }
+  }
+
+  /**
+   * The top ranked products, lowest rank first
+   * Supports the limit query parameter, 10 by default, and expand, see {@link #entries}
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   */
+  protected void top(RoutingContext ctx) {
+    RankIndex ranks = ranks(ctx);
+    if (ranks == null) return;
+    long limit;
+    try {
+      limit = longParam(ctx, PageRequest.LIMIT_PARAM, DEFAULT_TOP);
+      if (limit < 1 || limit > PageRequest.MAX_LIMIT)
+        throw new IllegalArgumentException(String.format("%s must be between 1 and %d"
+          , PageRequest.LIMIT_PARAM, PageRequest.MAX_LIMIT));
+    } catch (IllegalArgumentException e) {
+      ctx.fail(HttpStatus.BAD_REQUEST.value(), e);
+      return;
+    }
+    entries(ctx, ranks.top((int) limit));
+  }
+
+  /**
+   * The products between two positions in rank order
+   * Requires the from and to query parameters, the positions of the first and last products starting at 1
+   * Supports expand, see {@link #entries}
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   */
+  protected void range(RoutingContext ctx) {
+    RankIndex ranks = ranks(ctx);
+    if (ranks == null) return;
+    long from;
+    long to;
+    try {
+      from = longParam(ctx, FROM_PARAM, null);
+      to = longParam(ctx, TO_PARAM, null);
+      if (from < 1 || to < from || to - from >= PageRequest.MAX_LIMIT)
+        throw new IllegalArgumentException(String.format("%s must be at least 1 and at most %d before %s"
+          , FROM_PARAM, PageRequest.MAX_LIMIT, TO_PARAM));
+    } catch (IllegalArgumentException e) {
+      ctx.fail(HttpStatus.BAD_REQUEST.value(), e);
+      return;
+    }
+    entries(ctx, ranks.range(from, to));
+  }
+
+  /**
+   * The position of a product in rank order, 404 if the product isn't ranked
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   */
+  protected void position(RoutingContext ctx) {
+    RankIndex ranks = ranks(ctx);
+    if (ranks == null) return;
+    RankIndex.Entry entry = ranks.position(ctx.pathParam("id"));
+    if (entry == null) ctx.fail(HttpStatus.NOT_FOUND.value());
+    else Http.send(ctx, entry.toJson());
+  }
+
+  /**
+   * Move a product in rank order
+   * Requires the before or after query parameter, or both, the _id of the products to move the product between
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   */
+  protected void move(RoutingContext ctx) {
+    repo.move(ctx.pathParam("id"), PageRequest.param(ctx, BEFORE_PARAM), PageRequest.param(ctx, AFTER_PARAM))
+      .onSuccess(it -> Http.send(ctx, it))
+      .onFailure(e -> {
+        // the repo fails invalid moves with the status code
+        if (e instanceof ReplyException && ((ReplyException) e).failureCode() >= 400) {
+          ctx.fail(((ReplyException) e).failureCode(), e);
+        } else {
+          ctx.fail(e);
+        }
+      });
+  }
+
+  /**
+   * Setting the rank of a moved product replaces the rank_key the move gave it
+   * @param patch The fields to merge
+   * @return The update
+   */
+  @Override
+  protected JsonObject mergeUpdate(JsonObject patch) {
+    JsonObject update = super.mergeUpdate(patch);
+    if (patch.containsKey(IProduct.RANK_FIELD) && !patch.containsKey(IProduct.RANK_KEY_FIELD))
+      update.put("$unset", new JsonObject().put(IProduct.RANK_KEY_FIELD, ""));
+    return update;
+  }
+
+  /**
+   * Respond with index entries of _id, rank and position
+   * With the expand query parameter the entries are merged with the product documents, fetched in one query
+   * @param ctx Represents the context for the handling of a request in Vert.x-Web.
+   * @param entries The entries in rank order
+   */
+  protected void entries(RoutingContext ctx, List<RankIndex.Entry> entries) {
+    if (!"true".equals(PageRequest.param(ctx, EXPAND_PARAM))) {
+      Http.send(ctx, new JsonArray(entries.stream().map(RankIndex.Entry::toJson).collect(Collectors.toList())));
+      return;
+    }
+    JsonArray ids = new JsonArray(entries.stream().map(RankIndex.Entry::id).collect(Collectors.toList()));
+    repo.find(new JsonObject().put(PageRequest.ID_FIELD, new JsonObject().put("$in", ids)))
+      .onSuccess(documents -> {
+        Map<Object, JsonObject> byId = documents.stream()
+          .collect(Collectors.toMap(it -> it.getValue(PageRequest.ID_FIELD), it -> it));
+        // documents deleted since they were indexed are left out
+        Http.send(ctx, new JsonArray(entries.stream()
+          .filter(it -> byId.containsKey(it.id()))
+          .map(it -> byId.get(it.id()).put("position", it.position()))
+          .collect(Collectors.toList())));
+      }).onFailure(ctx::fail);
+  }
+
   /**
    * Get the name of the module, which implies the subdomain route
    * @return Module name
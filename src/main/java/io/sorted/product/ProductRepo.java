@@ -1,10 +1,22 @@
 package io.sorted.product;
 
 import io.sorted.app.service.Repo;
+import io.vertx.codegen.annotations.Nullable;
 import io.vertx.codegen.annotations.ProxyGen;
 import io.vertx.codegen.annotations.VertxGen;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
 
 @ProxyGen
 @VertxGen
 public interface ProductRepo extends Repo {
+  /**
+   * Move a product in rank order, writing only the moved product
+   * Fails with a ServiceException of 400 if the neighbours are invalid or 404 if a product isn't found
+   * @param id The product _id
+   * @param before The _id of the product to move before, null to only move after
+   * @param after The _id of the product to move after, null to only move before
+   * @return The moved product
+   */
+  Future<JsonObject> move(String id, @Nullable String before, @Nullable String after);
 }
@@ -1,10 +1,98 @@
 package io.sorted.product;
 
+import io.sorted.app.service.Index;
+import io.sorted.app.service.RankBroadcast;
+import io.sorted.app.service.RankIndex;
+import io.sorted.app.service.RankTracker;
+import io.sorted.app.service.Ranked;
+import io.sorted.app.service.Reranker;
 import io.sorted.app.service.RepoImpl;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
 import io.vertx.ext.mongo.MongoClient;
 
-public class ProductRepoImpl extends RepoImpl implements ProductRepo {
-  public ProductRepoImpl(MongoClient mongo, String collectionName) {
-    super(mongo, collectionName);
+import java.util.List;
+
+public class ProductRepoImpl extends RepoImpl implements ProductRepo, Ranked {
+  private final RankTracker ranks = new RankTracker(this, IProduct.rankFields(), IProduct::rankKey, this::fetchMany);
+  private final Reranker reranker;
+  // the other nodes only see their own writes, so this node's writes are sent to their rank indexes
+  private final RankBroadcast broadcast;
+
+  public ProductRepoImpl(Vertx vertx, MongoClient mongo, String collectionName, JsonObject config) {
+    super(vertx, mongo, collectionName, config);
+    JsonObject rerank = config.getJsonObject(Reranker.RERANK_PROP, new JsonObject());
+    this.reranker = new Reranker(vertx, collectionName, this, ranks.index(), IProduct.RANK_FIELD, IProduct.RANK_KEY_FIELD
+      , rerank);
+    this.broadcast = vertx.isClustered() ? new RankBroadcast(vertx, collectionName, rerank, ranks) : null;
+  }
+
+  /**
+   * Products are paged by rank and looked up by name, moved products are found by rank_key to rebalance them
+   * @return The declared indexes
+   */
+  @Override
+  public List<Index> indexes() {
+    return List.of(
+      Index.of(new JsonObject().put("rank", 1).put("_id", 1))
+      , Index.on("name")
+      , Index.on(IProduct.RANK_KEY_FIELD));
+  }
+
+  /**
+   * The index of products by rank
+   * @return The rank index
+   */
+  @Override
+  public RankIndex ranks() {
+    return ranks.index();
+  }
+
+  /**
+   * Build the index of products by rank
+   * @return A future completed when the index is built
+   */
+  @Override
+  public Future<Void> buildRanks() {
+    return ranks.build();
+  }
+
+  /**
+   * Move a product in rank order, see {@link Reranker#move}
+   * @param id The product _id
+   * @param before The _id of the product to move before, null to only move after
+   * @param after The _id of the product to move after, null to only move before
+   * @return The moved product
+   */
+  @Override
+  public Future<JsonObject> move(String id, String before, String after) {
+    return reranker.move(id, before, after);
+  }
+
+  @Override
+  protected void written(Object id) {
+    super.written(id);
+    ranks.written(id);
+    if (broadcast != null) broadcast.written(id);
+  }
+
+  @Override
+  protected void written(Object id, JsonObject document) {
+    super.written(id, document);
+    ranks.written(id, document);
+    if (broadcast != null) broadcast.written(id);
+  }
+
+  @Override
+  protected void writtenAll() {
+    super.writtenAll();
+    ranks.build();
+    if (broadcast != null) broadcast.writtenAll();
+  }
+
+  @Override
+  public Future<Void> close() {
+    return broadcast == null ? super.close() : broadcast.close().eventually(v -> super.close());
   }
 }
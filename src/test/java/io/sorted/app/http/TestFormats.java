@@ -0,0 +1,77 @@
+package io.sorted.app.http;
+
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.vertx.core.Future;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.handler.BodyHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.time.LocalDate;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(VertxUnitRunner.class)
+public class TestFormats {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  @Test
+  public void roundTripsEachFormat() {
+    Formats.registerModule(new JavaTimeModule());
+    JsonObject document = new JsonObject().put("name", "apple").put("rank", 2).put("ready", true)
+      .put("tags", new JsonArray().add("red"));
+    for (String type : new String[] { Formats.APPLICATION_CBOR, Formats.APPLICATION_SMILE, Formats.APPLICATION_MSGPACK }) {
+      Object decoded = Formats.decode(type, Formats.encode(type, document));
+      assertEquals(document, decoded);
+    }
+    // the time module carries over to the binary formats
+    Dated dated = new Dated(LocalDate.of(2022, 5, 1));
+    assertEquals(JsonObject.mapFrom(dated), Formats.decode(Formats.APPLICATION_CBOR, Formats.encode(Formats.APPLICATION_CBOR, dated)));
+  }
+
+  public record Dated(LocalDate date) { }
+
+  @Test
+  public void negotiatesRequestsAndResponses(TestContext context) {
+    Router router = Router.router(rule.vertx());
+    router.route().handler(BodyHandler.create());
+    router.post("/echo").handler(ctx -> Http.send(ctx, Http.bodyAsJsonObject(ctx).put("echo", true)));
+    Buffer cbor = Formats.encode(Formats.APPLICATION_CBOR, new JsonObject().put("name", "apple"));
+
+    rule.vertx().createHttpServer().requestHandler(router).listen(0)
+      .compose(server -> {
+        HttpClient client = rule.vertx().createHttpClient();
+        Future<HttpClientResponse> binary = client.request(HttpMethod.POST, server.actualPort(), "localhost", "/echo")
+          .compose(request -> request.putHeader(HttpHeaders.CONTENT_TYPE, Formats.APPLICATION_CBOR)
+            .putHeader(HttpHeaders.ACCEPT, Formats.APPLICATION_SMILE + ", " + Http.APPLICATION_JSON + ";q=0.5")
+            .send(cbor));
+        return binary.compose(response -> response.body().map(body -> {
+          context.verify(v -> {
+            assertEquals(Formats.APPLICATION_SMILE, response.getHeader(HttpHeaders.CONTENT_TYPE));
+            assertEquals(new JsonObject().put("name", "apple").put("echo", true),
+              Formats.decode(Formats.APPLICATION_SMILE, body));
+          });
+          return client;
+        })).compose(it -> it.request(HttpMethod.POST, server.actualPort(), "localhost", "/echo")
+          .compose(request -> request.putHeader(HttpHeaders.ACCEPT, Http.APPLICATION_JSON + ", " + Formats.APPLICATION_CBOR + ";q=0.5")
+            .send(new JsonObject().put("name", "pear").toBuffer())));
+      })
+      .compose(response -> response.body().map(body -> {
+        assertEquals(Http.APPLICATION_JSON, response.getHeader(HttpHeaders.CONTENT_TYPE));
+        return body.toJsonObject();
+      }))
+      .onComplete(context.asyncAssertSuccess(json -> assertEquals("pear", json.getString("name"))));
+  }
+}
@@ -0,0 +1,45 @@
+package io.sorted.app.http;
+
+import io.sorted.app.service.IterableStream;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.ext.web.Router;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.stream.Stream;
+
+@RunWith(VertxUnitRunner.class)
+public class TestHttp {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  @Test
+  public void cancelsTheStreamWhenTheClientGoesAway(TestContext context) {
+    Vertx vertx = rule.vertx();
+    Async cancelled = context.async();
+    Router router = Router.router(vertx);
+    // a stream which never ends, like a cursor over a large collection
+    router.get("/").handler(ctx -> Http.streamJson(ctx, new IterableStream<>(vertx.getOrCreateContext()
+      , () -> Stream.iterate(0, i -> i + 1).map(i -> new JsonObject().put("_id", i)).iterator()) {
+      @Override
+      public synchronized IterableStream<JsonObject> handler(Handler<JsonObject> handler) {
+        if (handler == null) cancelled.complete();
+        return super.handler(handler);
+      }
+    }, true));
+
+    vertx.createHttpServer().requestHandler(router).listen(0)
+      .compose(server -> vertx.createHttpClient().request(HttpMethod.GET, server.actualPort(), "localhost", "/"))
+      .compose(request -> request.send())
+      .onComplete(context.asyncAssertSuccess(response ->
+        response.handler(chunk -> response.request().connection().close())));
+  }
+}
@@ -0,0 +1,108 @@
+package io.sorted.app.module;
+
+import io.sorted.app.service.MemoryRepo;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.ext.web.Router;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(VertxUnitRunner.class)
+public class TestImporter {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  @Test
+  public void importsInBoundedBatches(TestContext context) {
+    MemoryRepo repo = new MemoryRepo(rule.vertx(), "products", new JsonObject()) { };
+    Router router = Router.router(rule.vertx());
+    // one batch of two documents in flight at a time
+    router.post("/_import").handler(ctx -> new Importer(ctx, repo, 2, 1, document -> {
+      if (document.getValue("name") == null) throw new IllegalArgumentException("name is required");
+      return BulkOperation.createReplace(new JsonObject().put("_id", document.getValue("_id")), document, true);
+    }).start());
+    Buffer body = Buffer.buffer();
+    for (int i = 0; i < 5; i++) {
+      body.appendString(new JsonObject().put("_id", "p" + i).put("name", "n" + i).encode()).appendString("\n");
+    }
+    body.appendString("{\"_id\":\"p9\"}\n").appendString("{\"_id\":\"p0\",\"name\":\"again\"}\n");
+
+    rule.vertx().createHttpServer().requestHandler(router).listen(0)
+      .compose(server -> rule.vertx().createHttpClient()
+        .request(HttpMethod.POST, server.actualPort(), "localhost", "/_import")
+        .compose(request -> request.send(body))
+        .compose(HttpClientResponse::body))
+      .compose(response -> {
+        JsonObject totals = response.toJsonObject();
+        context.verify(v -> {
+          assertEquals(5, (long) totals.getLong("upserted"));
+          assertEquals(1, (long) totals.getLong("modified"));
+          assertEquals(1, (long) totals.getLong("invalid"));
+          assertEquals(6, (long) totals.getJsonArray("errors").getJsonObject(0).getLong("line"));
+        });
+        return repo.get("p0");
+      })
+      .onComplete(context.asyncAssertSuccess(p0 -> assertEquals("again", p0.getString("name"))));
+  }
+
+  @Test
+  public void keepsTheLastLineOfAnId(TestContext context) {
+    List<List<BulkOperation>> writes = new ArrayList<>();
+    // the first batch completes after the ones sent behind it
+    MemoryRepo repo = new MemoryRepo(rule.vertx(), "products", new JsonObject()) {
+      @Override
+      public Future<MongoClientBulkWriteResult> bulk(List<BulkOperation> operations, BulkWriteOptions options) {
+        writes.add(operations);
+        if (writes.size() > 1) return super.bulk(operations, options);
+        Promise<MongoClientBulkWriteResult> promise = Promise.promise();
+        rule.vertx().setTimer(100, id -> super.bulk(operations, options).onComplete(promise));
+        return promise.future();
+      }
+    };
+    Router router = Router.router(rule.vertx());
+    // batches of two with two in flight
+    router.post("/_import").handler(ctx -> new Importer(ctx, repo, 2, 2
+      , document -> BulkOperation.createReplace(new JsonObject().put("_id", document.getValue("_id")), document, true))
+      .start());
+    Buffer body = Buffer.buffer();
+    // p0 is written by the first and the last batch, p1 twice in a row
+    List.of("p0:first", "p2:first", "p1:first", "p1:second", "p0:second").forEach(line -> {
+      String[] idName = line.split(":");
+      body.appendString(new JsonObject().put("_id", idName[0]).put("name", idName[1]).encode()).appendString("\n");
+    });
+
+    rule.vertx().createHttpServer().requestHandler(router).listen(0)
+      .compose(server -> rule.vertx().createHttpClient()
+        .request(HttpMethod.POST, server.actualPort(), "localhost", "/_import")
+        .compose(request -> request.send(body))
+        .compose(HttpClientResponse::body))
+      .compose(response -> {
+        context.verify(v -> {
+          assertEquals(3, (long) response.toJsonObject().getLong("upserted"));
+          // a batch never holds an _id twice
+          assertEquals(3, writes.size());
+        });
+        return repo.getMany(List.of("p0", "p1"));
+      })
+      .onComplete(context.asyncAssertSuccess(written -> context.verify(v -> {
+        assertEquals("second", written.get(0).getString("name"));
+        assertEquals("second", written.get(1).getString("name"));
+      })));
+  }
+}
@@ -0,0 +1,38 @@
+package io.sorted.app.module;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+
+public class TestPageRequest {
+  static String encode(JsonObject cursor) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.encode().getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void rejectsCursorsWithOperators() {
+    JsonObject valid = new JsonObject().put(PageRequest.CURSOR_SORT, "rank").put(PageRequest.CURSOR_VALUE, 2)
+      .put(PageRequest.CURSOR_ID, "b");
+    assertEquals(valid, PageRequest.cursor(encode(valid), "rank"));
+    JsonObject operator = valid.copy().put(PageRequest.CURSOR_VALUE, new JsonObject().put("$ne", null));
+    assertThrows(IllegalArgumentException.class, () -> PageRequest.cursor(encode(operator), "rank"));
+    JsonObject operatorId = valid.copy().put(PageRequest.CURSOR_ID, new JsonObject().put("$gt", ""));
+    assertThrows(IllegalArgumentException.class, () -> PageRequest.cursor(encode(operatorId), "rank"));
+    assertThrows(IllegalArgumentException.class, () -> PageRequest.cursor(encode(valid), "name"));
+  }
+
+  @Test
+  public void skipsBlankFields() {
+    assertEquals(List.of("name", "rank"), PageRequest.fields("name,, rank ,"));
+    assertNull(PageRequest.fields(" , "));
+    PageRequest page = new PageRequest(0, "rank", false, null, PageRequest.fields("name,,"));
+    assertEquals(new JsonObject().put("name", 1).put("rank", 1), page.options().getFields());
+  }
+}
@@ -0,0 +1,52 @@
+package io.sorted.app.module;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class TestQueryFilter {
+  record Item(String name, Integer rank, Boolean active, JsonObject details) { }
+
+  static MultiMap params(String... pairs) {
+    MultiMap params = MultiMap.caseInsensitiveMultiMap();
+    for (int i = 0; i < pairs.length; i += 2) params.add(pairs[i], pairs[i + 1]);
+    return params;
+  }
+
+  @Test
+  public void translatesParameters() {
+    QueryFilter filter = QueryFilter.of(Item.class);
+    JsonObject query = filter.query(params("name", "apple", "rank[gte]", "2", "rank[lt]", "10"
+      , "active[in]", "true,false", "limit", "5"));
+    assertEquals(new JsonObject()
+      .put("name", new JsonObject().put("$eq", "apple"))
+      .put("rank", new JsonObject().put("$gte", 2).put("$lt", 10))
+      .put("active", new JsonObject().put("$in", new JsonArray().add(true).add(false))), query);
+    assertEquals(new JsonObject(), filter.query(params("limit", "5")));
+  }
+
+  @Test
+  public void compilesEachShapeOnce() {
+    QueryFilter filter = QueryFilter.of(Item.class);
+    filter.query(params("rank[gte]", "2", "name", "apple"));
+    JsonObject query = filter.query(params("name", "pear", "rank[gte]", "3"));
+    assertEquals(1, filter.shapes());
+    assertEquals(3, (int) query.getJsonObject("rank").getInteger("$gte"));
+    filter.query(params("rank", "3"));
+    assertEquals(2, filter.shapes());
+  }
+
+  @Test
+  public void rejectsInvalidFilters() {
+    QueryFilter filter = QueryFilter.of(Item.class);
+    assertThrows(IllegalArgumentException.class, () -> filter.query(params("rank", "high")));
+    assertThrows(IllegalArgumentException.class, () -> filter.query(params("active[gt]", "true")));
+    assertThrows(IllegalArgumentException.class, () -> filter.query(params("details[eq]", "x")));
+    assertThrows(IllegalArgumentException.class, () -> filter.query(params("rank[regex]", "1")));
+    assertThrows(IllegalArgumentException.class, () -> filter.query(params("rank[gte", "1")));
+  }
+}
@@ -0,0 +1,227 @@
+package io.sorted.app.module;
+
+import io.sorted.app.conf.IMode;
+import io.sorted.app.service.Service;
+import io.sorted.product.Product;
+import io.sorted.product.ProductMemoryRepo;
+import io.sorted.product.ProductModule;
+import io.sorted.product.ProductRepo;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.ext.web.Router;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(VertxUnitRunner.class)
+public class TestRepoModule {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  HttpClient client;
+  int port;
+  ProductMemoryRepo repo;
+
+  @Before
+  public void deploy(TestContext context) {
+    Vertx vertx = rule.vertx();
+    repo = new ProductMemoryRepo(vertx, "products", new JsonObject());
+    Service.register(vertx, ProductRepo.class, repo);
+    ProductModule module = new ProductModule(new IMode() { }, ProductRepo.class, Product.class);
+    Router router = Router.router(vertx);
+    router.route().path("/*").failureHandler(ctx -> ctx.response().setStatusCode(ctx.statusCode()).end());
+    router.route("/product/*").subRouter(module.getRouter());
+    client = vertx.createHttpClient();
+    vertx.deployVerticle(module, new DeploymentOptions()
+        .setConfig(new JsonObject()
+          .put(RepoModule.VERSION_FIELD_PROP, "version")
+          .put(RepoModule.BULK_PROP, new JsonObject().put(RepoModule.BATCH_SIZE_PROP, 2))))
+      .compose(id -> vertx.createHttpServer().requestHandler(router).listen(0))
+      .onComplete(context.asyncAssertSuccess(server -> port = server.actualPort()));
+  }
+
+  Future<HttpClientResponse> send(HttpMethod method, String path, Buffer body) {
+    return client.request(method, port, "localhost", "/product" + path)
+      .compose(request -> request.send(body));
+  }
+
+  Future<JsonObject> bulk(JsonArray items, boolean ordered) {
+    return send(HttpMethod.POST, "/_bulk?ordered=" + ordered, items.toBuffer())
+      .compose(HttpClientResponse::body)
+      .map(Buffer::toJsonObject);
+  }
+
+  Future<Integer> status(HttpMethod method, String path, JsonObject body) {
+    return send(method, path, body.toBuffer()).map(HttpClientResponse::statusCode);
+  }
+
+  static JsonObject insert(String id) {
+    return new JsonObject().put("op", "insert")
+      .put("document", new JsonObject().put("_id", id).put("name", "product " + id));
+  }
+
+  static List<Integer> statuses(JsonObject result) {
+    return result.getJsonArray("items").stream()
+      .map(item -> ((JsonObject) item).getInteger("status"))
+      .collect(Collectors.toList());
+  }
+
+  @Test
+  public void reportsEachItemOfAFailedUnorderedBatch(TestContext context) {
+    // batches of two: [1, 2] then [1, 3], where the second insert of 1 is a duplicate
+    bulk(new JsonArray().add(insert("1")).add(insert("2")).add(insert("1")).add(insert("3")), false)
+      .onComplete(context.asyncAssertSuccess(result -> context.verify(v -> {
+        assertEquals(List.of(201, 201, 409, 201), statuses(result));
+        assertEquals(3L, (long) result.getLong("inserted"));
+      })));
+  }
+
+  @Test
+  public void skipsTheRestOfAFailedOrderedBatch(TestContext context) {
+    // batches [1, 1] then [2, 3]: the duplicate fails, the rest of the write never runs
+    bulk(new JsonArray().add(insert("1")).add(insert("1")).add(insert("2")).add(insert("3")), true)
+      .onComplete(context.asyncAssertSuccess(result -> context.verify(v -> {
+        assertEquals(List.of(201, 409, 424, 424), statuses(result));
+        assertEquals(1L, (long) result.getLong("inserted"));
+      })));
+  }
+
+  @Test
+  public void replacesOnlyTheExpectedVersion(TestContext context) {
+    repo.save(new JsonObject().put("_id", "1").put("name", "unversioned"))
+      // a document never versioned matches a replace without a version
+      .compose(saved -> status(HttpMethod.PUT, "/1", new JsonObject().put("name", "first")))
+      .compose(first -> {
+        context.verify(v -> assertEquals(200, (int) first));
+        return status(HttpMethod.PUT, "/1", new JsonObject().put("name", "stale").put("version", 0));
+      })
+      .compose(stale -> {
+        context.verify(v -> assertEquals(409, (int) stale));
+        return status(HttpMethod.PUT, "/1", new JsonObject().put("name", "second").put("version", 1));
+      })
+      .compose(second -> {
+        context.verify(v -> assertEquals(200, (int) second));
+        return status(HttpMethod.PUT, "/2", new JsonObject().put("name", "missing").put("version", 1));
+      })
+      .compose(missing -> {
+        context.verify(v -> assertEquals(404, (int) missing));
+        return repo.get("1");
+      })
+      .onComplete(context.asyncAssertSuccess(replaced -> context.verify(v -> {
+        assertEquals("second", replaced.getString("name"));
+        assertEquals(2L, (long) replaced.getLong("version"));
+      })));
+  }
+
+  @Test
+  public void replacesTheStoredVersionWithoutAVersion(TestContext context) {
+    JsonArray items = new JsonArray().add(new JsonObject().put("op", "replace").put("_id", "1")
+      .put("document", new JsonObject().put("name", "bulk")));
+
+    repo.save(new JsonObject().put("_id", "1").put("name", "first").put("version", 3L))
+      // a replace which doesn't send a version isn't checked, it increments the stored one
+      .compose(saved -> status(HttpMethod.PUT, "/1", new JsonObject().put("name", "second")))
+      .compose(replaced -> {
+        context.verify(v -> assertEquals(200, (int) replaced));
+        return status(HttpMethod.PUT, "/2", new JsonObject().put("name", "missing"));
+      })
+      .compose(missing -> {
+        context.verify(v -> assertEquals(404, (int) missing));
+        return repo.get("1");
+      })
+      .compose(replaced -> {
+        context.verify(v -> {
+          assertEquals("second", replaced.getString("name"));
+          assertEquals(4L, (long) replaced.getLong("version"));
+        });
+        return bulk(items, true);
+      })
+      .compose(result -> {
+        context.verify(v -> assertEquals(List.of(200), statuses(result)));
+        return repo.get("1");
+      })
+      .onComplete(context.asyncAssertSuccess(replaced -> context.verify(v -> {
+        assertEquals("bulk", replaced.getString("name"));
+        assertEquals(5L, (long) replaced.getLong("version"));
+      })));
+  }
+
+  @Test
+  public void mergesOnlyTheExpectedVersion(TestContext context) {
+    repo.save(new JsonObject().put("_id", "1").put("name", "first").put("version", 3L))
+      .compose(saved -> status(HttpMethod.POST, "/1", new JsonObject().put("name", "stale").put("version", 2)))
+      .compose(stale -> {
+        context.verify(v -> assertEquals(409, (int) stale));
+        return status(HttpMethod.POST, "/2", new JsonObject().put("name", "missing").put("version", 3));
+      })
+      .compose(missing -> {
+        context.verify(v -> assertEquals(404, (int) missing));
+        return status(HttpMethod.POST, "/1", new JsonObject().put("name", "second").put("version", 3));
+      })
+      .onComplete(context.asyncAssertSuccess(second -> context.verify(v -> assertEquals(200, (int) second))));
+  }
+
+  @Test
+  public void reportsVersionConflictsOfEachBulkItem(TestContext context) {
+    JsonArray items = new JsonArray()
+      .add(new JsonObject().put("op", "update").put("_id", "1")
+        .put("document", new JsonObject().put("name", "first").put("version", 1)))
+      // the first update moved the version on
+      .add(new JsonObject().put("op", "update").put("_id", "1")
+        .put("document", new JsonObject().put("name", "stale").put("version", 1)))
+      .add(new JsonObject().put("op", "update").put("_id", "9")
+        .put("document", new JsonObject().put("name", "missing")))
+      .add(new JsonObject().put("op", "replace").put("_id", "1")
+        .put("document", new JsonObject().put("name", "second").put("version", 2)));
+
+    repo.save(new JsonObject().put("_id", "1").put("name", "new").put("version", 1L))
+      .compose(saved -> bulk(items, false))
+      .compose(result -> {
+        context.verify(v -> {
+          assertEquals(List.of(200, 409, 404, 200), statuses(result));
+          assertEquals(2L, (long) result.getLong("matched"));
+        });
+        return repo.get("1");
+      })
+      .onComplete(context.asyncAssertSuccess(replaced -> context.verify(v -> {
+        assertEquals("second", replaced.getString("name"));
+        assertEquals(3L, (long) replaced.getLong("version"));
+      })));
+  }
+
+  @Test
+  public void answersUnchangedListsWithNotModified(TestContext context) {
+    repo.save(new JsonObject().put("_id", "1").put("name", "first"))
+      .compose(saved -> send(HttpMethod.GET, "/", Buffer.buffer()))
+      .compose(listed -> {
+        String etag = listed.getHeader(HttpHeaders.ETAG);
+        context.verify(v -> assertEquals(200, listed.statusCode()));
+        return client.request(HttpMethod.GET, port, "localhost", "/product/")
+          .compose(request -> request.putHeader(HttpHeaders.IF_NONE_MATCH, etag).send())
+          .compose(unchanged -> {
+            context.verify(v -> assertEquals(304, unchanged.statusCode()));
+            return repo.save(new JsonObject().put("_id", "2").put("name", "second"));
+          })
+          .compose(saved -> client.request(HttpMethod.GET, port, "localhost", "/product/"))
+          .compose(request -> request.putHeader(HttpHeaders.IF_NONE_MATCH, etag).send());
+      })
+      .onComplete(context.asyncAssertSuccess(changed -> context.verify(v -> assertEquals(200, changed.statusCode()))));
+  }
+}
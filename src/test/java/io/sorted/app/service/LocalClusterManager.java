@@ -0,0 +1,166 @@
+package io.sorted.app.service;
+
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.impl.VertxInternal;
+import io.vertx.core.shareddata.AsyncMap;
+import io.vertx.core.shareddata.Counter;
+import io.vertx.core.shareddata.Lock;
+import io.vertx.core.shareddata.impl.AsynchronousCounter;
+import io.vertx.core.shareddata.impl.LocalAsyncLocks;
+import io.vertx.core.shareddata.impl.LocalAsyncMapImpl;
+import io.vertx.core.spi.cluster.ClusterManager;
+import io.vertx.core.spi.cluster.NodeInfo;
+import io.vertx.core.spi.cluster.NodeListener;
+import io.vertx.core.spi.cluster.NodeSelector;
+import io.vertx.core.spi.cluster.RegistrationInfo;
+import io.vertx.core.spi.cluster.RegistrationUpdateEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A cluster manager of the Vert.x instances of this JVM, so clustered tests need no outside services
+ * The membership, registrations and shared data are kept in static maps, the event bus still connects the nodes over localhost.
+ */
+public class LocalClusterManager implements ClusterManager {
+  private static final Map<String, LocalClusterManager> nodes = new ConcurrentHashMap<>();
+  private static final Map<String, NodeInfo> nodeInfos = new ConcurrentHashMap<>();
+  private static final Map<String, List<RegistrationInfo>> registrations = new ConcurrentHashMap<>();
+  private static final Map<String, Map<Object, Object>> syncMaps = new ConcurrentHashMap<>();
+  private static final Map<String, AsyncMap<Object, Object>> asyncMaps = new ConcurrentHashMap<>();
+  private static final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+  private static final LocalAsyncLocks locks = new LocalAsyncLocks();
+
+  private VertxInternal vertx;
+  private NodeSelector nodeSelector;
+  private NodeListener nodeListener;
+  private volatile String nodeId;
+
+  @Override
+  public void init(Vertx vertx, NodeSelector nodeSelector) {
+    this.vertx = (VertxInternal) vertx;
+    this.nodeSelector = nodeSelector;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <K, V> void getAsyncMap(String name, Promise<AsyncMap<K, V>> promise) {
+    promise.complete((AsyncMap<K, V>) asyncMaps.computeIfAbsent(name, it -> new LocalAsyncMapImpl<>(vertx)));
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <K, V> Map<K, V> getSyncMap(String name) {
+    return (Map<K, V>) syncMaps.computeIfAbsent(name, it -> new ConcurrentHashMap<>());
+  }
+
+  @Override
+  public void getLockWithTimeout(String name, long timeout, Promise<Lock> promise) {
+    locks.acquire(vertx.getOrCreateContext(), name, timeout).onComplete(promise);
+  }
+
+  @Override
+  public void getCounter(String name, Promise<Counter> promise) {
+    promise.complete(new AsynchronousCounter(vertx, counters.computeIfAbsent(name, it -> new AtomicLong())));
+  }
+
+  @Override
+  public String getNodeId() {
+    return nodeId;
+  }
+
+  @Override
+  public List<String> getNodes() {
+    return new ArrayList<>(nodes.keySet());
+  }
+
+  @Override
+  public void nodeListener(NodeListener listener) {
+    this.nodeListener = listener;
+  }
+
+  @Override
+  public void setNodeInfo(NodeInfo nodeInfo, Promise<Void> promise) {
+    nodeInfos.put(nodeId, nodeInfo);
+    promise.complete();
+  }
+
+  @Override
+  public NodeInfo getNodeInfo() {
+    return nodeInfos.get(nodeId);
+  }
+
+  @Override
+  public void getNodeInfo(String nodeId, Promise<NodeInfo> promise) {
+    NodeInfo nodeInfo = nodeInfos.get(nodeId);
+    if (nodeInfo == null) promise.fail(String.format("%s is not a member of the cluster", nodeId));
+    else promise.complete(nodeInfo);
+  }
+
+  @Override
+  public void join(Promise<Void> promise) {
+    String id = UUID.randomUUID().toString();
+    nodeId = id;
+    nodes.forEach((other, manager) -> manager.notify(listener -> listener.nodeAdded(id)));
+    nodes.put(id, this);
+    promise.complete();
+  }
+
+  @Override
+  public void leave(Promise<Void> promise) {
+    String id = nodeId;
+    nodes.remove(id);
+    nodeInfos.remove(id);
+    registrations.forEach((address, infos) -> {
+      if (infos.removeIf(info -> info.nodeId().equals(id))) updated(address);
+    });
+    nodes.forEach((other, manager) -> manager.notify(listener -> listener.nodeLeft(id)));
+    nodeId = null;
+    promise.complete();
+  }
+
+  @Override
+  public boolean isActive() {
+    return nodeId != null;
+  }
+
+  @Override
+  public void addRegistration(String address, RegistrationInfo registrationInfo, Promise<Void> promise) {
+    registrations.computeIfAbsent(address, it -> new CopyOnWriteArrayList<>()).add(registrationInfo);
+    updated(address);
+    promise.complete();
+  }
+
+  @Override
+  public void removeRegistration(String address, RegistrationInfo registrationInfo, Promise<Void> promise) {
+    List<RegistrationInfo> infos = registrations.get(address);
+    if (infos != null && infos.remove(registrationInfo)) updated(address);
+    promise.complete();
+  }
+
+  @Override
+  public void getRegistrations(String address, Promise<List<RegistrationInfo>> promise) {
+    promise.complete(new ArrayList<>(registrations.getOrDefault(address, List.of())));
+  }
+
+  // every node learns of the new registrations of the address, like a cluster manager's listeners would
+  static void updated(String address) {
+    List<RegistrationInfo> infos = new ArrayList<>(registrations.getOrDefault(address, List.of()));
+    nodes.values().forEach(manager -> manager.nodeSelector.registrationsUpdated(new RegistrationUpdateEvent(address, infos)));
+  }
+
+  void notify(Consumer<NodeListener> event) {
+    NodeListener listener = nodeListener;
+    if (listener != null) vertx.<Void>executeBlocking(promise -> {
+      event.accept(listener);
+      promise.complete();
+    }, false);
+  }
+}
@@ -0,0 +1,38 @@
+package io.sorted.app.service;
+
+import io.vertx.ext.mongo.MongoClient;
+
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * A Mongo client for tests which answers the methods of a map by name
+ * Any other method throws UnsupportedOperationException, so a test fails on a call it didn't expect
+ */
+public class MongoStub {
+  /**
+   * Answers a call of the client
+   */
+  @FunctionalInterface
+  public interface Answer {
+    /**
+     * @param args The arguments of the call
+     * @return The result of the call, such as a future
+     */
+    Object answer(Object[] args);
+  }
+
+  /**
+   * Create a client
+   * @param answers The answers by method name
+   * @return The client
+   */
+  public static MongoClient of(Map<String, Answer> answers) {
+    return (MongoClient) Proxy.newProxyInstance(MongoClient.class.getClassLoader(), new Class<?>[] { MongoClient.class }
+      , (proxy, method, args) -> {
+        Answer answer = answers.get(method.getName());
+        if (answer == null) throw new UnsupportedOperationException(method.getName());
+        return answer.answer(args);
+      });
+  }
+}
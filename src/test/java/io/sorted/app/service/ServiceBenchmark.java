@@ -0,0 +1,117 @@
+package io.sorted.app.service;
+
+import io.sorted.product.ProductMemoryRepo;
+import io.sorted.product.ProductRepo;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.serviceproxy.ServiceBinder;
+import io.vertx.serviceproxy.ServiceProxyBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Compares repo calls over the event bus with the default codecs, over the event bus with the service codec,
+ * and direct calls to the local implementation, by throughput, latency and bytes allocated per call
+ * Not a unit test, run it with
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.sorted.app.service.ServiceBenchmark
+ * and optionally the arguments: calls of get (default 200000), concurrency (default 64)
+ * and the number of documents of list (default 50000)
+ */
+public class ServiceBenchmark {
+  static final String DEFAULT_CODECS = ProductRepo.class.getName() + ".default";
+
+  public static void main(String[] args) {
+    int calls = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+    int documents = args.length > 2 ? Integer.parseInt(args[2]) : 50_000;
+    Vertx vertx = Vertx.vertx();
+    ProductMemoryRepo impl = new ProductMemoryRepo(vertx, "products", new JsonObject());
+    vertx.runOnContext(v -> {
+      Service.register(vertx, ProductRepo.class, impl);
+      // the same service bound the way it was before the service codec, for comparison
+      new ServiceBinder(vertx).setAddress(DEFAULT_CODECS).register(ProductRepo.class, impl);
+    });
+
+    List<BulkOperation> inserts = new ArrayList<>(documents);
+    for (int i = 0; i < documents; i++) {
+      inserts.add(BulkOperation.createInsert(new JsonObject().put("_id", String.valueOf(i))
+        .put("name", "product " + i).put("rank", i).put("price", i * 1.5).put("ready", i % 2 == 0)));
+    }
+    impl.bulk(inserts, new BulkWriteOptions(false))
+      // the caller runs on its own verticle context like a module does
+      .compose(saved -> vertx.deployVerticle(new AbstractVerticle() {
+        @Override
+        public void start(Promise<Void> started) {
+          ProductRepo copying = new ServiceProxyBuilder(vertx).setAddress(DEFAULT_CODECS).build(ProductRepo.class);
+          ProductRepo bus = Service.proxy(vertx, ProductRepo.class);
+          ProductRepo local = Service.get(vertx, ProductRepo.class);
+          Function<ProductRepo, Future<?>> get = repo -> repo.get("1");
+          Function<ProductRepo, Future<?>> list = ProductRepo::list;
+          int lists = Math.max(10, calls / documents * 4);
+          // warm up every path before measuring
+          run("warm up", copying, get, calls / 4, concurrency)
+            .compose(it -> run("warm up", bus, get, calls / 4, concurrency))
+            .compose(it -> run("warm up", local, get, calls / 4, concurrency))
+            .compose(it -> run("warm up", copying, list, lists, 1))
+            .compose(it -> run("warm up", bus, list, lists, 1))
+            .compose(it -> run("warm up", local, list, lists, 1))
+            .compose(it -> report("get, default codecs", copying, get, calls, concurrency))
+            .compose(it -> report("get, service codec", bus, get, calls, concurrency))
+            .compose(it -> report("get, local", local, get, calls, concurrency))
+            .compose(it -> report("list, default codecs", copying, list, lists, 1))
+            .compose(it -> report("list, service codec", bus, list, lists, 1))
+            .compose(it -> report("list, local", local, list, lists, 1))
+            .onComplete(started);
+        }
+      }))
+      .onComplete(done -> {
+        if (done.failed()) done.cause().printStackTrace();
+        vertx.close();
+      });
+  }
+
+  // bytes allocated by every thread so far, the caller and the service run on different event loops
+  static long allocated() {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long total = 0;
+    for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) total += Math.max(0, bytes);
+    return total;
+  }
+
+  static Future<Void> report(String name, ProductRepo repo, Function<ProductRepo, Future<?>> call, int calls, int concurrency) {
+    long start = System.nanoTime();
+    long bytes = allocated();
+    return run(name, repo, call, calls, concurrency).onSuccess(v -> {
+      long nanos = System.nanoTime() - start;
+      // with concurrency calls in flight each call takes about concurrency times the time per call
+      System.out.printf("%-22s %,9d calls %,11.0f calls/s %,11.2f us latency %,13d bytes/call%n", name, calls
+        , calls / (nanos / 1e9), nanos / 1e3 / calls * concurrency, (allocated() - bytes) / calls);
+    });
+  }
+
+  static Future<Void> run(String name, ProductRepo repo, Function<ProductRepo, Future<?>> call, int calls, int concurrency) {
+    Promise<Void> done = Promise.promise();
+    int[] started = { 0 };
+    int[] completed = { 0 };
+    Runnable[] next = new Runnable[1];
+    next[0] = () -> {
+      if (started[0] >= calls) return;
+      started[0]++;
+      call.apply(repo).onComplete(it -> {
+        if (it.failed()) done.tryFail(new IllegalStateException(name, it.cause()));
+        else if (++completed[0] == calls) done.tryComplete();
+        else next[0].run();
+      });
+    };
+    for (int i = 0; i < concurrency; i++) next[0].run();
+    return done.future();
+  }
+}
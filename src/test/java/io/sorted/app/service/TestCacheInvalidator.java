@@ -0,0 +1,120 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.eventbus.EventBusOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(VertxUnitRunner.class)
+public class TestCacheInvalidator {
+  static final JsonObject testConfig = new JsonObject()
+    .put(CacheInvalidator.WINDOW_PROP, 1);
+  final List<Vertx> nodes = new ArrayList<>();
+  // the writing and the reading node of a cluster
+  Vertx a;
+  Vertx b;
+
+  @Before
+  public void join(TestContext context) {
+    CompositeFuture.all(node(), node()).onComplete(context.asyncAssertSuccess(started -> {
+      a = started.resultAt(0);
+      b = started.resultAt(1);
+    }));
+  }
+
+  @After
+  public void leave(TestContext context) {
+    nodes.forEach(node -> node.close(context.asyncAssertSuccess()));
+  }
+
+  Future<Vertx> node() {
+    return Vertx.clusteredVertx(new VertxOptions()
+        .setClusterManager(new LocalClusterManager())
+        .setEventBusOptions(new EventBusOptions().setHost("localhost").setPort(0)))
+      .onSuccess(nodes::add);
+  }
+
+  static JsonObject document(String id) {
+    return new JsonObject().put("_id", id);
+  }
+
+  // gives the consumers time to be registered across the cluster
+  static Future<Void> registered(Vertx vertx) {
+    Promise<Void> promise = Promise.promise();
+    vertx.setTimer(200, id -> promise.complete());
+    return promise.future();
+  }
+
+  static Future<Void> until(Vertx vertx, BooleanSupplier condition) {
+    Promise<Void> promise = Promise.promise();
+    long started = System.currentTimeMillis();
+    vertx.setPeriodic(10, id -> {
+      if (condition.getAsBoolean() || System.currentTimeMillis() - started > 5000) {
+        vertx.cancelTimer(id);
+        promise.complete();
+      }
+    });
+    return promise.future();
+  }
+
+  @Test
+  public void evictsFromOtherCaches(TestContext context) {
+    // repo instances of the same collection on two nodes
+    DocumentCache writerCache = new DocumentCache(a, "invalidate", testConfig);
+    DocumentCache readerCache = new DocumentCache(b, "invalidate", testConfig);
+    CacheInvalidator writer = new CacheInvalidator(a, "invalidate", testConfig, writerCache);
+    new CacheInvalidator(b, "invalidate", testConfig, readerCache);
+    writerCache.put(document("1"));
+    readerCache.put(document("1"));
+    readerCache.put(document("2"));
+    readerCache.put(document("3"));
+
+    registered(a)
+      .compose(v -> {
+        writer.invalidate("1");
+        writer.invalidate("2");
+        return until(b, () -> readerCache.size() == 1);
+      })
+      .onComplete(context.asyncAssertSuccess(v -> context.verify(it -> {
+        assertEquals(1, writerCache.size());
+        assertEquals(1, readerCache.size());
+        // both ids were published in one message
+        assertEquals(1L, Metrics.of(a).counter("repo.invalidate.cache.invalidations_published").sum());
+        assertEquals(1L, Metrics.of(b).counter("repo.invalidate.cache.invalidations_received").sum());
+      })));
+  }
+
+  @Test
+  public void clearsOtherCaches(TestContext context) {
+    DocumentCache writerCache = new DocumentCache(a, "clear", testConfig);
+    DocumentCache readerCache = new DocumentCache(b, "clear", testConfig);
+    CacheInvalidator writer = new CacheInvalidator(a, "clear", testConfig, writerCache);
+    new CacheInvalidator(b, "clear", testConfig, readerCache);
+    readerCache.put(document("1"));
+    readerCache.put(document("2"));
+
+    registered(a)
+      .compose(v -> {
+        writer.invalidate("1");
+        writer.invalidateAll();
+        return until(b, () -> readerCache.size() == 0);
+      })
+      .onComplete(context.asyncAssertSuccess(v -> context.verify(it -> assertEquals(0, readerCache.size()))));
+  }
+}
@@ -0,0 +1,178 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.sorted.product.ProductMemoryRepo;
+import io.sorted.product.ProductRepo;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.eventbus.EventBusOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(VertxUnitRunner.class)
+public class TestCluster {
+  static final JsonObject testConfig = new JsonObject()
+    .put(Advertiser.ADVERTISE_PROP, new JsonObject().put(Advertiser.INTERVAL_PROP, 20));
+  final List<Vertx> nodes = new ArrayList<>();
+
+  // a repo of one node whose datasource can be taken down
+  static class NodeRepo extends ProductMemoryRepo implements HealthChecked {
+    volatile boolean healthy = true;
+
+    NodeRepo(Vertx vertx, String node) {
+      super(vertx, "products", new JsonObject());
+      save(new JsonObject().put("_id", "1").put("node", node));
+    }
+
+    @Override
+    public Future<Void> checkHealth() {
+      return healthy ? Future.succeededFuture() : Future.failedFuture("the datasource is down");
+    }
+  }
+
+  @After
+  public void leave(TestContext context) {
+    nodes.forEach(node -> node.close(context.asyncAssertSuccess()));
+  }
+
+  Future<Vertx> node() {
+    return Vertx.clusteredVertx(new VertxOptions()
+        .setClusterManager(new LocalClusterManager())
+        .setEventBusOptions(new EventBusOptions().setHost("localhost").setPort(0)))
+      .onSuccess(nodes::add);
+  }
+
+  @Test
+  public void balancesAcrossHealthyNodes(TestContext context) {
+    Async async = context.async();
+    CompositeFuture.all(node(), node(), node()).onComplete(context.asyncAssertSuccess(started -> {
+      Vertx a = started.resultAt(0);
+      Vertx b = started.resultAt(1);
+      Vertx client = started.resultAt(2);
+      NodeRepo repoB = new NodeRepo(b, "b");
+      a.runOnContext(v -> Service.register(a, ProductRepo.class, new NodeRepo(a, "a"), testConfig));
+      b.runOnContext(v -> Service.register(b, ProductRepo.class, repoB, testConfig));
+
+      client.runOnContext(v -> {
+        ProductRepo repo = Service.get(client, ProductRepo.class);
+        until(client, repo, Set.of("a", "b"))
+          .compose(both -> {
+            repoB.healthy = false;
+            return until(client, repo, Set.of("a"));
+          })
+          .compose(withdrawn -> {
+            context.verify(it -> assertEquals(1L, Metrics.of(b).counter("service.ProductRepo.withdrawals").sum()));
+            repoB.healthy = true;
+            return until(client, repo, Set.of("a", "b"));
+          })
+          .onComplete(context.asyncAssertSuccess(advertised -> async.complete()));
+      });
+    }));
+  }
+
+  @Test
+  public void hasNoChangeTagWhenClustered(TestContext context) {
+    node().compose(a -> new RepoImpl(a, TestRepoImpl.recording(new ArrayList<>()), "tagged"
+        , new JsonObject().put(RepoImpl.SINGLE_WRITER_PROP, true)) { }.changeTag())
+      // another node wouldn't change this node's tag when it writes
+      .onComplete(context.asyncAssertSuccess(tag -> context.verify(v -> assertNull(tag))));
+  }
+
+  static JsonObject ranked(String id, int rank) {
+    return new JsonObject().put("_id", id).put("rank", rank);
+  }
+
+  @Test
+  public void movesTheRanksWrittenByOtherNodes(TestContext context) {
+    JsonObject rerank = new JsonObject().put(RankBroadcast.WINDOW_PROP, 1);
+    CompositeFuture.all(node(), node()).onComplete(context.asyncAssertSuccess(started -> {
+      Vertx a = started.resultAt(0);
+      Vertx b = started.resultAt(1);
+      // the datasource both nodes read
+      // on the reading node, the rebuilds of its index stream the repo on its own context
+      MemoryRepo repo = new MemoryRepo(b, "ranked", new JsonObject()) { };
+      RankTracker writer = new RankTracker(repo, new JsonObject().put("rank", 1), it -> it.getInteger("rank"), repo::getMany);
+      RankTracker reader = new RankTracker(repo, new JsonObject().put("rank", 1), it -> it.getInteger("rank"), repo::getMany);
+      RankBroadcast broadcast = new RankBroadcast(a, "ranked", rerank, writer);
+      new RankBroadcast(b, "ranked", rerank, reader);
+
+      repo.save(ranked("1", 2))
+        .compose(saved -> {
+          writer.written("1", saved);
+          return published(a, () -> broadcast.written("1"), () -> reader.index().size() == 1);
+        })
+        .compose(v -> {
+          context.verify(it -> assertTrue(Metrics.of(b).counter("repo.ranked.ranks.writes_received").sum() > 0));
+          return repo.save(ranked("2", 1));
+        })
+        // a write of unknown documents rebuilds the other indexes
+        .compose(saved -> published(a, broadcast::writtenAll, () -> reader.index().size() == 2))
+        .onComplete(context.asyncAssertSuccess(v -> context.verify(it -> assertEquals(List.of("2", "1")
+          , reader.index().top(2).stream().map(RankIndex.Entry::id).toList()))));
+    }));
+  }
+
+  // publish until the other node received it, its consumer may not be registered across the cluster yet
+  static Future<Void> published(Vertx vertx, Runnable publish, BooleanSupplier received) {
+    Promise<Void> promise = Promise.promise();
+    long started = System.currentTimeMillis();
+    publish.run();
+    vertx.setPeriodic(50, id -> {
+      if (received.getAsBoolean()) {
+        vertx.cancelTimer(id);
+        promise.complete();
+      } else if (System.currentTimeMillis() - started > 10000) {
+        vertx.cancelTimer(id);
+        promise.fail("the other node didn't receive the write");
+      } else {
+        publish.run();
+      }
+    });
+    return promise.future();
+  }
+
+  // call until the calls are answered by exactly the expected nodes
+  static Future<Void> until(Vertx vertx, ProductRepo repo, Set<String> expected) {
+    Promise<Void> promise = Promise.promise();
+    int[] tries = { 0 };
+    Runnable[] attempt = new Runnable[1];
+    attempt[0] = () -> answers(repo, 10).onComplete(it -> {
+      if (it.succeeded() && it.result().equals(expected)) promise.complete();
+      else if (++tries[0] == 200) promise.fail(String.format("expected answers from %s", expected));
+      else vertx.setTimer(10, id -> attempt[0].run());
+    });
+    attempt[0].run();
+    return promise.future();
+  }
+
+  // the nodes which answered a sequence of calls, each call in its own event loop tick
+  static Future<Set<String>> answers(ProductRepo repo, int calls) {
+    Set<String> answered = new HashSet<>();
+    Future<Void> chain = Future.succeededFuture();
+    for (int i = 0; i < calls; i++) {
+      chain = chain.compose(v -> repo.get("1").map(document -> {
+        answered.add(document.getString("node"));
+        return null;
+      }));
+    }
+    return chain.map(answered);
+  }
+}
@@ -0,0 +1,36 @@
+package io.sorted.app.service;
+
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(VertxUnitRunner.class)
+public class TestCountCache {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  @Test
+  public void reusesCountsUntilWritten(TestContext context) {
+    AtomicLong changes = new AtomicLong();
+    AtomicLong loads = new AtomicLong();
+    CountCache counts = new CountCache(rule.vertx(), "products", new JsonObject().put(CountCache.TTL_PROP, 60000)
+      , changes::get);
+    counts.get("{}", () -> Future.succeededFuture(loads.incrementAndGet()))
+      .compose(first -> counts.get("{}", () -> Future.succeededFuture(loads.incrementAndGet())))
+      .compose(cached -> {
+        context.verify(v -> assertEquals(1, (long) cached));
+        changes.incrementAndGet();
+        return counts.get("{}", () -> Future.succeededFuture(loads.incrementAndGet()));
+      })
+      .onComplete(context.asyncAssertSuccess(reloaded -> assertEquals(2, (long) reloaded)));
+  }
+}
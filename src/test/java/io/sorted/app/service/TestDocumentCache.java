@@ -0,0 +1,111 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+@RunWith(VertxUnitRunner.class)
+public class TestDocumentCache {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  @Test
+  public void loadsOnlyTheMissesOfAMultiGet(TestContext context) {
+    Vertx vertx = rule.vertx();
+    DocumentCache cache = new DocumentCache(vertx, "many", new JsonObject());
+    cache.put(new JsonObject().put("_id", "a").put("name", "apple"));
+    List<List<String>> loads = new ArrayList<>();
+
+    cache.getMany(Arrays.asList("b", "a", "x", "b"), ids -> {
+      loads.add(ids);
+      return Future.succeededFuture(Arrays.asList(new JsonObject().put("_id", "b").put("name", "banana"), null));
+    }).compose(documents -> {
+      context.verify(v -> {
+        assertEquals(List.of(List.of("b", "x")), loads);
+        assertEquals("banana", documents.get(0).getString("name"));
+        assertEquals("apple", documents.get(1).getString("name"));
+        assertNull(documents.get(2));
+        assertNotSame(documents.get(0), documents.get(3));
+        assertEquals(2, cache.size());
+      });
+      return cache.getMany(List.of("a", "b"), ids -> Future.failedFuture("no load expected"));
+    }).onComplete(context.asyncAssertSuccess(documents -> {
+      assertEquals("apple", documents.get(0).getString("name"));
+      assertEquals("banana", documents.get(1).getString("name"));
+      assertEquals(3L, Metrics.of(vertx).counter("repo.many.cache.hits").sum());
+    }));
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsed(TestContext context) {
+    Vertx vertx = rule.vertx();
+    DocumentCache cache = new DocumentCache(vertx, "lru", new JsonObject().put(DocumentCache.MAX_SIZE_PROP, 2));
+    cache.put(new JsonObject().put("_id", "a"));
+    cache.put(new JsonObject().put("_id", "b"));
+    List<String> loads = new ArrayList<>();
+    Function<String, Future<JsonObject>> loader = id -> {
+      loads.add(id);
+      return Future.succeededFuture(new JsonObject().put("_id", id));
+    };
+
+    // reading a makes b the eldest, so caching c evicts b
+    cache.get("a", loader)
+      .compose(a -> cache.get("c", loader))
+      .compose(c -> cache.get("a", loader))
+      .compose(a -> cache.get("b", loader))
+      .onComplete(context.asyncAssertSuccess(b -> context.verify(v -> {
+        assertEquals(List.of("c", "b"), loads);
+        assertEquals(2, cache.size());
+        assertEquals(2L, Metrics.of(vertx).counter("repo.lru.cache.evictions").sum());
+      })));
+  }
+
+  @Test
+  public void reloadsExpiredDocuments(TestContext context) {
+    Vertx vertx = rule.vertx();
+    DocumentCache cache = new DocumentCache(vertx, "ttl", new JsonObject().put(DocumentCache.TTL_PROP, 20));
+    cache.put(new JsonObject().put("_id", "a").put("name", "old"));
+
+    cache.get("a", id -> Future.failedFuture("no load expected"))
+      .compose(cached -> {
+        context.verify(v -> assertEquals("old", cached.getString("name")));
+        Promise<JsonObject> expired = Promise.promise();
+        vertx.setTimer(50, timer -> cache.get("a", id -> Future.succeededFuture(new JsonObject()
+          .put("_id", id).put("name", "new"))).onComplete(expired));
+        return expired.future();
+      })
+      .onComplete(context.asyncAssertSuccess(loaded -> context.verify(v -> {
+        assertEquals("new", loaded.getString("name"));
+        assertEquals(1L, Metrics.of(vertx).counter("repo.ttl.cache.misses").sum());
+      })));
+  }
+
+  @Test
+  public void doesNotCacheALoadOlderThanAWrite(TestContext context) {
+    DocumentCache cache = new DocumentCache(rule.vertx(), "stale", new JsonObject());
+    Promise<JsonObject> load = Promise.promise();
+    Future<JsonObject> loaded = cache.get("a", id -> load.future());
+    // written while the read was in flight
+    cache.invalidate("a");
+    load.complete(new JsonObject().put("_id", "a").put("name", "stale"));
+
+    loaded.onComplete(context.asyncAssertSuccess(stale -> context.verify(v -> assertEquals(0, cache.size()))));
+  }
+}
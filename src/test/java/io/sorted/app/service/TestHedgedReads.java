@@ -0,0 +1,74 @@
+package io.sorted.app.service;
+
+import io.sorted.app.metrics.Metrics;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(VertxUnitRunner.class)
+public class TestHedgedReads {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  static Future<String> after(Vertx vertx, long delay, String result) {
+    Promise<String> promise = Promise.promise();
+    vertx.setTimer(delay, id -> promise.complete(result));
+    return promise.future();
+  }
+
+  @Test
+  public void hedgesSlowReads(TestContext context) {
+    Vertx vertx = rule.vertx();
+    HedgedReads hedging = new HedgedReads(vertx, "hedged"
+      , new JsonObject().put(HedgedReads.MIN_DELAY_PROP, 1).put(HedgedReads.MAX_DELAY_PROP, 20));
+    JsonObject metrics = Metrics.of(vertx).toJson();
+    long hedged = metrics.getLong("repo.hedged.hedge.hedged", 0L);
+
+    // a fast read completes before the delay without a second read
+    hedging.run(() -> Future.succeededFuture("fast"), () -> Future.succeededFuture("hedge"))
+      .compose(fast -> {
+        context.verify(v -> assertEquals("fast", fast));
+        return hedging.run(() -> after(vertx, 500, "slow"), () -> after(vertx, 5, "hedge"));
+      })
+      .onComplete(context.asyncAssertSuccess(slow -> context.verify(v -> {
+        assertEquals("hedge", slow);
+        JsonObject after = Metrics.of(vertx).toJson();
+        assertEquals(hedged + 1, (long) after.getLong("repo.hedged.hedge.hedged"));
+        assertEquals(1, (long) after.getLong("repo.hedged.hedge.wins"));
+      })));
+  }
+
+  @Test
+  public void delayFollowsThePercentile() {
+    HedgedReads hedging = new HedgedReads(rule.vertx(), "percentile"
+      , new JsonObject().put(HedgedReads.PERCENTILE_PROP, 90).put(HedgedReads.WINDOW_PROP, 100));
+    assertEquals(HedgedReads.DEFAULT_MAX_DELAY_MS, hedging.delay());
+    for (int i = 1; i <= HedgedReads.RECOMPUTE_EVERY * 2; i++) hedging.record(TimeUnit.MILLISECONDS.toNanos(i % 10 + 1));
+    // the 90th of 100 latencies evenly spread over 1 to 10 ms
+    assertEquals(9, hedging.delay());
+  }
+
+  @Test
+  public void deadlineIgnoresLateResults(TestContext context) {
+    Vertx vertx = rule.vertx();
+    Deadline deadline = new Deadline(vertx, "deadline", 10);
+    deadline.apply(after(vertx, 200, "late"))
+      .onComplete(context.asyncAssertFailure(t -> context.verify(v -> {
+        assertTrue(t instanceof TimeoutException);
+        assertEquals(1, (long) Metrics.of(vertx).toJson().getLong("repo.deadline.deadline.exceeded"));
+      })));
+  }
+}
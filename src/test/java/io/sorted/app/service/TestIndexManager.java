@@ -0,0 +1,98 @@
+package io.sorted.app.service;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import io.vertx.core.Future;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.bson.BsonDocument;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+@RunWith(VertxUnitRunner.class)
+public class TestIndexManager {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  IndexManager strict() {
+    return new IndexManager(rule.vertx(), null, "indexed"
+      , List.of(Index.of(new JsonObject().put("rank", 1).put("_id", 1)), Index.on("name"))
+      , new JsonObject().put(IndexManager.STRICT_PROP, true));
+  }
+
+  @Test
+  public void allowsIndexedQueries() {
+    IndexManager indexes = strict();
+    indexes.check(new JsonObject(), null);
+    indexes.check(new JsonObject(), new JsonObject().put("rank", -1).put("_id", -1));
+    indexes.check(new JsonObject().put("name", "apple").put("description", "red"), null);
+    indexes.check(new JsonObject().put("$and", new JsonArray()
+      .add(new JsonObject().put("rank", new JsonObject().put("$gt", 1)))
+      .add(new JsonObject().put("description", "red"))), null);
+  }
+
+  @Test
+  public void failsUnindexedQueriesWhenStrict() {
+    IndexManager indexes = strict();
+    assertThrows(IllegalStateException.class, () -> indexes.check(new JsonObject().put("description", "red"), null));
+    assertThrows(IllegalStateException.class
+      , () -> indexes.check(new JsonObject(), new JsonObject().put("description", 1)));
+  }
+
+  @Test
+  public void needsAnIndexInEveryOrBranch() {
+    IndexManager indexes = strict();
+    indexes.check(new JsonObject().put("$or", new JsonArray()
+      .add(new JsonObject().put("name", "apple"))
+      .add(new JsonObject().put("rank", 1))), null);
+    assertThrows(IllegalStateException.class, () -> indexes.check(new JsonObject().put("$or", new JsonArray()
+      .add(new JsonObject().put("name", "apple"))
+      .add(new JsonObject().put("description", "red"))), null));
+    assertThrows(IllegalStateException.class, () -> indexes.check(new JsonObject().put("$nor", new JsonArray()
+      .add(new JsonObject().put("name", "apple"))), null));
+  }
+
+  // a client whose listIndexes fails with the error
+  static MongoClient listing(Throwable error, List<String> created) {
+    return MongoStub.of(Map.of(
+      "listIndexes", args -> Future.failedFuture(error)
+      , "createIndexWithOptions", args -> {
+        created.add(((JsonObject) args[1]).encode());
+        return Future.succeededFuture();
+      }));
+  }
+
+  @Test
+  public void reconcilesOnlyWhenTheIndexesCanBeListed(TestContext context) {
+    List<String> created = new ArrayList<>();
+    JsonObject missing = new JsonObject().put("code", IndexManager.NAMESPACE_NOT_FOUND).put("errmsg", "ns not found");
+    IndexManager newCollection = new IndexManager(rule.vertx()
+      , listing(new MongoCommandException(BsonDocument.parse(missing.encode()), new ServerAddress()), created)
+      , "created", List.of(Index.on("name")), new JsonObject());
+    IndexManager unreachable = new IndexManager(rule.vertx()
+      , listing(new IllegalStateException("not authorized"), created)
+      , "unreachable", List.of(Index.on("name")), new JsonObject());
+
+    newCollection.reconcile()
+      .compose(v -> {
+        context.verify(it -> assertEquals(1, created.size()));
+        return unreachable.reconcile();
+      })
+      .onComplete(context.asyncAssertFailure(t -> context.verify(it -> {
+        assertEquals("not authorized", t.getMessage());
+        assertEquals(1, created.size());
+      })));
+  }
+}
@@ -0,0 +1,140 @@
+package io.sorted.app.service;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkWriteOptions;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.unit.Async;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(VertxUnitRunner.class)
+public class TestMemoryRepo {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+  MemoryRepo repo;
+
+  static JsonObject product(String id, String name, Integer rank) {
+    return new JsonObject().put("_id", id).put("name", name).put("rank", rank);
+  }
+
+  static List<String> ids(List<JsonObject> documents) {
+    return documents.stream().map(it -> it.getString("_id")).collect(Collectors.toList());
+  }
+
+  @Before
+  public void setup(TestContext context) {
+    repo = new MemoryRepo(rule.vertx(), "products", new JsonObject()) { };
+    CompositeFuture.all(repo.save(product("a", "apple", 3))
+      , repo.save(product("b", "banana", 1))
+      , repo.save(product("c", "cherry", null))
+      , repo.save(product("d", "date", 2))).onComplete(context.asyncAssertSuccess());
+  }
+
+  @Test
+  public void findsWithOperatorsSortAndProjection(TestContext context) {
+    JsonObject query = new JsonObject()
+      .put("$or", new JsonArray()
+        .add(new JsonObject().put("rank", new JsonObject().put("$gte", 2)))
+        .add(new JsonObject().put("name", new JsonObject().put("$in", new JsonArray().add("cherry")))));
+    FindOptions options = new FindOptions()
+      .setSort(new JsonObject().put("rank", -1))
+      .setFields(new JsonObject().put("name", 1));
+    repo.findWithOptions(query, options).onComplete(context.asyncAssertSuccess(found -> context.verify(v -> {
+      // nulls sort before numbers
+      assertEquals(List.of("a", "d", "c"), ids(found));
+      assertEquals(new JsonObject().put("name", "apple").put("_id", "a"), found.get(0));
+    })));
+  }
+
+  @Test
+  public void updatesAtomically(TestContext context) {
+    JsonObject inc = new JsonObject().put("$inc", new JsonObject().put("rank", 10));
+    repo.updateById("b", inc)
+      .compose(previous -> {
+        context.verify(v -> assertEquals(1, (int) previous.getInteger("rank")));
+        return repo.updateAndGet(RepoImpl.idDocument("b"), inc);
+      })
+      .compose(updated -> {
+        context.verify(v -> assertEquals(21, (int) updated.getInteger("rank")));
+        return repo.updateAndGet(new JsonObject().put("_id", "b").put("rank", 1), inc);
+      })
+      .onComplete(context.asyncAssertSuccess(conflict -> context.verify(v -> assertNull(conflict))));
+  }
+
+  @Test
+  public void runsBulkOperations(TestContext context) {
+    List<BulkOperation> operations = List.of(
+      BulkOperation.createInsert(product("e", "elderberry", 5))
+      , BulkOperation.createUpdate(new JsonObject().put("rank", new JsonObject().put("$exists", true))
+        , new JsonObject().put("$set", new JsonObject().put("fresh", true)), false, true)
+      , BulkOperation.createDelete(RepoImpl.idDocument("a")));
+    repo.bulk(operations, new BulkWriteOptions(true))
+      .compose(result -> {
+        context.verify(v -> {
+          assertEquals(1, result.getInsertedCount());
+          assertEquals(5, result.getMatchedCount());
+          assertEquals(1, result.getDeletedCount());
+        });
+        return repo.find(new JsonObject().put("fresh", true));
+      })
+      .onComplete(context.asyncAssertSuccess(fresh -> context.verify(v ->
+        assertEquals(List.of("b", "c", "d", "e"), ids(fresh)))));
+  }
+
+  @Test
+  public void streamsWithBackpressure(TestContext context) {
+    Vertx vertx = rule.vertx();
+    List<JsonObject> received = new ArrayList<>();
+    Async async = context.async();
+    var stream = repo.stream(new JsonObject());
+    stream.endHandler(v -> context.verify(it -> {
+      assertEquals(List.of("a", "b", "c", "d"), ids(received));
+      async.complete();
+    }));
+    // take one document at a time
+    stream.handler(document -> {
+      received.add(document);
+      stream.pause();
+      vertx.setTimer(1, id -> stream.resume());
+    });
+  }
+
+  @Test
+  public void aggregatesGroups(TestContext context) {
+    JsonArray pipeline = new JsonArray()
+      .add(new JsonObject().put("$match", new JsonObject().put("rank", new JsonObject().put("$ne", null))))
+      .add(new JsonObject().put("$group", new JsonObject()
+        .putNull("_id")
+        .put("count", new JsonObject().put("$sum", 1))
+        .put("total", new JsonObject().put("$sum", "$rank"))
+        .put("names", new JsonObject().put("$push", "$name"))))
+      .add(new JsonObject().put("$project", new JsonObject().put("_id", 0).put("count", 1).put("total", 1)
+        .put("ranked", "$names")));
+    List<JsonObject> received = new ArrayList<>();
+    Async async = context.async();
+    repo.aggregate(pipeline)
+      .exceptionHandler(context::fail)
+      .endHandler(v -> context.verify(it -> {
+        assertEquals(List.of(new JsonObject().put("count", 3).put("total", 6)
+          .put("ranked", new JsonArray().add("apple").add("banana").add("date"))), received);
+        async.complete();
+      }))
+      .handler(received::add);
+  }
+}
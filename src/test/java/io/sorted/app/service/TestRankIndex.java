@@ -0,0 +1,65 @@
+package io.sorted.app.service;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestRankIndex {
+  @Test
+  public void matchesSortedOrder() {
+    RankIndex index = new RankIndex();
+    Map<String, Integer> ranks = new HashMap<>();
+    Random random = new Random(7);
+    for (int i = 0; i < 5000; i++) {
+      String id = "p" + random.nextInt(1000);
+      // moves, ties and removals
+      Integer rank = random.nextInt(10) == 0 ? null : random.nextInt(200);
+      index.put(id, rank);
+      if (rank == null) ranks.remove(id);
+      else ranks.put(id, rank);
+    }
+    List<String> expected = ranks.entrySet().stream()
+      .sorted(Map.Entry.<String, Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+      .map(Map.Entry::getKey)
+      .collect(Collectors.toList());
+
+    assertEquals(expected.size(), index.size());
+    assertEquals(expected, ids(index.range(1, expected.size())));
+    assertEquals(expected.subList(0, 50), ids(index.top(50)));
+    assertEquals(expected.subList(99, 150), ids(index.range(100, 150)));
+    for (int position = 1; position <= expected.size(); position += 37) {
+      RankIndex.Entry entry = index.position(expected.get(position - 1));
+      assertEquals(position, entry.position());
+      assertEquals(ranks.get(entry.id()), entry.key());
+    }
+    assertEquals(List.of(), index.range(expected.size() + 1, expected.size() + 10));
+  }
+
+  @Test
+  public void keepsNewerEntriesWhenReplaced() {
+    RankIndex index = new RankIndex();
+    index.put("a", 1);
+    index.put("b", 2);
+    RankIndex built = new RankIndex();
+    built.put("a", 1);
+    built.put("b", 2);
+    built.put("c", 3);
+    // b moved and c was deleted while the index was being built
+    index.put("b", 0);
+    index.replace(built, Set.of("b", "c"));
+    assertEquals(List.of("b", "a"), ids(index.top(10)));
+    assertNull(index.position("c"));
+  }
+
+  static List<String> ids(List<RankIndex.Entry> entries) {
+    return entries.stream().map(RankIndex.Entry::id).collect(Collectors.toList());
+  }
+}
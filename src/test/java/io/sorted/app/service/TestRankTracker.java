@@ -0,0 +1,69 @@
+package io.sorted.app.service;
+
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(VertxUnitRunner.class)
+public class TestRankTracker {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  static JsonObject ranked(String id, int rank) {
+    return new JsonObject().put("_id", id).put("rank", rank);
+  }
+
+  @Test
+  public void fetchesTheWritesOfAFetchInFlightTogether() {
+    List<List<String>> fetched = new ArrayList<>();
+    List<Promise<List<JsonObject>>> fetches = new ArrayList<>();
+    MemoryRepo repo = new MemoryRepo(rule.vertx(), "ranked", new JsonObject()) { };
+    RankTracker tracker = new RankTracker(repo, new JsonObject().put("rank", 1), it -> it.getInteger("rank"), ids -> {
+      fetched.add(ids);
+      Promise<List<JsonObject>> fetch = Promise.promise();
+      fetches.add(fetch);
+      return fetch.future();
+    });
+
+    tracker.written("a");
+    tracker.written("b");
+    tracker.written("c");
+    fetches.get(0).complete(List.of(ranked("a", 3)));
+    fetches.get(1).complete(List.of(ranked("b", 1), ranked("c", 2)));
+
+    assertEquals(List.of(List.of("a"), List.of("b", "c")), fetched);
+    assertEquals(List.of("b", "c", "a"), tracker.index().top(3).stream().map(RankIndex.Entry::id).toList());
+  }
+
+  @Test
+  public void movesStoredDocumentsWithoutAFetch() {
+    List<List<String>> fetched = new ArrayList<>();
+    Promise<List<JsonObject>> fetch = Promise.promise();
+    MemoryRepo repo = new MemoryRepo(rule.vertx(), "stored", new JsonObject()) { };
+    RankTracker tracker = new RankTracker(repo, new JsonObject().put("rank", 1), it -> it.getInteger("rank"), ids -> {
+      fetched.add(ids);
+      return fetch.future();
+    });
+
+    tracker.written("a");
+    // stored by a later write, so the fetch of the earlier one is older
+    tracker.written("a", ranked("a", 2));
+    tracker.written("b", ranked("b", 1));
+    fetch.complete(List.of(ranked("a", 5)));
+
+    assertEquals(List.of(List.of("a")), fetched);
+    assertEquals(2L, tracker.index().position("a").position());
+    tracker.written("b", null);
+    assertNull(tracker.index().position("b"));
+  }
+}
@@ -0,0 +1,145 @@
+package io.sorted.app.service;
+
+import io.sorted.app.conf.Configurable;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(VertxUnitRunner.class)
+public class TestRepoImpl {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  // a client which records the name of every call and acknowledges writes
+  static MongoClient recording(List<String> calls) {
+    return MongoStub.of(Map.of(
+      "insert", args -> {
+        calls.add("insert");
+        return Future.succeededFuture(((JsonObject) args[1]).getString("_id"));
+      }
+      , "save", args -> {
+        calls.add("save");
+        return Future.succeededFuture(((JsonObject) args[1]).getString("_id"));
+      }));
+  }
+
+  @Test
+  public void savesInOneRoundTrip(TestContext context) {
+    List<String> calls = new ArrayList<>();
+    RepoImpl repo = new RepoImpl(rule.vertx(), recording(calls), "saved", new JsonObject()) { };
+
+    repo.save(new JsonObject().put("name", "new"))
+      .compose(inserted -> {
+        context.verify(v -> {
+          assertNotNull(inserted.getString("_id"));
+          assertEquals("new", inserted.getString("name"));
+          // a generated _id is inserted, not upserted, and the document isn't read back
+          assertEquals(List.of("insert"), calls);
+        });
+        return repo.save(new JsonObject().put("_id", "1").put("name", "replaced"));
+      })
+      .onComplete(context.asyncAssertSuccess(replaced -> context.verify(v -> {
+        assertEquals("1", replaced.getString("_id"));
+        assertEquals("replaced", replaced.getString("name"));
+        assertEquals(List.of("insert", "save"), calls);
+      })));
+  }
+
+  @Test
+  public void onlyTagsTheChangesOfASingleWriter(TestContext context) {
+    List<String> calls = new ArrayList<>();
+    RepoImpl shared = new RepoImpl(rule.vertx(), recording(calls), "shared", new JsonObject()) { };
+    RepoImpl single = new RepoImpl(rule.vertx(), recording(calls), "single"
+      , new JsonObject().put(RepoImpl.SINGLE_WRITER_PROP, true)) { };
+
+    shared.changeTag()
+      .compose(none -> {
+        // other processes may write the collection without changing a tag
+        context.verify(v -> assertNull(none));
+        return single.changeTag();
+      })
+      .compose(before -> single.save(new JsonObject().put("name", "new"))
+        .compose(saved -> single.changeTag())
+        .map(after -> {
+          context.verify(v -> {
+            assertNotNull(before);
+            assertNotEquals(before, after);
+          });
+          return after;
+        }))
+      .onComplete(context.asyncAssertSuccess());
+  }
+
+  // declares its indexes from a field, which isn't set yet while RepoImpl is constructed
+  static class SkuRepo extends RepoImpl {
+    final String skuField;
+
+    SkuRepo(Vertx vertx, MongoClient mongo, JsonObject config) {
+      super(vertx, mongo, "skus", config);
+      this.skuField = "sku";
+    }
+
+    @Override
+    public List<Index> indexes() {
+      return List.of(Index.on(skuField));
+    }
+  }
+
+  @Test
+  public void declaresIndexesAfterConstruction() {
+    SkuRepo repo = new SkuRepo(rule.vertx(), recording(new ArrayList<>())
+      , new JsonObject().put(IndexManager.INDEXES_PROP, new JsonObject().put(IndexManager.STRICT_PROP, true)));
+    repo.indexManager().check(new JsonObject().put("sku", "a-1"), null);
+  }
+
+  @Test
+  public void hedgesReadsOnTheSameClient(TestContext context) {
+    List<String> calls = new ArrayList<>();
+    // the first read is slow, its hedge answers at once
+    MongoClient mongo = MongoStub.of(Map.of("findOne", args -> {
+      calls.add("findOne");
+      JsonObject found = new JsonObject().put("_id", "1").put("read", calls.size());
+      if (calls.size() > 1) return Future.succeededFuture(found);
+      Promise<JsonObject> slow = Promise.promise();
+      rule.vertx().setTimer(500, id -> slow.complete(found));
+      return slow.future();
+    }));
+    RepoImpl repo = new RepoImpl(rule.vertx(), mongo, "hedged", new JsonObject()
+      .put(HedgedReads.HEDGE_PROP, new JsonObject().put(Configurable.ENABLED_PROP, true)
+        .put(HedgedReads.MIN_DELAY_PROP, 1).put(HedgedReads.MAX_DELAY_PROP, 1))) { };
+
+    repo.get("1").onComplete(context.asyncAssertSuccess(found -> context.verify(v -> {
+      assertEquals(2, (int) found.getInteger("read"));
+      // both reads went to the collection client, with its read preference
+      assertEquals(List.of("findOne", "findOne"), calls);
+    })));
+  }
+
+  @Test
+  public void dropsWithinTheDeadline(TestContext context) {
+    // a drop which never completes
+    MongoClient mongo = MongoStub.of(Map.of("dropCollection", args -> Promise.promise().future()));
+    RepoImpl repo = new RepoImpl(rule.vertx(), mongo, "dropped", new JsonObject().put(Deadline.DEADLINE_PROP, 10)) { };
+
+    repo.drop().onComplete(context.asyncAssertFailure(t -> context.verify(v ->
+      assertEquals(TimeoutException.class, t.getClass()))));
+  }
+}
@@ -0,0 +1,128 @@
+package io.sorted.app.service;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.FindOptions;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.serviceproxy.ServiceException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(VertxUnitRunner.class)
+public class TestReranker {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+  MemoryRepo repo;
+  RankTracker tracker;
+  Reranker reranker;
+
+  @Before
+  public void setup(TestContext context) {
+    repo = new MemoryRepo(rule.vertx(), "products", new JsonObject()) {
+      @Override
+      protected void written(Object id) {
+        super.written(id);
+        if (tracker != null) tracker.written(id);
+      }
+    };
+    tracker = new RankTracker(repo, new JsonObject().put("rank", 1).put("rank_key", 1)
+      , it -> Reranker.key(it, "rank", "rank_key"), repo::getMany);
+    reranker = new Reranker(rule.vertx(), "products", repo, tracker.index(), "rank", "rank_key"
+      , new JsonObject().put(Reranker.REBALANCE_DELAY_PROP, -1));
+    CompositeFuture.all(repo.save(new JsonObject().put("_id", "a").put("rank", 1))
+      , repo.save(new JsonObject().put("_id", "b").put("rank", 2))
+      , repo.save(new JsonObject().put("_id", "c").put("rank", 3))
+      , repo.save(new JsonObject().put("_id", "d").put("rank", 4)))
+      .compose(it -> tracker.build())
+      .onComplete(context.asyncAssertSuccess());
+  }
+
+  static List<String> order(RankIndex index) {
+    return index.range(1, index.size()).stream().map(RankIndex.Entry::id).collect(Collectors.toList());
+  }
+
+  @Test
+  public void movesByWritingOneDocumentThenRebalances(TestContext context) {
+    reranker.move("d", "a", null)
+      .compose(moved -> {
+        context.verify(v -> {
+          assertEquals(4, (int) moved.getInteger("rank"));
+          assertTrue(RankKeys.of(1).compareTo(moved.getString("rank_key")) > 0);
+          assertEquals(List.of("d", "a", "b", "c"), order(tracker.index()));
+          // the documents in between keep their rank until the rebalance
+          assertEquals(2, (int) repo.findSync(new JsonObject().put("_id", "b"), new FindOptions()).get(0).getInteger("rank"));
+        });
+        return reranker.move("c", "b", "a");
+      })
+      .compose(moved -> {
+        context.verify(v -> assertEquals(List.of("d", "a", "c", "b"), order(tracker.index())));
+        return reranker.rebalance();
+      })
+      .onComplete(context.asyncAssertSuccess(v -> {
+        List<JsonObject> documents = repo.findSync(new JsonObject(), new FindOptions());
+        for (JsonObject document : documents) {
+          long position = tracker.index().position(document.getString("_id")).position();
+          assertEquals(position, document.getValue("rank"));
+          assertFalse(document.containsKey("rank_key"));
+        }
+        assertEquals(List.of("d", "a", "c", "b"), order(tracker.index()));
+      }));
+  }
+
+  @Test
+  public void leavesDocumentsRankedDuringARebalance(TestContext context) {
+    // the order a rebalance read before b was ranked again and d was moved
+    List<RankIndex.Entry> snapshot = List.of(new RankIndex.Entry("b", RankKeys.of(2), 1)
+      , new RankIndex.Entry("d", RankKeys.of(4), 2));
+    repo.updateById("b", new JsonObject().put("$set", new JsonObject().put("rank", 7)))
+      .compose(ranked -> reranker.move("d", "a", null))
+      .compose(moved -> reranker.write(snapshot, Map.of()))
+      .onComplete(context.asyncAssertSuccess(v -> {
+        List<JsonObject> documents = repo.findSync(new JsonObject(), new FindOptions().setSort(new JsonObject().put("_id", 1)));
+        assertEquals(7, (int) documents.get(1).getInteger("rank"));
+        assertEquals(4, (int) documents.get(3).getInteger("rank"));
+        assertTrue(documents.get(3).containsKey("rank_key"));
+      }));
+  }
+
+  @Test
+  public void rejectsInvalidMoves(TestContext context) {
+    reranker.move("a", null, null)
+      .onComplete(context.asyncAssertFailure(e -> assertEquals(400, ((ServiceException) e).failureCode())));
+    reranker.move("a", "a", null)
+      .onComplete(context.asyncAssertFailure(e -> assertEquals(400, ((ServiceException) e).failureCode())));
+    reranker.move("a", "b", "c")
+      .onComplete(context.asyncAssertFailure(e -> assertEquals(400, ((ServiceException) e).failureCode())));
+    reranker.move("a", "x", null)
+      .onComplete(context.asyncAssertFailure(e -> assertEquals(404, ((ServiceException) e).failureCode())));
+    reranker.move("x", "a", null)
+      .onComplete(context.asyncAssertFailure(e -> assertEquals(404, ((ServiceException) e).failureCode())));
+  }
+
+  @Test
+  public void generatesKeysBetween() {
+    String lower = RankKeys.of(1);
+    String upper = RankKeys.of(2);
+    // repeatedly moving to the top of a range, keys grow but stay ordered
+    for (int i = 0; i < 100; i++) {
+      String key = RankKeys.between(lower, upper);
+      assertTrue(lower.compareTo(key) < 0 && key.compareTo(upper) < 0);
+      assertFalse(key.endsWith("0"));
+      upper = key;
+    }
+    assertTrue(RankKeys.between(null, RankKeys.of(1)).compareTo(RankKeys.of(1)) < 0);
+    assertTrue(RankKeys.between(RankKeys.of(5), null).compareTo(RankKeys.of(5)) > 0);
+  }
+}
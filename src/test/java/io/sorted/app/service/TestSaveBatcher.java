@@ -0,0 +1,112 @@
+package io.sorted.app.service;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.mongo.BulkOperation;
+import io.vertx.ext.mongo.BulkOperationType;
+import io.vertx.ext.mongo.MongoClient;
+import io.vertx.ext.mongo.MongoClientBulkWriteResult;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.serviceproxy.ServiceException;
+import org.bson.BsonDocument;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(VertxUnitRunner.class)
+public class TestSaveBatcher {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  // the operations of a bulkWriteWithOptions call
+  @SuppressWarnings("unchecked")
+  static List<BulkOperation> operations(Object[] args) {
+    return (List<BulkOperation>) args[1];
+  }
+
+  // a client whose bulk writes fail the operation at index 1 with a duplicate key
+  static MongoClient failingSecond(List<List<BulkOperation>> writes) {
+    return MongoStub.of(Map.of("bulkWriteWithOptions", args -> {
+      List<BulkOperation> operations = operations(args);
+      writes.add(operations);
+      return Future.failedFuture(new MongoBulkWriteException(
+        BulkWriteResult.acknowledged(operations.size() - 1, 0, 0, 0, List.of(), List.of())
+        , List.of(new BulkWriteError(BulkWriteFailure.DUPLICATE_KEY, "duplicate key", new BsonDocument(), 1))
+        , null, new ServerAddress(), Set.of()));
+    }));
+  }
+
+  @Test
+  public void failsOnlyTheSavesWithWriteErrors(TestContext context) {
+    List<List<BulkOperation>> writes = new ArrayList<>();
+    SaveBatcher batcher = new SaveBatcher(rule.vertx(), failingSecond(writes), "batched"
+      , new JsonObject().put(SaveBatcher.MAX_SIZE_PROP, 3).put(SaveBatcher.WINDOW_PROP, 1000));
+
+    Future<JsonObject> first = batcher.save(new JsonObject().put("name", "first"));
+    Future<JsonObject> second = batcher.save(new JsonObject().put("_id", "2").put("name", "second"));
+    Future<JsonObject> third = batcher.save(new JsonObject().put("name", "third"));
+
+    CompositeFuture.join(first, second, third).onComplete(context.asyncAssertFailure(t -> context.verify(v -> {
+      // one write, flushed by size before the window
+      assertEquals(1, writes.size());
+      List<BulkOperation> operations = writes.get(0);
+      assertEquals(BulkOperationType.INSERT, operations.get(0).getType());
+      assertEquals(BulkOperationType.REPLACE, operations.get(1).getType());
+      assertTrue(operations.get(1).isUpsert());
+
+      assertEquals("first", first.result().getString("name"));
+      assertTrue(first.result().getValue("_id") != null);
+      assertTrue(second.failed());
+      assertEquals("duplicate key", second.cause().getMessage());
+      // the code is kept, so the duplicate can be answered with 409
+      assertEquals(BulkWriteFailure.DUPLICATE_KEY, ((ServiceException) second.cause()).failureCode());
+      assertEquals("third", third.result().getString("name"));
+    })));
+  }
+
+  @Test
+  public void writesRepeatedIdsInOrder(TestContext context) {
+    List<List<BulkOperation>> writes = new ArrayList<>();
+    List<Promise<MongoClientBulkWriteResult>> written = new ArrayList<>();
+    MongoClient mongo = MongoStub.of(Map.of("bulkWriteWithOptions", args -> {
+      writes.add(operations(args));
+      Promise<MongoClientBulkWriteResult> promise = Promise.promise();
+      written.add(promise);
+      return promise.future();
+    }));
+    SaveBatcher batcher = new SaveBatcher(rule.vertx(), mongo, "ordered"
+      , new JsonObject().put(SaveBatcher.MAX_SIZE_PROP, 10).put(SaveBatcher.WINDOW_PROP, 1000));
+
+    Future<JsonObject> first = batcher.save(new JsonObject().put("_id", "1").put("name", "first"));
+    Future<JsonObject> other = batcher.save(new JsonObject().put("_id", "2").put("name", "other"));
+    Future<JsonObject> second = batcher.save(new JsonObject().put("_id", "1").put("name", "second"));
+    Future<Void> flushed = batcher.flush();
+
+    // the repeated _id starts the next batch, which waits for the first to be written
+    assertEquals(1, writes.size());
+    assertEquals(2, writes.get(0).size());
+    written.get(0).complete(new MongoClientBulkWriteResult());
+    assertEquals(2, writes.size());
+    assertEquals("second", writes.get(1).get(0).getDocument().getString("name"));
+    assertTrue(first.succeeded() && other.succeeded());
+    assertTrue(!second.isComplete() && !flushed.isComplete());
+    written.get(1).complete(new MongoClientBulkWriteResult());
+    CompositeFuture.all(second, flushed).onComplete(context.asyncAssertSuccess());
+  }
+}
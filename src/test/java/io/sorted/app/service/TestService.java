@@ -0,0 +1,186 @@
+package io.sorted.app.service;
+
+import io.sorted.product.ProductMemoryRepo;
+import io.sorted.product.ProductRepo;
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import io.vertx.serviceproxy.ServiceException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(VertxUnitRunner.class)
+public class TestService {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  public interface Echo {
+    Future<JsonObject> echo(JsonObject document);
+
+    Future<Void> fail(String message);
+  }
+
+  // records the context calls run on, registered from its own verticle
+  static class EchoVerticle extends AbstractVerticle implements Echo {
+    Context registered;
+    Context called;
+
+    @Override
+    public void start() {
+      registered = context;
+      Service.locals(vertx).put(Echo.class.getName(), new Service.Local(this, context));
+    }
+
+    @Override
+    public Future<JsonObject> echo(JsonObject document) {
+      called = Vertx.currentContext();
+      return Future.succeededFuture(document.put("echo", true));
+    }
+
+    @Override
+    public Future<Void> fail(String message) {
+      throw new IllegalStateException(message);
+    }
+  }
+
+  @Test
+  public void callsLocalServicesDirectly(TestContext context) {
+    Vertx vertx = rule.vertx();
+    Context caller = vertx.getOrCreateContext();
+    EchoVerticle impl = new EchoVerticle();
+    JsonObject document = new JsonObject().put("_id", "1");
+
+    vertx.deployVerticle(impl)
+      .compose(id -> {
+        Echo echo = Service.get(vertx, Echo.class);
+        context.verify(v -> assertTrue(Proxy.isProxyClass(echo.getClass())));
+        return echo.echo(document).compose(echoed -> {
+          context.verify(v -> {
+            assertSame(caller, Vertx.currentContext());
+            assertSame(impl.registered, impl.called);
+            assertTrue(echoed.getBoolean("echo"));
+            // ownership of the argument moved to the service, like a local message body
+            assertSame(document, echoed);
+          });
+          return echo.fail("no echo");
+        });
+      })
+      .onComplete(context.asyncAssertFailure(t -> context.verify(v -> {
+        assertTrue(t instanceof ServiceException);
+        assertEquals(-1, ((ServiceException) t).failureCode());
+        assertEquals("no echo", t.getMessage());
+      })));
+  }
+
+  @Test
+  public void encodesBetweenNodesAsCbor() {
+    ServiceCodec codec = new ServiceCodec();
+    JsonObject document = new JsonObject().put("_id", "1").put("rank", 2L).put("tags", new JsonArray().add("a"));
+    Buffer wire = Buffer.buffer().appendString("header");
+    codec.encodeToWire(wire, document);
+    assertEquals(document, codec.decodeFromWire(6, wire));
+    assertSame(document, codec.transform(document));
+  }
+
+  @Test
+  public void repliesOverTheEventBus(TestContext context) {
+    Vertx vertx = rule.vertx();
+    Service.register(vertx, ProductRepo.class, new ProductMemoryRepo(vertx, "products", new JsonObject()));
+    ProductRepo repo = Service.proxy(vertx, ProductRepo.class);
+    context.assertFalse(Proxy.isProxyClass(repo.getClass()));
+    repo.save(new JsonObject().put("_id", "1").put("name", "apple"))
+      .compose(saved -> repo.list())
+      .onComplete(context.asyncAssertSuccess(list -> assertEquals("apple", list.get(0).getString("name"))));
+  }
+
+  @Test
+  public void multiplexesCallsOfATick(TestContext context) {
+    Vertx vertx = rule.vertx();
+    List<String> sent = new ArrayList<>();
+    vertx.eventBus().addOutboundInterceptor(delivery -> {
+      sent.add(delivery.message().address());
+      delivery.next();
+    });
+    ProductMemoryRepo impl = new ProductMemoryRepo(vertx, "products", new JsonObject());
+    Service.register(vertx, ProductRepo.class, impl);
+    ProductRepo repo = Service.multiplexed(vertx, ProductRepo.class);
+    String batch = ProductRepo.class.getName() + Multiplexer.BATCH_SUFFIX;
+
+    impl.save(new JsonObject().put("_id", "1").put("name", "apple"))
+      .compose(saved -> impl.save(new JsonObject().put("_id", "2").put("name", "banana")))
+      .compose(saved -> {
+        sent.clear();
+        Future<JsonObject> one = repo.get("1");
+        Future<List<JsonObject>> many = repo.getMany(Arrays.asList("2", "3", "1"));
+        Future<Long> count = repo.count(new JsonObject());
+        Future<JsonObject> replaced = repo.replace(new JsonObject(), new JsonObject().put("$set", new JsonObject()));
+        return CompositeFuture.join(one, many, count, replaced).otherwiseEmpty().compose(v -> {
+          context.verify(it -> {
+            assertEquals(1, sent.stream().filter(batch::equals).count());
+            assertEquals(0, sent.stream().filter(ProductRepo.class.getName()::equals).count());
+            assertEquals("apple", one.result().getString("name"));
+            assertEquals("banana", many.result().get(0).getString("name"));
+            assertNull(many.result().get(1));
+            assertEquals("apple", many.result().get(2).getString("name"));
+            assertEquals(Long.valueOf(2), count.result());
+            assertTrue(replaced.cause() instanceof ServiceException);
+            assertEquals("a replacement can't contain update operators", replaced.cause().getMessage());
+          });
+          // a call alone in its tick is sent as is
+          return repo.get("2");
+        });
+      })
+      .onComplete(context.asyncAssertSuccess(two -> {
+        assertEquals("banana", two.getString("name"));
+        assertEquals(1, sent.stream().filter(ProductRepo.class.getName()::equals).count());
+      }));
+  }
+
+  @Test
+  public void answersEachCallOfABatchWhenItCompletes(TestContext context) {
+    Vertx vertx = rule.vertx();
+    // counting takes a while, getting doesn't
+    ProductMemoryRepo impl = new ProductMemoryRepo(vertx, "products", new JsonObject()) {
+      @Override
+      public Future<Long> count(JsonObject query) {
+        Promise<Long> promise = Promise.promise();
+        vertx.setTimer(500, id -> super.count(query).onComplete(promise));
+        return promise.future();
+      }
+    };
+    Service.register(vertx, ProductRepo.class, impl);
+    ProductRepo repo = Service.multiplexed(vertx, ProductRepo.class);
+    List<String> answered = new ArrayList<>();
+
+    impl.save(new JsonObject().put("_id", "1").put("name", "apple"))
+      .compose(saved -> {
+        Future<Long> count = repo.count(new JsonObject()).onSuccess(it -> answered.add("count"));
+        Future<JsonObject> one = repo.get("1").onSuccess(it -> answered.add("get"));
+        return CompositeFuture.all(count, one);
+      })
+      .onComplete(context.asyncAssertSuccess(v -> context.verify(it -> {
+        // the get wasn't held back by the count sent before it in the same batch
+        assertEquals(List.of("get", "count"), answered);
+      })));
+  }
+}
@@ -0,0 +1,95 @@
+package io.sorted.app.service;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.unit.TestContext;
+import io.vertx.ext.unit.junit.RunTestOnContext;
+import io.vertx.ext.unit.junit.VertxUnitRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(VertxUnitRunner.class)
+public class TestSingleFlight {
+  @Rule
+  public RunTestOnContext rule = new RunTestOnContext();
+
+  @Test
+  public void sharesConcurrentReads(TestContext context) {
+    Vertx vertx = rule.vertx();
+    SingleFlight flights = new SingleFlight(vertx, "flights", new JsonObject());
+    AtomicInteger reads = new AtomicInteger();
+    Promise<JsonObject> read = Promise.promise();
+
+    Future<JsonObject> first = flights.run("get", "1", () -> {
+      reads.incrementAndGet();
+      return read.future();
+    }, JsonObject::copy);
+    Future<JsonObject> second = flights.run("get", "1", () -> {
+      reads.incrementAndGet();
+      return Future.succeededFuture();
+    }, JsonObject::copy);
+    Future<JsonObject> other = flights.run("get", "2", () -> {
+      reads.incrementAndGet();
+      return Future.succeededFuture(new JsonObject().put("_id", "2"));
+    }, JsonObject::copy);
+
+    read.complete(new JsonObject().put("_id", "1"));
+    CompositeFuture.all(first, second, other).onComplete(context.asyncAssertSuccess(it -> context.verify(v -> {
+      assertEquals(2, reads.get());
+      assertEquals("1", second.result().getString("_id"));
+      assertNotSame(first.result(), second.result());
+      assertEquals(0, flights.size());
+    })));
+  }
+
+  @Test
+  public void waitersTimeOutIndependently(TestContext context) {
+    Vertx vertx = rule.vertx();
+    SingleFlight flights = new SingleFlight(vertx, "timeouts"
+      , new JsonObject().put(SingleFlight.TIMEOUT_PROP, 50));
+    Promise<JsonObject> read = Promise.promise();
+
+    Future<JsonObject> first = flights.run("get", "1", read::future, JsonObject::copy);
+    vertx.setTimer(30, id -> {
+      Future<JsonObject> second = flights.run("get", "1", read::future, JsonObject::copy);
+      // the first waiter times out but the shared read is still in flight for the second
+      vertx.setTimer(40, done -> {
+        read.complete(new JsonObject().put("_id", "1"));
+        second.onComplete(context.asyncAssertSuccess(it -> context.verify(v -> {
+          assertTrue(first.failed());
+          assertTrue(first.cause() instanceof TimeoutException);
+          assertEquals("1", it.getString("_id"));
+        })));
+      });
+    });
+  }
+
+  @Test
+  public void readsAfterAWriteDontJoinOlderReads(TestContext context) {
+    SingleFlight flights = new SingleFlight(rule.vertx(), "invalidated", new JsonObject());
+    Promise<JsonObject> before = Promise.promise();
+
+    Future<JsonObject> old = flights.run("get", "1", before::future, JsonObject::copy);
+    flights.invalidate(key -> key.argument().equals("1"));
+    Future<JsonObject> after = flights.run("get", "1"
+      , () -> Future.succeededFuture(new JsonObject().put("_id", "1").put("name", "new")), JsonObject::copy);
+    before.complete(new JsonObject().put("_id", "1").put("name", "old"));
+
+    CompositeFuture.all(old, after).onComplete(context.asyncAssertSuccess(it -> context.verify(v -> {
+      assertEquals("old", old.result().getString("name"));
+      assertEquals("new", after.result().getString("name"));
+      assertEquals(0, flights.size());
+    })));
+  }
+}